@@ -1,19 +1,98 @@
 package org.openmrs.module.fhirExtension;
 
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.openmrs.api.AdministrationService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
-import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
+@Log4j2
 @Configuration
 @EnableAsync
 public class AsyncConfiguration {
 	
+	public static final String GP_EXPORT_EXECUTOR_CORE_POOL_SIZE = "fhir.export.executor.corePoolSize";
+	
+	public static final String GP_EXPORT_EXECUTOR_MAX_POOL_SIZE = "fhir.export.executor.maxPoolSize";
+	
+	public static final String GP_EXPORT_EXECUTOR_QUEUE_CAPACITY = "fhir.export.executor.queueCapacity";
+	
+	public static final String GP_EXPORT_EXECUTOR_KEEP_ALIVE_SECONDS = "fhir.export.executor.keepAliveSeconds";
+	
+	public static final String GP_LAB_REPORT_QUEUE_WORKER_THREADS = "fhir.labReport.queue.workerThreads";
+	
+	private static final int DEFAULT_CORE_POOL_SIZE = 1;
+	
+	private static final int DEFAULT_QUEUE_CAPACITY = 10;
+	
+	private static final int DEFAULT_KEEP_ALIVE_SECONDS = 60;
+	
+	private static final int DEFAULT_LAB_REPORT_WORKER_THREADS = 2;
+	
+	private static final int LAB_REPORT_QUEUE_CAPACITY = 100;
+	
+	@Autowired(required = false)
+	@Qualifier("adminService")
+	private AdministrationService administrationService;
+	
+	/**
+	 * Pool settings are read from global properties when the module context starts, falling back to a
+	 * single thread with a bounded queue. Exports submitted once the queue is full are rejected, so that
+	 * the request is answered with 429 instead of running the export on the request thread.
+	 */
 	@Bean(name = "export-fhir-data-threadPoolTaskExecutor")
-	public Executor threadPoolTaskExecutor() {
+	public ExportTaskExecutor threadPoolTaskExecutor() {
+		ExportTaskExecutor threadPoolTaskExecutor = new ExportTaskExecutor();
+		int corePoolSize = getIntProperty(GP_EXPORT_EXECUTOR_CORE_POOL_SIZE, DEFAULT_CORE_POOL_SIZE);
+		threadPoolTaskExecutor.setCorePoolSize(corePoolSize);
+		threadPoolTaskExecutor.setMaxPoolSize(Math.max(corePoolSize,
+		    getIntProperty(GP_EXPORT_EXECUTOR_MAX_POOL_SIZE, corePoolSize)));
+		threadPoolTaskExecutor.setQueueCapacity(getIntProperty(GP_EXPORT_EXECUTOR_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY));
+		threadPoolTaskExecutor.setKeepAliveSeconds(getIntProperty(GP_EXPORT_EXECUTOR_KEEP_ALIVE_SECONDS,
+		    DEFAULT_KEEP_ALIVE_SECONDS));
+		threadPoolTaskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+		threadPoolTaskExecutor.setThreadNamePrefix("fhir-export-");
+		return threadPoolTaskExecutor;
+	}
+	
+	/**
+	 * Workers draining the lab report queue. Items which do not fit in the pool's queue stay in the database
+	 * until the next poll, so submissions are simply rejected when it is full.
+	 */
+	@Bean(name = "lab-report-threadPoolTaskExecutor")
+	public ThreadPoolTaskExecutor labReportTaskExecutor() {
 		ThreadPoolTaskExecutor threadPoolTaskExecutor = new ThreadPoolTaskExecutor();
+		int workerThreads = Math.max(1, getIntProperty(GP_LAB_REPORT_QUEUE_WORKER_THREADS,
+		    DEFAULT_LAB_REPORT_WORKER_THREADS));
+		threadPoolTaskExecutor.setCorePoolSize(workerThreads);
+		threadPoolTaskExecutor.setMaxPoolSize(workerThreads);
+		threadPoolTaskExecutor.setQueueCapacity(LAB_REPORT_QUEUE_CAPACITY);
+		threadPoolTaskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+		threadPoolTaskExecutor.setThreadNamePrefix("fhir-lab-report-");
 		return threadPoolTaskExecutor;
 	}
+	
+	private int getIntProperty(String propertyName, int defaultValue) {
+		int value = NumberUtils.toInt(getProperty(propertyName), defaultValue);
+		return value < 0 ? defaultValue : value;
+	}
+	
+	private String getProperty(String propertyName) {
+		if (administrationService == null) {
+			return null;
+		}
+		try {
+			return administrationService.getGlobalProperty(propertyName);
+		}
+		catch (Exception e) {
+			log.warn("Unable to read " + propertyName + ", using default value", e);
+			return null;
+		}
+	}
 }
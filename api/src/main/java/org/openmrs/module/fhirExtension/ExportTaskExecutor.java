@@ -0,0 +1,42 @@
+package org.openmrs.module.fhirExtension;
+
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool running FHIR exports, which keeps count of the exports it had to reject.
+ */
+public class ExportTaskExecutor extends ThreadPoolTaskExecutor {
+	
+	private final AtomicLong rejectedCount = new AtomicLong();
+	
+	@Override
+	public void setRejectedExecutionHandler(RejectedExecutionHandler rejectedExecutionHandler) {
+		super.setRejectedExecutionHandler((runnable, executor) -> {
+			rejectedCount.incrementAndGet();
+			rejectedExecutionHandler.rejectedExecution(runnable, executor);
+		});
+	}
+	
+	public int getQueuedCount() {
+		ThreadPoolExecutor threadPoolExecutor = getThreadPoolExecutor();
+		return threadPoolExecutor.getQueue().size();
+	}
+	
+	public int getRemainingQueueCapacity() {
+		ThreadPoolExecutor threadPoolExecutor = getThreadPoolExecutor();
+		return threadPoolExecutor.getQueue().remainingCapacity();
+	}
+	
+	public long getCompletedCount() {
+		ThreadPoolExecutor threadPoolExecutor = getThreadPoolExecutor();
+		return threadPoolExecutor.getCompletedTaskCount();
+	}
+	
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+}
@@ -15,16 +15,27 @@ package org.openmrs.module.fhirExtension;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.BaseModuleActivator;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.fhirExtension.service.LabReportQueueWorker;
+
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * This class contains the logic that is run every time this module is either started or shutdown
  */
-public class FhirExtensionModuleActivator extends BaseModuleActivator {
+public class FhirExtensionModuleActivator extends BaseModuleActivator implements DaemonTokenAware {
 	
 	private Log log = LogFactory.getLog(this.getClass());
 	
+	private DaemonToken daemonToken;
+	
 	/**
 	 * @see ModuleActivator#willStart()
 	 */
@@ -32,11 +43,44 @@ public class FhirExtensionModuleActivator extends BaseModuleActivator {
 		log.info("Starting Basic Module");
 	}
 	
+	/**
+	 * @see ModuleActivator#started()
+	 */
+	public void started() {
+		AdministrationService administrationService = Context.getAdministrationService();
+		getGlobalPropertyListeners().forEach(administrationService::addGlobalPropertyListener);
+		getLabReportQueueWorker().start(daemonToken);
+	}
+	
 	/**
 	 * @see ModuleActivator#willStop()
 	 */
 	public void willStop() {
 		log.info("Shutting down Basic Module");
+		AdministrationService administrationService = Context.getAdministrationService();
+		getGlobalPropertyListeners().forEach(administrationService::removeGlobalPropertyListener);
+		getLabReportQueueWorker().stop();
+	}
+	
+	/**
+	 * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+	 */
+	@Override
+	public void setDaemonToken(DaemonToken daemonToken) {
+		this.daemonToken = daemonToken;
+	}
+	
+	/**
+	 * Components of this module which cache global property values and need to hear about their changes
+	 */
+	private List<GlobalPropertyListener> getGlobalPropertyListeners() {
+		String modulePackage = getClass().getPackage().getName();
+		return Context.getRegisteredComponents(GlobalPropertyListener.class).stream()
+		        .filter(listener -> listener.getClass().getName().startsWith(modulePackage)).collect(Collectors.toList());
 	}
 	
+	private LabReportQueueWorker getLabReportQueueWorker() {
+		return Context.getRegisteredComponents(LabReportQueueWorker.class).get(0);
+	}
+
 }
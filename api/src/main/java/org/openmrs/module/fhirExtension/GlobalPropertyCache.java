@@ -0,0 +1,66 @@
+package org.openmrs.module.fhirExtension;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.openmrs.api.GlobalPropertyListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the global properties read by this module in memory, so that they are read from the database only
+ * once. Entries are dropped when the property is saved or deleted through the AdministrationService. The
+ * listeners are called before the change is committed, so a concurrent read may still cache the old value;
+ * entries are dropped again once the transaction completed for that reason.
+ */
+@Component
+public class GlobalPropertyCache implements GlobalPropertyListener {
+	
+	private final AdministrationService adminService;
+	
+	private final ConcurrentMap<String, Optional<String>> globalProperties = new ConcurrentHashMap<>();
+	
+	@Autowired
+	public GlobalPropertyCache(@Qualifier("adminService") AdministrationService adminService) {
+		this.adminService = adminService;
+	}
+	
+	public String getGlobalProperty(String propertyName) {
+		return globalProperties.computeIfAbsent(propertyName,
+		    name -> Optional.ofNullable(adminService.getGlobalProperty(name))).orElse(null);
+	}
+	
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return globalProperties.containsKey(propertyName);
+	}
+	
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		evict(newValue.getProperty());
+	}
+	
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		evict(propertyName);
+	}
+	
+	private void evict(String propertyName) {
+		globalProperties.remove(propertyName);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					globalProperties.remove(propertyName);
+				}
+			});
+		}
+	}
+}
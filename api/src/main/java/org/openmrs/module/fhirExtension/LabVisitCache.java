@@ -0,0 +1,224 @@
+package org.openmrs.module.fhirExtension;
+
+import lombok.extern.log4j.Log4j2;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.VisitService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Remembers, for a short while, the visit lab results of a patient were saved against on a given day, so
+ * that the reports of a batch do not look the visit up again one by one. Visits are resolved under a lock of
+ * the patient which is held until the transaction completes, so that concurrent uploads for the same patient
+ * wait for the lab visit created by the first one instead of creating another. Visits are remembered by id
+ * and only once the transaction creating or finding them committed.
+ */
+@Component
+@Log4j2
+public class LabVisitCache {
+	
+	static final int LOCK_STRIPES = 64;
+	
+	static final long ENTRY_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+	
+	static final int MAX_ENTRIES = 10000;
+	
+	@Autowired
+	private VisitService visitService;
+	
+	private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+	
+	private final ConcurrentMap<Key, Entry> visits = new ConcurrentHashMap<>();
+	
+	private final ThreadLocal<TreeSet<Integer>> heldStripes = ThreadLocal.withInitial(TreeSet::new);
+	
+	public LabVisitCache() {
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+	
+	/**
+	 * Returns the visit remembered for the patient today, or resolves it with the given supplier while holding
+	 * the lock of the patient.
+	 */
+	public Visit getVisit(Patient patient, Supplier<Visit> resolver) {
+		Key key = new Key(patient.getPatientId(), LocalDate.now());
+		Visit visit = getCachedVisit(key);
+		if (visit != null) {
+			return visit;
+		}
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			ReentrantLock lock = locks[stripeOf(patient)];
+			lock.lock();
+			try {
+				visit = getCachedVisit(key);
+				return visit != null ? visit : resolver.get();
+			}
+			finally {
+				lock.unlock();
+			}
+		}
+		lock(patient);
+		visit = getCachedVisit(key);
+		if (visit != null) {
+			return visit;
+		}
+		Visit resolved = resolver.get();
+		if (resolved != null) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				
+				@Override
+				public void afterCommit() {
+					put(key, resolved);
+				}
+			});
+		}
+		return resolved;
+	}
+	
+	/**
+	 * Takes the locks of all the given patients at once, in a fixed order, so that two batches sharing
+	 * patients can not wait on each other. The locks are released when the transaction completes.
+	 */
+	public void lockPatients(Iterable<Patient> patients) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		TreeSet<Integer> stripes = new TreeSet<>();
+		patients.forEach(patient -> stripes.add(stripeOf(patient)));
+		stripes.forEach(this::lock);
+	}
+	
+	/**
+	 * Drops the visits remembered for the patient, so that a visit started or closed since is picked up.
+	 */
+	public void invalidate(Patient patient) {
+		if (visits.keySet().removeIf(key -> Objects.equals(key.patientId, patient.getPatientId()))) {
+			log.debug("Cleared cached lab visits of patient " + patient.getPatientId());
+		}
+	}
+	
+	private void lock(Patient patient) {
+		lock(stripeOf(patient));
+	}
+	
+	private void lock(int stripe) {
+		TreeSet<Integer> stripes = heldStripes.get();
+		if (stripes.contains(stripe)) {
+			return;
+		}
+		locks[stripe].lock();
+		if (stripes.isEmpty()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					unlockAll();
+				}
+			});
+		}
+		stripes.add(stripe);
+	}
+	
+	private void unlockAll() {
+		TreeSet<Integer> stripes = heldStripes.get();
+		stripes.forEach(stripe -> locks[stripe].unlock());
+		heldStripes.remove();
+	}
+	
+	private Visit getCachedVisit(Key key) {
+		Entry entry = visits.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.isExpired()) {
+			visits.remove(key, entry);
+			return null;
+		}
+		Visit visit = visitService.getVisit(entry.visitId);
+		if (visit == null || visit.getVoided() || isStoppedBefore(visit, key.date)) {
+			visits.remove(key, entry);
+			return null;
+		}
+		return visit;
+	}
+	
+	private void put(Key key, Visit visit) {
+		if (visit.getVisitId() == null) {
+			return;
+		}
+		if (visits.size() >= MAX_ENTRIES) {
+			visits.values().removeIf(Entry::isExpired);
+		}
+		visits.put(key, new Entry(visit.getVisitId()));
+	}
+	
+	private boolean isStoppedBefore(Visit visit, LocalDate date) {
+		Date stopDatetime = visit.getStopDatetime();
+		return stopDatetime != null
+		        && stopDatetime.before(Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant()));
+	}
+	
+	private int stripeOf(Patient patient) {
+		return Math.floorMod(Objects.hashCode(patient.getPatientId()), LOCK_STRIPES);
+	}
+	
+	private static class Key {
+		
+		private final Integer patientId;
+		
+		private final LocalDate date;
+		
+		private Key(Integer patientId, LocalDate date) {
+			this.patientId = patientId;
+			this.date = date;
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) o;
+			return Objects.equals(patientId, key.patientId) && date.equals(key.date);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(patientId, date);
+		}
+	}
+	
+	private static class Entry {
+		
+		private final Integer visitId;
+		
+		private final long expiresAt = System.currentTimeMillis() + ENTRY_TTL_MILLIS;
+		
+		private Entry(Integer visitId) {
+			this.visitId = visitId;
+		}
+		
+		private boolean isExpired() {
+			return System.currentTimeMillis() > expiresAt;
+		}
+	}
+}
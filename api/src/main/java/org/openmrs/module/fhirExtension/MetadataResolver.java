@@ -0,0 +1,138 @@
+package org.openmrs.module.fhirExtension;
+
+import lombok.extern.log4j.Log4j2;
+import org.openmrs.CareSetting;
+import org.openmrs.Concept;
+import org.openmrs.EncounterRole;
+import org.openmrs.EncounterType;
+import org.openmrs.OrderType;
+import org.openmrs.VisitType;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.OrderService;
+import org.openmrs.api.VisitService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Resolves the metadata used when saving lab results by name, and remembers the result so that each name
+ * is looked up only once. Entries of a type are dropped when an object of that type is saved, retired or
+ * purged, see {@link org.openmrs.module.fhirExtension.advice.MetadataResolverAdvice}. Concepts are
+ * remembered by id and loaded through the ConceptService, so that their lazy collections are always read
+ * in the current session.
+ */
+@Component
+@Log4j2
+public class MetadataResolver {
+	
+	public static final List<Class<?>> CACHED_TYPES = Collections.unmodifiableList(Arrays.asList(EncounterType.class,
+	    EncounterRole.class, CareSetting.class, OrderType.class, VisitType.class, Concept.class));
+	
+	@Autowired
+	private EncounterService encounterService;
+	
+	@Autowired
+	private OrderService orderService;
+	
+	@Autowired
+	private VisitService visitService;
+	
+	@Autowired
+	private ConceptService conceptService;
+	
+	private final ConcurrentMap<Class<?>, ConcurrentMap<String, Optional<?>>> metadata = new ConcurrentHashMap<>();
+	
+	private final AtomicLong hitCount = new AtomicLong();
+	
+	private final AtomicLong missCount = new AtomicLong();
+	
+	public EncounterType getEncounterType(String name) {
+		return get(EncounterType.class, name, encounterService::getEncounterType);
+	}
+	
+	public EncounterRole getEncounterRoleByName(String name) {
+		return get(EncounterRole.class, name, encounterService::getEncounterRoleByName);
+	}
+	
+	public CareSetting getCareSettingByName(String name) {
+		return get(CareSetting.class, name, orderService::getCareSettingByName);
+	}
+	
+	public OrderType getOrderTypeByName(String name) {
+		return get(OrderType.class, name, orderService::getOrderTypeByName);
+	}
+	
+	public List<VisitType> getVisitTypes(String name) {
+		return get(VisitType.class, name, visitTypeName -> {
+			List<VisitType> visitTypes = visitService.getVisitTypes(visitTypeName);
+			return visitTypes == null ? null : Collections.unmodifiableList(visitTypes);
+		});
+	}
+	
+	public Concept getConceptByName(String name) {
+		Integer conceptId = get(Concept.class, name, conceptName -> {
+			Concept concept = conceptService.getConceptByName(conceptName);
+			return concept == null ? null : concept.getConceptId();
+		});
+		return conceptId == null ? null : conceptService.getConcept(conceptId);
+	}
+	
+	/**
+	 * Drops all remembered names of the given type, or of the cached type it extends. The change may not be
+	 * committed yet, so a concurrent lookup could still remember the old metadata; the names are dropped
+	 * again once the transaction completed for that reason.
+	 */
+	public void invalidate(Class<?> type) {
+		clear(type);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				
+				@Override
+				public void afterCompletion(int status) {
+					clear(type);
+				}
+			});
+		}
+	}
+	
+	public long getHitCount() {
+		return hitCount.get();
+	}
+	
+	public long getMissCount() {
+		return missCount.get();
+	}
+	
+	private void clear(Class<?> type) {
+		CACHED_TYPES.stream().filter(cachedType -> cachedType.isAssignableFrom(type)).forEach(cachedType -> {
+			if (metadata.remove(cachedType) != null) {
+				log.debug("Cleared cached " + cachedType.getSimpleName() + " metadata");
+			}
+		});
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> T get(Class<?> type, String name, Function<String, T> lookup) {
+		ConcurrentMap<String, Optional<?>> metadataOfType = metadata.computeIfAbsent(type, key -> new ConcurrentHashMap<>());
+		Optional<?> value = metadataOfType.get(name);
+		if (value != null) {
+			hitCount.incrementAndGet();
+			return (T) value.orElse(null);
+		}
+		missCount.incrementAndGet();
+		T resolved = lookup.apply(name);
+		metadataOfType.put(name, Optional.ofNullable(resolved));
+		return resolved;
+	}
+}
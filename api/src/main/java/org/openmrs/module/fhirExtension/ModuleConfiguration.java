@@ -5,8 +5,10 @@ import ca.uhn.fhir.parser.IParser;
 import org.openmrs.api.AdministrationService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Scope;
 
 @Configuration
 public class ModuleConfiguration {
@@ -15,8 +17,14 @@ public class ModuleConfiguration {
 	@Qualifier("adminService")
 	private AdministrationService administrationService;
 	
+	private final FhirContext fhirContext = FhirContext.forR4();
+	
+	/**
+	 * Parsers are not thread safe, so every consumer gets its own instance from the shared FhirContext.
+	 */
 	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public IParser getFhirJsonParser() {
-		return FhirContext.forR4().newJsonParser();
+		return fhirContext.newJsonParser();
 	}
 }
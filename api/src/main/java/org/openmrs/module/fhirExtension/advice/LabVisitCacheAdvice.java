@@ -0,0 +1,44 @@
+package org.openmrs.module.fhirExtension.advice;
+
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.LabVisitCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Keeps {@link LabVisitCache} in step with the database: whenever a visit is saved, ended, voided or purged,
+ * the visits remembered for its patient are dropped.
+ */
+public class LabVisitCacheAdvice implements AfterReturningAdvice {
+	
+	private static final String[] CHANGING_METHOD_PREFIXES = { "save", "end", "void", "unvoid", "purge" };
+	
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (!isChangingMethod(method.getName()) || args == null) {
+			return;
+		}
+		for (Object arg : args) {
+			if (arg instanceof Visit && ((Visit) arg).getPatient() != null) {
+				getLabVisitCache().invalidate(((Visit) arg).getPatient());
+			}
+		}
+	}
+	
+	private boolean isChangingMethod(String methodName) {
+		for (String prefix : CHANGING_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private LabVisitCache getLabVisitCache() {
+		List<LabVisitCache> labVisitCaches = Context.getRegisteredComponents(LabVisitCache.class);
+		return labVisitCaches.get(0);
+	}
+}
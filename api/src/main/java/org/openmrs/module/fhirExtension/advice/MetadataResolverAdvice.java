@@ -0,0 +1,47 @@
+package org.openmrs.module.fhirExtension.advice;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.MetadataResolver;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Keeps {@link MetadataResolver} in step with the database: whenever a service method changing metadata of
+ * a cached type returns, the remembered names of that type are dropped.
+ */
+public class MetadataResolverAdvice implements AfterReturningAdvice {
+	
+	private static final String[] CHANGING_METHOD_PREFIXES = { "save", "retire", "unretire", "purge" };
+	
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) {
+		if (!isChangingMethod(method.getName()) || args == null) {
+			return;
+		}
+		for (Object arg : args) {
+			if (arg != null && isCachedType(arg.getClass())) {
+				getMetadataResolver().invalidate(arg.getClass());
+			}
+		}
+	}
+	
+	private boolean isChangingMethod(String methodName) {
+		for (String prefix : CHANGING_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private boolean isCachedType(Class<?> type) {
+		return MetadataResolver.CACHED_TYPES.stream().anyMatch(cachedType -> cachedType.isAssignableFrom(type));
+	}
+	
+	private MetadataResolver getMetadataResolver() {
+		List<MetadataResolver> metadataResolvers = Context.getRegisteredComponents(MetadataResolver.class);
+		return metadataResolvers.get(0);
+	}
+}
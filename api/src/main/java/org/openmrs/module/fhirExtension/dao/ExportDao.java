@@ -0,0 +1,50 @@
+package org.openmrs.module.fhirExtension.dao;
+
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.OrderType;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+
+import java.util.Date;
+import java.util.List;
+
+public interface ExportDao {
+	
+	/**
+	 * Returns the next page of non-voided obs of the given concept recorded within the date range, ordered by
+	 * id and starting after the given id, or from the first obs when it is null. Null persons means the obs
+	 * of all persons.
+	 */
+	List<Obs> getObs(Concept concept, List<Person> persons, Date startDate, Date endDate, Integer afterObsId,
+	        int maxResults);
+	
+	/**
+	 * Same as {@link #getObs}, but for the obs created within the date range. Obs are never changed in
+	 * place, an edit voids the obs and creates a new one.
+	 */
+	List<Obs> getCreatedObs(Concept concept, List<Person> persons, Date startDate, Date endDate, Integer afterObsId,
+	        int maxResults);
+	
+	/**
+	 * Returns the next page of non-voided orders of the given type activated within the date range, ordered
+	 * by id and starting after the given id, or from the first order when it is null. Null patients means the
+	 * orders of all patients.
+	 */
+	List<Order> getOrders(OrderType orderType, List<Patient> patients, Date startDate, Date endDate,
+	        Integer afterOrderId, int maxResults);
+	
+	/**
+	 * Same as {@link #getOrders}, but for the orders created within the date range. Orders are revised or
+	 * discontinued by creating new orders.
+	 */
+	List<Order> getCreatedOrders(OrderType orderType, List<Patient> patients, Date startDate, Date endDate,
+	        Integer afterOrderId, int maxResults);
+	
+	/**
+	 * Detaches everything loaded in the current session, so that the rows of the pages already exported can
+	 * be garbage collected.
+	 */
+	void clearSession();
+}
@@ -0,0 +1,13 @@
+package org.openmrs.module.fhirExtension.dao;
+
+import java.util.Date;
+
+public interface ExportHighWaterMarkDao {
+	
+	/**
+	 * @return the cut-off of the last successful incremental export of the exporter, or null if it never ran
+	 */
+	Date getHighWaterMark(String exporter, String resourceType);
+	
+	void saveHighWaterMark(String exporter, String resourceType, Date highWaterMark);
+}
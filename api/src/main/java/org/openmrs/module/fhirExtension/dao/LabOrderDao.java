@@ -0,0 +1,16 @@
+package org.openmrs.module.fhirExtension.dao;
+
+import org.openmrs.CareSetting;
+import org.openmrs.Concept;
+import org.openmrs.Order;
+import org.openmrs.OrderType;
+import org.openmrs.Patient;
+
+public interface LabOrderDao {
+	
+	/**
+	 * Returns the most recently activated order of the patient for the given concept which is neither voided,
+	 * a discontinuation order nor COMPLETED by its fulfiller, or null when there is none.
+	 */
+	Order getOpenOrder(Patient patient, CareSetting careSetting, OrderType orderType, Concept concept);
+}
@@ -0,0 +1,42 @@
+package org.openmrs.module.fhirExtension.dao;
+
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+
+import java.util.Date;
+import java.util.List;
+
+public interface LabReportQueueDao {
+	
+	void save(LabReportQueueItem item);
+	
+	void update(LabReportQueueItem item);
+	
+	LabReportQueueItem getByUuid(String uuid);
+	
+	/**
+	 * Moves a queued item to PROCESSING. Only one caller can claim an item, so an item submitted more than
+	 * once is still processed once.
+	 *
+	 * @return true if the item was queued and is now claimed by the caller
+	 */
+	boolean claim(String uuid, Date dateChanged);
+	
+	/**
+	 * @return uuids of queued items whose next attempt is due, oldest first
+	 */
+	List<String> getDueUuids(Date now, int limit);
+	
+	/**
+	 * Queues again the items left in PROCESSING, e.g. by a server shut down while they were processed.
+	 *
+	 * @return number of items queued again
+	 */
+	int requeueProcessing(Date dateChanged);
+	
+	/**
+	 * Removes the item from the queue and keeps it in the dead letter table.
+	 */
+	void moveToDeadLetter(LabReportQueueItem item, Date dateFailed);
+	
+	LabReportQueueItem getDeadLetterByUuid(String uuid);
+}
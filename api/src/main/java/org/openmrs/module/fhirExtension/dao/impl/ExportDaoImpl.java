@@ -0,0 +1,122 @@
+package org.openmrs.module.fhirExtension.dao.impl;
+
+import org.hibernate.query.Query;
+import org.openmrs.Concept;
+import org.openmrs.Obs;
+import org.openmrs.Order;
+import org.openmrs.OrderType;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.fhirExtension.dao.ExportDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public class ExportDaoImpl implements ExportDao {
+	
+	private final DbSessionFactory sessionFactory;
+	
+	@Autowired
+	public ExportDaoImpl(DbSessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	public List<Obs> getObs(Concept concept, List<Person> persons, Date startDate, Date endDate, Integer afterObsId,
+	        int maxResults) {
+		return getObs(concept, persons, "o.obsDatetime", startDate, endDate, afterObsId, maxResults);
+	}
+	
+	@Override
+	public List<Obs> getCreatedObs(Concept concept, List<Person> persons, Date startDate, Date endDate,
+	        Integer afterObsId, int maxResults) {
+		return getObs(concept, persons, "o.dateCreated", startDate, endDate, afterObsId, maxResults);
+	}
+	
+	@Override
+	public List<Order> getOrders(OrderType orderType, List<Patient> patients, Date startDate, Date endDate,
+	        Integer afterOrderId, int maxResults) {
+		return getOrders(orderType, patients, "o.dateActivated", startDate, endDate, afterOrderId, maxResults);
+	}
+	
+	@Override
+	public List<Order> getCreatedOrders(OrderType orderType, List<Patient> patients, Date startDate, Date endDate,
+	        Integer afterOrderId, int maxResults) {
+		return getOrders(orderType, patients, "o.dateCreated", startDate, endDate, afterOrderId, maxResults);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<Obs> getObs(Concept concept, List<Person> persons, String rangeProperty, Date startDate, Date endDate,
+	        Integer afterObsId, int maxResults) {
+		StringBuilder hql = new StringBuilder("select o from Obs o where o.concept = :concept and o.voided = false");
+		if (persons != null) {
+			hql.append(" and o.person in (:persons)");
+		}
+		appendRange(hql, rangeProperty, startDate, endDate);
+		if (afterObsId != null) {
+			hql.append(" and o.obsId > :afterId");
+		}
+		hql.append(" order by o.obsId");
+		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString()).setParameter("concept", concept);
+		if (persons != null) {
+			query.setParameterList("persons", persons);
+		}
+		setRange(query, startDate, endDate);
+		if (afterObsId != null) {
+			query.setParameter("afterId", afterObsId);
+		}
+		return query.setMaxResults(maxResults).list();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<Order> getOrders(OrderType orderType, List<Patient> patients, String rangeProperty, Date startDate,
+	        Date endDate, Integer afterOrderId, int maxResults) {
+		StringBuilder hql = new StringBuilder(
+		        "select o from Order o where o.orderType = :orderType and o.voided = false");
+		if (patients != null) {
+			hql.append(" and o.patient in (:patients)");
+		}
+		appendRange(hql, rangeProperty, startDate, endDate);
+		if (afterOrderId != null) {
+			hql.append(" and o.orderId > :afterId");
+		}
+		hql.append(" order by o.orderId");
+		Query query = sessionFactory.getCurrentSession().createQuery(hql.toString()).setParameter("orderType",
+		    orderType);
+		if (patients != null) {
+			query.setParameterList("patients", patients);
+		}
+		setRange(query, startDate, endDate);
+		if (afterOrderId != null) {
+			query.setParameter("afterId", afterOrderId);
+		}
+		return query.setMaxResults(maxResults).list();
+	}
+	
+	@Override
+	public void clearSession() {
+		sessionFactory.getCurrentSession().clear();
+	}
+	
+	private void appendRange(StringBuilder hql, String property, Date startDate, Date endDate) {
+		if (startDate != null) {
+			hql.append(" and ").append(property).append(" >= :startDate");
+		}
+		if (endDate != null) {
+			hql.append(" and ").append(property).append(" <= :endDate");
+		}
+	}
+	
+	private void setRange(Query query, Date startDate, Date endDate) {
+		if (startDate != null) {
+			query.setParameter("startDate", startDate);
+		}
+		if (endDate != null) {
+			query.setParameter("endDate", endDate);
+		}
+	}
+}
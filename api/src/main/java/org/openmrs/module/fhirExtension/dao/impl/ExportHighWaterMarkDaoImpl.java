@@ -0,0 +1,46 @@
+package org.openmrs.module.fhirExtension.dao.impl;
+
+import org.hibernate.SQLQuery;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.fhirExtension.dao.ExportHighWaterMarkDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+
+@Repository
+public class ExportHighWaterMarkDaoImpl implements ExportHighWaterMarkDao {
+	
+	private final DbSessionFactory sessionFactory;
+	
+	@Autowired
+	public ExportHighWaterMarkDaoImpl(DbSessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	public Date getHighWaterMark(String exporter, String resourceType) {
+		return (Date) createSQLQuery("select high_water_mark from fhir_export_high_water_mark where exporter = :exporter"
+		        + " and resource_type = :resourceType").setParameter("exporter", exporter)
+		        .setParameter("resourceType", resourceType).uniqueResult();
+	}
+	
+	@Override
+	public void saveHighWaterMark(String exporter, String resourceType, Date highWaterMark) {
+		Date dateChanged = new Date();
+		int updated = createSQLQuery("update fhir_export_high_water_mark set high_water_mark = :highWaterMark,"
+		        + " date_changed = :dateChanged where exporter = :exporter and resource_type = :resourceType")
+		        .setParameter("highWaterMark", highWaterMark).setParameter("dateChanged", dateChanged)
+		        .setParameter("exporter", exporter).setParameter("resourceType", resourceType).executeUpdate();
+		if (updated == 0) {
+			createSQLQuery("insert into fhir_export_high_water_mark (exporter, resource_type, high_water_mark,"
+			        + " date_changed) values (:exporter, :resourceType, :highWaterMark, :dateChanged)")
+			        .setParameter("exporter", exporter).setParameter("resourceType", resourceType)
+			        .setParameter("highWaterMark", highWaterMark).setParameter("dateChanged", dateChanged).executeUpdate();
+		}
+	}
+	
+	private SQLQuery createSQLQuery(String sql) {
+		return sessionFactory.getCurrentSession().createSQLQuery(sql);
+	}
+}
@@ -0,0 +1,36 @@
+package org.openmrs.module.fhirExtension.dao.impl;
+
+import org.openmrs.CareSetting;
+import org.openmrs.Concept;
+import org.openmrs.Order;
+import org.openmrs.OrderType;
+import org.openmrs.Patient;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.fhirExtension.dao.LabOrderDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class LabOrderDaoImpl implements LabOrderDao {
+	
+	private static final String OPEN_ORDER_QUERY = "select o from Order o where o.patient = :patient"
+	        + " and o.concept = :concept and o.orderType = :orderType and o.careSetting = :careSetting"
+	        + " and o.voided = false and o.action <> :discontinue"
+	        + " and (o.fulfillerStatus is null or o.fulfillerStatus <> :completed)"
+	        + " order by o.dateActivated desc, o.orderId desc";
+	
+	private final DbSessionFactory sessionFactory;
+	
+	@Autowired
+	public LabOrderDaoImpl(DbSessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	public Order getOpenOrder(Patient patient, CareSetting careSetting, OrderType orderType, Concept concept) {
+		return (Order) sessionFactory.getCurrentSession().createQuery(OPEN_ORDER_QUERY).setParameter("patient", patient)
+		        .setParameter("concept", concept).setParameter("orderType", orderType)
+		        .setParameter("careSetting", careSetting).setParameter("discontinue", Order.Action.DISCONTINUE)
+		        .setParameter("completed", Order.FulfillerStatus.COMPLETED).setMaxResults(1).uniqueResult();
+	}
+}
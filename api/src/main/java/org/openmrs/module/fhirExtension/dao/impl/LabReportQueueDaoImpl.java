@@ -0,0 +1,144 @@
+package org.openmrs.module.fhirExtension.dao.impl;
+
+import org.hibernate.SQLQuery;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
+import org.openmrs.module.fhirExtension.dao.LabReportQueueDao;
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the queue in plain tables written with SQL, so the module needs no Hibernate mappings of its
+ * own.
+ */
+@Repository
+public class LabReportQueueDaoImpl implements LabReportQueueDao {
+	
+	private static final String QUEUE_COLUMNS = "uuid, payload, status, attempts, last_error, result, creator, location_id,"
+	        + " date_created, next_attempt_date";
+	
+	private static final String DEAD_LETTER_COLUMNS = "uuid, payload, attempts, last_error, creator, location_id,"
+	        + " date_created";
+	
+	private final DbSessionFactory sessionFactory;
+	
+	@Autowired
+	public LabReportQueueDaoImpl(DbSessionFactory sessionFactory) {
+		this.sessionFactory = sessionFactory;
+	}
+	
+	@Override
+	public void save(LabReportQueueItem item) {
+		createSQLQuery("insert into fhir_lab_report_queue (" + QUEUE_COLUMNS + ") values (:uuid, :payload, :status,"
+		        + " :attempts, :lastError, :result, :creator, :locationId, :dateCreated, :nextAttemptDate)")
+		        .setParameter("uuid", item.getUuid()).setParameter("payload", item.getPayload())
+		        .setParameter("status", item.getStatus().name()).setParameter("attempts", item.getAttempts())
+		        .setParameter("lastError", item.getLastError()).setParameter("result", item.getResult())
+		        .setParameter("creator", item.getCreatorId()).setParameter("locationId", item.getLocationId())
+		        .setParameter("dateCreated", item.getDateCreated())
+		        .setParameter("nextAttemptDate", item.getNextAttemptDate()).executeUpdate();
+	}
+	
+	@Override
+	public void update(LabReportQueueItem item) {
+		createSQLQuery("update fhir_lab_report_queue set status = :status, attempts = :attempts, last_error = :lastError,"
+		        + " result = :result, next_attempt_date = :nextAttemptDate, date_changed = :dateChanged where uuid = :uuid")
+		        .setParameter("status", item.getStatus().name()).setParameter("attempts", item.getAttempts())
+		        .setParameter("lastError", item.getLastError()).setParameter("result", item.getResult())
+		        .setParameter("nextAttemptDate", item.getNextAttemptDate()).setParameter("dateChanged", new Date())
+		        .setParameter("uuid", item.getUuid()).executeUpdate();
+	}
+	
+	@Override
+	public LabReportQueueItem getByUuid(String uuid) {
+		Object[] row = (Object[]) createSQLQuery(
+		    "select " + QUEUE_COLUMNS + " from fhir_lab_report_queue where uuid = :uuid").setParameter("uuid", uuid)
+		        .uniqueResult();
+		if (row == null) {
+			return null;
+		}
+		LabReportQueueItem item = new LabReportQueueItem();
+		item.setUuid((String) row[0]);
+		item.setPayload((String) row[1]);
+		item.setStatus(LabReportQueueItem.Status.valueOf((String) row[2]));
+		item.setAttempts(((Number) row[3]).intValue());
+		item.setLastError((String) row[4]);
+		item.setResult((String) row[5]);
+		item.setCreatorId(toInteger(row[6]));
+		item.setLocationId(toInteger(row[7]));
+		item.setDateCreated((Date) row[8]);
+		item.setNextAttemptDate((Date) row[9]);
+		return item;
+	}
+	
+	@Override
+	public boolean claim(String uuid, Date dateChanged) {
+		return createSQLQuery("update fhir_lab_report_queue set status = :processing, date_changed = :dateChanged"
+		        + " where uuid = :uuid and status = :queued")
+		        .setParameter("processing", LabReportQueueItem.Status.PROCESSING.name())
+		        .setParameter("dateChanged", dateChanged).setParameter("uuid", uuid)
+		        .setParameter("queued", LabReportQueueItem.Status.QUEUED.name()).executeUpdate() == 1;
+	}
+	
+	@Override
+	public List<String> getDueUuids(Date now, int limit) {
+		List<?> uuids = createSQLQuery("select uuid from fhir_lab_report_queue where status = :queued"
+		        + " and (next_attempt_date is null or next_attempt_date <= :now) order by id")
+		        .setParameter("queued", LabReportQueueItem.Status.QUEUED.name()).setParameter("now", now)
+		        .setMaxResults(limit).list();
+		return uuids.stream().map(String.class::cast).collect(Collectors.toList());
+	}
+	
+	@Override
+	public int requeueProcessing(Date dateChanged) {
+		return createSQLQuery("update fhir_lab_report_queue set status = :queued, date_changed = :dateChanged"
+		        + " where status = :processing").setParameter("queued", LabReportQueueItem.Status.QUEUED.name())
+		        .setParameter("dateChanged", dateChanged)
+		        .setParameter("processing", LabReportQueueItem.Status.PROCESSING.name()).executeUpdate();
+	}
+	
+	@Override
+	public void moveToDeadLetter(LabReportQueueItem item, Date dateFailed) {
+		createSQLQuery("insert into fhir_lab_report_dead_letter (" + DEAD_LETTER_COLUMNS + ", date_failed) values (:uuid,"
+		        + " :payload, :attempts, :lastError, :creator, :locationId, :dateCreated, :dateFailed)")
+		        .setParameter("uuid", item.getUuid()).setParameter("payload", item.getPayload())
+		        .setParameter("attempts", item.getAttempts()).setParameter("lastError", item.getLastError())
+		        .setParameter("creator", item.getCreatorId()).setParameter("locationId", item.getLocationId())
+		        .setParameter("dateCreated", item.getDateCreated()).setParameter("dateFailed", dateFailed)
+		        .executeUpdate();
+		createSQLQuery("delete from fhir_lab_report_queue where uuid = :uuid").setParameter("uuid", item.getUuid())
+		        .executeUpdate();
+	}
+	
+	@Override
+	public LabReportQueueItem getDeadLetterByUuid(String uuid) {
+		Object[] row = (Object[]) createSQLQuery(
+		    "select " + DEAD_LETTER_COLUMNS + " from fhir_lab_report_dead_letter where uuid = :uuid")
+		        .setParameter("uuid", uuid).uniqueResult();
+		if (row == null) {
+			return null;
+		}
+		LabReportQueueItem item = new LabReportQueueItem();
+		item.setUuid((String) row[0]);
+		item.setPayload((String) row[1]);
+		item.setStatus(LabReportQueueItem.Status.FAILED);
+		item.setAttempts(((Number) row[2]).intValue());
+		item.setLastError((String) row[3]);
+		item.setCreatorId(toInteger(row[4]));
+		item.setLocationId(toInteger(row[5]));
+		item.setDateCreated((Date) row[6]);
+		return item;
+	}
+	
+	private SQLQuery createSQLQuery(String sql) {
+		return sessionFactory.getCurrentSession().createSQLQuery(sql);
+	}
+	
+	private Integer toInteger(Object value) {
+		return value == null ? null : ((Number) value).intValue();
+	}
+}
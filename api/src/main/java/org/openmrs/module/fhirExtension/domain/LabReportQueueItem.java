@@ -0,0 +1,39 @@
+package org.openmrs.module.fhirExtension.domain;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+
+/**
+ * A DiagnosticReport uploaded for asynchronous processing, as stored in the lab report queue or, once it
+ * ran out of attempts, in the dead letter table.
+ */
+@Getter
+@Setter
+public class LabReportQueueItem {
+	
+	public enum Status {
+		QUEUED, PROCESSING, COMPLETED, FAILED
+	}
+	
+	private String uuid;
+	
+	private String payload;
+	
+	private Status status;
+	
+	private int attempts;
+	
+	private String lastError;
+	
+	private String result;
+	
+	private Integer creatorId;
+	
+	private Integer locationId;
+	
+	private Date dateCreated;
+	
+	private Date nextAttemptDate;
+}
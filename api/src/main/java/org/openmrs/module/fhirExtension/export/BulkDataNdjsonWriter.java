@@ -0,0 +1,95 @@
+package org.openmrs.module.fhirExtension.export;
+
+import ca.uhn.fhir.parser.IParser;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes NDJSON files split per resource type as Patient.1.ndjson, Patient.2.ndjson and so on. A new file
+ * is started once the current one holds the maximum number of resources or bytes; a limit of 0 disables
+ * it. The byte size is measured after encoding, ahead of the writer's buffer, so a file may exceed the
+ * byte limit by up to one buffer. Every finished file is recorded in the shared {@link BulkDataOutput}.
+ */
+public class BulkDataNdjsonWriter extends NdjsonWriter {
+	
+	private final Path directory;
+	
+	private final long maxResourcesPerFile;
+	
+	private final long maxBytesPerFile;
+	
+	private final BulkDataOutput bulkDataOutput;
+	
+	private final Map<String, OpenFile> openFiles = new HashMap<>();
+	
+	public BulkDataNdjsonWriter(Path directory, long maxResourcesPerFile, long maxBytesPerFile,
+	    BulkDataOutput bulkDataOutput, IParser parser) {
+		super(directory, parser);
+		this.directory = directory;
+		this.maxResourcesPerFile = maxResourcesPerFile;
+		this.maxBytesPerFile = maxBytesPerFile;
+		this.bulkDataOutput = bulkDataOutput;
+	}
+	
+	@Override
+	public void write(IBaseResource fhirResource) {
+		super.write(fhirResource);
+		openFiles.get(fhirResource.getClass().getSimpleName()).resourceCount++;
+	}
+	
+	@Override
+	protected Writer getWriter(String resourceType) throws IOException {
+		OpenFile openFile = openFiles.get(resourceType);
+		if (openFile != null && isFull(openFile)) {
+			closeWriter(resourceType);
+		}
+		return super.getWriter(resourceType);
+	}
+	
+	@Override
+	protected Writer openWriter(String resourceType) throws IOException {
+		String fileName = bulkDataOutput.nextFileName(resourceType);
+		CountingOutputStream outputStream = new CountingOutputStream(Files.newOutputStream(directory.resolve(fileName)));
+		openFiles.put(resourceType, new OpenFile(fileName, outputStream));
+		return new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+	}
+	
+	@Override
+	protected void closeWriter(String resourceType) throws IOException {
+		super.closeWriter(resourceType);
+		OpenFile openFile = openFiles.remove(resourceType);
+		if (openFile != null) {
+			bulkDataOutput.addFile(resourceType, openFile.fileName, openFile.resourceCount);
+		}
+	}
+	
+	private boolean isFull(OpenFile openFile) {
+		boolean hasMaxResources = maxResourcesPerFile > 0 && openFile.resourceCount >= maxResourcesPerFile;
+		boolean hasMaxBytes = maxBytesPerFile > 0 && openFile.outputStream.getByteCount() >= maxBytesPerFile;
+		return hasMaxResources || hasMaxBytes;
+	}
+	
+	private static class OpenFile {
+		
+		private final String fileName;
+		
+		private final CountingOutputStream outputStream;
+		
+		private long resourceCount;
+		
+		OpenFile(String fileName, CountingOutputStream outputStream) {
+			this.fileName = fileName;
+			this.outputStream = outputStream;
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.openmrs.module.fhirExtension.export;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Files produced by a Bulk Data style export. One instance is shared by all writers of an export, so file
+ * numbers stay unique per resource type when exporters run in parallel.
+ */
+public class BulkDataOutput {
+	
+	private final ConcurrentMap<String, AtomicInteger> fileNumbers = new ConcurrentHashMap<>();
+	
+	private final List<OutputFile> files = new CopyOnWriteArrayList<>();
+	
+	public String nextFileName(String resourceType) {
+		int fileNumber = fileNumbers.computeIfAbsent(resourceType, type -> new AtomicInteger()).incrementAndGet();
+		return resourceType + "." + fileNumber + NdjsonWriter.NDJSON_EXTENSION;
+	}
+	
+	public void addFile(String resourceType, String fileName, long count) {
+		files.add(new OutputFile(resourceType, fileName, count));
+	}
+	
+	public List<OutputFile> getFiles() {
+		List<OutputFile> sortedFiles = new ArrayList<>(files);
+		sortedFiles.sort(Comparator.comparing(OutputFile::getType).thenComparing(OutputFile::getFileNumber));
+		return sortedFiles;
+	}
+	
+	@Getter
+	public static class OutputFile {
+		
+		private final String type;
+		
+		private final String fileName;
+		
+		private final long count;
+		
+		public OutputFile(String type, String fileName, long count) {
+			this.type = type;
+			this.fileName = fileName;
+			this.count = count;
+		}
+		
+		private int getFileNumber() {
+			String number = fileName.substring(type.length() + 1, fileName.length()
+			        - NdjsonWriter.NDJSON_EXTENSION.length());
+			return Integer.parseInt(number);
+		}
+	}
+}
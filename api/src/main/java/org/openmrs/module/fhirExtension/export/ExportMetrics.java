@@ -0,0 +1,99 @@
+package org.openmrs.module.fhirExtension.export;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and sizes of one export, overall and per exporter. Exporters running on parallel workers record
+ * into their own {@link ExporterMetrics}.
+ */
+@Getter
+public class ExportMetrics {
+	
+	private final String taskUuid;
+	
+	private final Date startDate = new Date();
+	
+	@Setter
+	private long queueWaitMillis;
+	
+	@Setter
+	private long zipMillis;
+	
+	@Setter
+	private long totalMillis;
+	
+	private final List<ExporterMetrics> exporters = new CopyOnWriteArrayList<>();
+	
+	public ExportMetrics(String taskUuid) {
+		this.taskUuid = taskUuid;
+	}
+	
+	public ExporterMetrics addExporter(String exporter, String resourceType) {
+		ExporterMetrics exporterMetrics = new ExporterMetrics(exporter, resourceType);
+		exporters.add(exporterMetrics);
+		return exporterMetrics;
+	}
+	
+	public long getResourceCount() {
+		return exporters.stream().mapToLong(ExporterMetrics::getResourceCount).sum();
+	}
+	
+	public long getEncodedBytes() {
+		return exporters.stream().mapToLong(ExporterMetrics::getEncodedBytes).sum();
+	}
+	
+	/**
+	 * Query time covers everything an exporter does to produce its pages, i.e. the database queries and the
+	 * translation to FHIR, which fhir2 performs together while paging through search results. Write time
+	 * covers encoding the pages to NDJSON and writing them out, including compression when the export is
+	 * streamed into the zip.
+	 */
+	@Getter
+	public static class ExporterMetrics {
+		
+		private final String exporter;
+		
+		private final String resourceType;
+		
+		@Setter
+		private long queryMillis;
+		
+		@Getter(AccessLevel.NONE)
+		private final AtomicLong writeNanos = new AtomicLong();
+		
+		@Setter
+		private long resourceCount;
+		
+		@Setter
+		private long encodedBytes;
+		
+		ExporterMetrics(String exporter, String resourceType) {
+			this.exporter = exporter;
+			this.resourceType = resourceType;
+		}
+		
+		public void addWriteTime(long nanos) {
+			writeNanos.addAndGet(nanos);
+		}
+		
+		public long getWriteMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(writeNanos.get());
+		}
+		
+		/**
+		 * @return resources exported per second of query and write time
+		 */
+		public long getResourcesPerSecond() {
+			long millis = queryMillis + getWriteMillis();
+			return millis == 0 ? resourceCount : resourceCount * 1000 / millis;
+		}
+	}
+}
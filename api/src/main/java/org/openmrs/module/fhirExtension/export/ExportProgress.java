@@ -0,0 +1,131 @@
+package org.openmrs.module.fhirExtension.export;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Progress of a running export, shared by the exporters running on parallel workers. It is handed to the
+ * reporter at most once per interval, so that the task is not saved for every page written, and never by
+ * two workers at the same time.
+ */
+public class ExportProgress {
+	
+	private final int exporterCount;
+	
+	private final long intervalMillis;
+	
+	private final Consumer<ExportProgress> reporter;
+	
+	private final Object reportLock = new Object();
+	
+	private final long startedAt = System.currentTimeMillis();
+	
+	private final Map<String, Long> resourcesWritten = new TreeMap<>();
+	
+	private final Set<String> currentExporters = new LinkedHashSet<>();
+	
+	private int finishedExporters;
+	
+	private long lastReportedAt;
+	
+	private boolean stopped;
+	
+	public ExportProgress(int exporterCount, long intervalMillis, Consumer<ExportProgress> reporter) {
+		this.exporterCount = exporterCount;
+		this.intervalMillis = intervalMillis;
+		this.reporter = reporter;
+		this.lastReportedAt = startedAt;
+	}
+	
+	public void exporterStarted(String exporter) {
+		synchronized (this) {
+			currentExporters.add(exporter);
+		}
+		reportIfDue();
+	}
+	
+	public void exporterFinished(String exporter) {
+		synchronized (this) {
+			currentExporters.remove(exporter);
+			finishedExporters++;
+		}
+		reportIfDue();
+	}
+	
+	public void resourcesWritten(String resourceType, int count) {
+		synchronized (this) {
+			resourcesWritten.merge(resourceType, (long) count, Long::sum);
+		}
+		reportIfDue();
+	}
+	
+	/**
+	 * Reports the progress regardless of the interval, e.g. as soon as the export started.
+	 */
+	public void report() {
+		synchronized (reportLock) {
+			if (!stopped) {
+				reporter.accept(this);
+			}
+		}
+	}
+	
+	/**
+	 * Stops reporting once the export is done, after waiting for a report in flight, so that a worker still
+	 * running after a failure can not save its progress over the final state of the task.
+	 */
+	public void stop() {
+		synchronized (reportLock) {
+			stopped = true;
+		}
+	}
+	
+	private void reportIfDue() {
+		if (isReportDue()) {
+			report();
+		}
+	}
+	
+	/**
+	 * Claims the next report once the interval since the last one elapsed, so that only one of the workers
+	 * reports it.
+	 */
+	private synchronized boolean isReportDue() {
+		long now = System.currentTimeMillis();
+		if (now - lastReportedAt < intervalMillis) {
+			return false;
+		}
+		lastReportedAt = now;
+		return true;
+	}
+	
+	/**
+	 * @return resources written so far, by resource type
+	 */
+	public synchronized Map<String, Long> getResourcesWritten() {
+		return new TreeMap<>(resourcesWritten);
+	}
+	
+	public synchronized List<String> getCurrentExporters() {
+		return new ArrayList<>(currentExporters);
+	}
+	
+	/**
+	 * The number of resources an exporter will produce is not known up front, so the remaining time is
+	 * extrapolated from the time the finished exporters took.
+	 *
+	 * @return the estimated remaining time, or null until the first exporter finished
+	 */
+	public synchronized Long getEstimatedRemainingMillis() {
+		if (finishedExporters == 0) {
+			return null;
+		}
+		long elapsedMillis = System.currentTimeMillis() - startedAt;
+		return elapsedMillis * (exporterCount - finishedExporters) / finishedExporters;
+	}
+}
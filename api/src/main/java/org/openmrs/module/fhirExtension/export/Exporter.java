@@ -1,20 +1,108 @@
 package org.openmrs.module.fhirExtension.export;
 
+import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateRangeParam;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceOrListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
+import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.param.TokenOrListParam;
 import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Reference;
+import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.springframework.beans.factory.config.BeanPostProcessor;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 public interface Exporter extends BeanPostProcessor {
 
 	String DATE_FORMAT = "yyyy-MM-dd";
 	
+	/**
+	 * Format of the high-water marks passed as start date to incremental exports.
+	 */
+	String DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+	
+	int PAGE_SIZE = 500;
+	
+	/**
+	 * @return the FHIR resource type produced by this exporter, e.g. "Condition"
+	 */
+	String getResourceType();
+	
 	List<IBaseResource> export(String startDate, String endDate);
+	
+	/**
+	 * Streams the exported resources to the given consumer in pages of at most {@link #PAGE_SIZE}
+	 * resources, so that callers never have to hold the complete export in memory.
+	 */
+	default void export(String startDate, String endDate, Consumer<List<IBaseResource>> pageConsumer) {
+		export(startDate, endDate, null, pageConsumer);
+	}
+	
+	/**
+	 * Streams the exported resources of the given patients only, filtering on the patients in the query
+	 * itself. A null list of patients exports the resources of all patients.
+	 */
+	void export(String startDate, String endDate, List<Patient> patients, Consumer<List<IBaseResource>> pageConsumer);
+	
+	/**
+	 * Streams the resources created or changed since the high-water mark of an incremental export, given in
+	 * {@link #DATE_TIME_FORMAT}. Exporters backed by the FHIR services already filter their date range on the
+	 * last update, exporters filtering on a clinical date override this.
+	 */
+	default void exportChanges(String changedSince, String endDate, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		export(changedSince, endDate, patients, pageConsumer);
+	}
+	
+	default void exportInPages(IBundleProvider bundleProvider, Function<IBaseResource, IBaseResource> mapper,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		Integer size = bundleProvider.size();
+		int pageStart = 0;
+		while (size == null || pageStart < size) {
+			int pageEnd = size == null ? pageStart + PAGE_SIZE : Math.min(pageStart + PAGE_SIZE, size);
+			List<IBaseResource> page = bundleProvider.getResources(pageStart, pageEnd);
+			if (page.isEmpty()) {
+				break;
+			}
+			pageConsumer.accept(page.stream().map(mapper).collect(Collectors.toList()));
+			pageStart = pageEnd;
+		}
+	}
+	
+	/**
+	 * Queries the rows page by page, each page starting after the id of the last row of the previous one,
+	 * and clears the session once a page is exported, so that neither the rows nor the entities they load
+	 * pile up over the export. Rows the converter maps to null are skipped.
+	 */
+	default <T> void exportInPages(Function<Integer, List<T>> pageQuery, Function<T, Integer> idGetter,
+	        Function<T, IBaseResource> converter, Consumer<List<IBaseResource>> pageConsumer, Runnable clearSession) {
+		Integer afterId = null;
+		List<T> rows;
+		do {
+			rows = pageQuery.apply(afterId);
+			if (rows.isEmpty()) {
+				break;
+			}
+			afterId = idGetter.apply(rows.get(rows.size() - 1));
+			List<IBaseResource> page = rows.stream().map(converter).filter(Objects::nonNull)
+			        .collect(Collectors.toList());
+			if (!page.isEmpty()) {
+				pageConsumer.accept(page);
+			}
+			clearSession.run();
+		} while (rows.size() >= PAGE_SIZE);
+	}
 
 	 default DateRangeParam getLastUpdated(String startDate, String endDate) {
 		DateRangeParam lastUpdated = new DateRangeParam();
@@ -33,6 +121,28 @@ public interface Exporter extends BeanPostProcessor {
 		return patientReference;
 	}
 
+	default ReferenceAndListParam getPatientReferences(List<Patient> patients) {
+		if (patients == null) {
+			return null;
+		}
+		ReferenceOrListParam patientReferences = new ReferenceOrListParam();
+		patients.forEach(patient -> patientReferences.addOr(new ReferenceParam("Patient", null, patient.getUuid())));
+		return new ReferenceAndListParam().addAnd(patientReferences);
+	}
+
+	default TokenAndListParam getPatientIds(List<Patient> patients) {
+		if (patients == null) {
+			return null;
+		}
+		TokenOrListParam patientIds = new TokenOrListParam();
+		patients.forEach(patient -> patientIds.add(patient.getUuid()));
+		return new TokenAndListParam().addAnd(patientIds);
+	}
+
+	default List<Person> getPersons(List<Patient> patients) {
+		return patients == null ? null : new ArrayList<>(patients);
+	}
+
 	default Reference getEncounterReference(String uuid) {
 		Reference encounterReference = new Reference();
 		encounterReference.setReference("Encounter/" + uuid);
@@ -42,6 +152,6 @@ public interface Exporter extends BeanPostProcessor {
 	default Date getFormattedDate(String dateStr) throws ParseException {
 		if (dateStr == null)
 			return null;
-		return DateUtils.parseDate(dateStr, DATE_FORMAT);
+		return DateUtils.parseDate(dateStr, DATE_FORMAT, DATE_TIME_FORMAT);
 	}
 }
@@ -0,0 +1,146 @@
+package org.openmrs.module.fhirExtension.export;
+
+import ca.uhn.fhir.parser.IParser;
+import lombok.extern.log4j.Log4j2;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes FHIR resources as NDJSON, one file per resource type. Every resource is encoded straight into a
+ * buffered writer for its type, so neither the resources nor their JSON form are collected in memory.
+ * Writers working on the same directory concurrently must use distinct part names, which are added to
+ * the file name (e.g. Condition.2.ndjson).
+ */
+@Log4j2
+public class NdjsonWriter implements Closeable {
+	
+	public static final String NDJSON_EXTENSION = ".ndjson";
+	
+	private static final char NEW_LINE = '\n';
+	
+	private final Path directory;
+	
+	private final String partName;
+	
+	private final IParser parser;
+	
+	private final Map<String, Writer> writers = new LinkedHashMap<>();
+	
+	private long resourceCount;
+	
+	private long encodedBytes;
+	
+	public NdjsonWriter(Path directory, IParser parser) {
+		this(directory, null, parser);
+	}
+	
+	public NdjsonWriter(Path directory, String partName, IParser parser) {
+		this.directory = directory;
+		this.partName = partName;
+		this.parser = parser;
+	}
+	
+	public void write(List<IBaseResource> fhirResources) {
+		fhirResources.forEach(this::write);
+		flush();
+	}
+	
+	public void write(IBaseResource fhirResource) {
+		String resourceType = fhirResource.getClass().getSimpleName();
+		try {
+			Utf8CountingWriter writer = new Utf8CountingWriter(getWriter(resourceType));
+			parser.encodeResourceToWriter(fhirResource, writer);
+			writer.write(NEW_LINE);
+			resourceCount++;
+			encodedBytes += writer.getByteCount();
+		}
+		catch (IOException e) {
+			log.error("Exception while writing " + resourceType + " to " + directory);
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public void flush() {
+		for (Map.Entry<String, Writer> writer : writers.entrySet()) {
+			try {
+				writer.getValue().flush();
+			}
+			catch (IOException e) {
+				log.error("Exception while flushing " + writer.getKey() + " to " + directory);
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	@Override
+	public void close() {
+		IOException closeException = null;
+		for (String resourceType : new ArrayList<>(writers.keySet())) {
+			try {
+				closeWriter(resourceType);
+			}
+			catch (IOException e) {
+				closeException = e;
+			}
+		}
+		if (closeException != null) {
+			log.error("Exception while closing NDJSON files in " + directory);
+			throw new RuntimeException(closeException);
+		}
+	}
+	
+	/**
+	 * Marks the output as complete, once everything was written without error. Writers publishing their
+	 * output as a whole only do so when closed after a commit. The files written here are kept either way.
+	 */
+	public void commit() {
+	}
+	
+	/**
+	 * @return the number of resources written so far
+	 */
+	public long getResourceCount() {
+		return resourceCount;
+	}
+	
+	/**
+	 * @return the size of the resources written so far, as UTF-8 encoded NDJSON before any compression
+	 */
+	public long getEncodedBytes() {
+		return encodedBytes;
+	}
+	
+	protected Writer getWriter(String resourceType) throws IOException {
+		Writer writer = writers.get(resourceType);
+		if (writer == null) {
+			writer = openWriter(resourceType);
+			writers.put(resourceType, writer);
+		}
+		return writer;
+	}
+	
+	protected Writer openWriter(String resourceType) throws IOException {
+		String fileName = partName == null ? resourceType : resourceType + "." + partName;
+		Path filePath = directory.resolve(fileName + NDJSON_EXTENSION);
+		return Files.newBufferedWriter(filePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+		    StandardOpenOption.APPEND);
+	}
+	
+	protected void closeWriter(String resourceType) throws IOException {
+		Writer writer = writers.remove(resourceType);
+		if (writer != null) {
+			writer.close();
+		}
+	}
+}
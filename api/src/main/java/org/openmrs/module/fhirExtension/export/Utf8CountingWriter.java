@@ -0,0 +1,63 @@
+package org.openmrs.module.fhirExtension.export;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Passes characters on to the underlying writer, counting the bytes they take once encoded as UTF-8.
+ */
+class Utf8CountingWriter extends FilterWriter {
+	
+	private long byteCount;
+	
+	Utf8CountingWriter(Writer out) {
+		super(out);
+	}
+	
+	@Override
+	public void write(int c) throws IOException {
+		out.write(c);
+		byteCount += getUtf8Length((char) c);
+	}
+	
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		out.write(cbuf, off, len);
+		for (int i = off; i < off + len; i++) {
+			byteCount += getUtf8Length(cbuf[i]);
+		}
+	}
+	
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		out.write(str, off, len);
+		for (int i = off; i < off + len; i++) {
+			byteCount += getUtf8Length(str.charAt(i));
+		}
+	}
+	
+	/**
+	 * The underlying writer is owned by the caller and is left open.
+	 */
+	@Override
+	public void close() {
+	}
+	
+	long getByteCount() {
+		return byteCount;
+	}
+	
+	/**
+	 * A surrogate pair takes four bytes, counted as two for each half.
+	 */
+	private static int getUtf8Length(char c) {
+		if (c < 0x80) {
+			return 1;
+		}
+		if (c < 0x800 || Character.isSurrogate(c)) {
+			return 2;
+		}
+		return 3;
+	}
+}
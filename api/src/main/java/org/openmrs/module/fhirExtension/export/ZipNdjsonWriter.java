@@ -0,0 +1,132 @@
+package org.openmrs.module.fhirExtension.export;
+
+import ca.uhn.fhir.parser.IParser;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes NDJSON straight into zip entries, so an export is compressed in a single pass without
+ * intermediate files. Only one entry can be open at a time: when the resource type changes the current
+ * entry is closed, and a type that shows up again (e.g. Condition from a second exporter) continues in a
+ * new numbered entry such as Condition.2.ndjson. The archive is written under a temporary name and only
+ * moved into place when the writer is closed after {@link #commit()}; otherwise it is deleted on close, so
+ * a failed export never leaves a partial archive behind.
+ */
+@Log4j2
+public class ZipNdjsonWriter extends NdjsonWriter {
+	
+	private static final String PART_EXTENSION = ".part";
+	
+	private final Path zipFile;
+	
+	private final Path partFile;
+	
+	private final ZipOutputStream zipOutputStream;
+	
+	private final Writer writer;
+	
+	private final Map<String, Integer> entryCounts = new HashMap<>();
+	
+	private String currentResourceType;
+	
+	private boolean committed;
+	
+	public ZipNdjsonWriter(Path zipFile, int compressionLevel, IParser parser) {
+		super(zipFile, parser);
+		this.zipFile = zipFile;
+		this.partFile = Paths.get(zipFile + PART_EXTENSION);
+		try {
+			zipOutputStream = new ZipOutputStream(Files.newOutputStream(partFile));
+		}
+		catch (IOException e) {
+			log.error("Error while creating zip file " + partFile);
+			throw new RuntimeException(e);
+		}
+		zipOutputStream.setLevel(compressionLevel);
+		writer = new BufferedWriter(new OutputStreamWriter(zipOutputStream, StandardCharsets.UTF_8));
+	}
+	
+	@Override
+	protected Writer getWriter(String resourceType) throws IOException {
+		if (!resourceType.equals(currentResourceType)) {
+			closeCurrentEntry();
+			int entryCount = entryCounts.merge(resourceType, 1, Integer::sum);
+			String entryName = entryCount == 1 ? resourceType : resourceType + "." + entryCount;
+			zipOutputStream.putNextEntry(new ZipEntry(entryName + NDJSON_EXTENSION));
+			currentResourceType = resourceType;
+		}
+		return writer;
+	}
+	
+	@Override
+	public void flush() {
+		try {
+			writer.flush();
+		}
+		catch (IOException e) {
+			log.error("Exception while flushing " + currentResourceType + " to " + partFile);
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	public void commit() {
+		committed = true;
+	}
+	
+	@Override
+	public void close() {
+		boolean published = false;
+		try {
+			try {
+				closeCurrentEntry();
+			}
+			finally {
+				writer.close();
+			}
+			if (committed) {
+				Files.move(partFile, zipFile, StandardCopyOption.REPLACE_EXISTING);
+				published = true;
+			}
+		}
+		catch (IOException e) {
+			log.error("Error while creating zip file " + zipFile);
+			throw new RuntimeException(e);
+		}
+		finally {
+			if (!published) {
+				deletePartFile();
+			}
+		}
+	}
+	
+	private void deletePartFile() {
+		try {
+			Files.deleteIfExists(partFile);
+		}
+		catch (IOException e) {
+			log.warn("Could not delete incomplete zip file " + partFile, e);
+		}
+	}
+	
+	private void closeCurrentEntry() throws IOException {
+		if (currentResourceType != null) {
+			writer.flush();
+			zipOutputStream.closeEntry();
+			currentResourceType = null;
+		}
+	}
+}
@@ -6,14 +6,16 @@ import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Condition;
+import org.openmrs.Patient;
 import org.openmrs.module.fhir2.api.FhirConditionService;
 import org.openmrs.module.fhirExtension.export.Exporter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 @Component
 public class ConditionExport implements Exporter {
@@ -26,13 +28,25 @@ public class ConditionExport implements Exporter {
 	}
 	
 	@Override
-    public List<IBaseResource> export(String startDate, String endDate) {
-        DateRangeParam lastUpdated = getLastUpdated(startDate, endDate);
-        IBundleProvider iBundleProvider = fhirConditionService.searchConditions(null, null, null, null, null, null, null,
-                lastUpdated, null, null);
-        List<IBaseResource> conditionList = iBundleProvider.getAllResources().stream().map(this::addCategory).collect(Collectors.toList());
-        return conditionList;
-    }
+	public String getResourceType() {
+		return "Condition";
+	}
+	
+	@Override
+	public List<IBaseResource> export(String startDate, String endDate) {
+		List<IBaseResource> conditionList = new ArrayList<>();
+		export(startDate, endDate, conditionList::addAll);
+		return conditionList;
+	}
+	
+	@Override
+	public void export(String startDate, String endDate, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		DateRangeParam lastUpdated = getLastUpdated(startDate, endDate);
+		IBundleProvider iBundleProvider = fhirConditionService.searchConditions(getPatientReferences(patients), null, null,
+		    null, null, null, null, lastUpdated, null, null);
+		exportInPages(iBundleProvider, this::addCategory, pageConsumer);
+	}
 	
 	private Condition addCategory(IBaseResource baseResource) {
 		Condition condition = (Condition) baseResource;
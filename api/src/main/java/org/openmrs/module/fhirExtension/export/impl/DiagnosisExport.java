@@ -9,20 +9,23 @@ import org.hl7.fhir.r4.model.DateTimeType;
 import org.openmrs.Concept;
 import org.openmrs.ConditionClinicalStatus;
 import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.openmrs.api.ConceptService;
-import org.openmrs.api.ObsService;
 import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
 import org.openmrs.module.fhir2.api.translators.ConditionClinicalStatusTranslator;
+import org.openmrs.module.fhirExtension.dao.ExportDao;
 import org.openmrs.module.fhirExtension.export.Exporter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
 @Log4j2
@@ -36,7 +39,7 @@ public class DiagnosisExport implements Exporter {
 	
 	private final ConceptTranslator conceptTranslator;
 	
-	private final ObsService obsService;
+	private final ExportDao exportDao;
 	
 	private final ConceptService conceptService;
 	
@@ -45,39 +48,72 @@ public class DiagnosisExport implements Exporter {
 	@Autowired
 	public DiagnosisExport(ConceptTranslator conceptTranslator,
 	    ConditionClinicalStatusTranslator conditionClinicalStatusTranslator, ConceptService conceptService,
-	    ObsService obsService) {
+	    ExportDao exportDao) {
 		this.conceptTranslator = conceptTranslator;
 		this.conditionClinicalStatusTranslator = conditionClinicalStatusTranslator;
 		this.conceptService = conceptService;
-		this.obsService = obsService;
+		this.exportDao = exportDao;
+	}
+	
+	@Override
+	public String getResourceType() {
+		return "Condition";
 	}
 	
 	@Override
 	public List<IBaseResource> export(String startDateStr, String endDateStr) {
 		List<IBaseResource> fhirResources = new ArrayList<>();
-
+		export(startDateStr, endDateStr, fhirResources::addAll);
+		return fhirResources;
+	}
+	
+	@Override
+	public void export(String startDateStr, String endDateStr, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		exportDiagnoses(startDateStr, endDateStr, patients, false, pageConsumer);
+	}
+	
+	@Override
+	public void exportChanges(String changedSince, String endDateStr, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		exportDiagnoses(changedSince, endDateStr, patients, true, pageConsumer);
+	}
+	
+	/**
+	 * Diagnoses are selected by the date they were recorded for, or by the date the obs were created when
+	 * only the changes of an incremental export are exported.
+	 */
+	private void exportDiagnoses(String startDateStr, String endDateStr, List<Patient> patients, boolean createdOnly,
+	        Consumer<List<IBaseResource>> pageConsumer) {
 		try {
 			Date startDate = getFormattedDate(startDateStr);
 			Date endDate = getFormattedDate(endDateStr);
 			Concept visitDiagnosesConcept = conceptService.getConceptByName(VISIT_DIAGNOSES);
-			List<Obs> visitDiagnosesObs = obsService.getObservations(null, null, Arrays.asList(visitDiagnosesConcept), null, null,
-					null, null, null, null, startDate, endDate, false);
+			List<Person> persons = getPersons(patients);
+
+			Integer codedDiagnosisConceptId = getConceptId(CODED_DIAGNOSIS);
+			Integer diagnosisStatusConceptId = getConceptId(BAHMNI_DIAGNOSIS_STATUS);
 
-			visitDiagnosesObs.stream().filter(this::isCodedDiagnosis)
-					.map(this::convertDiagnosisAsFhirCondition)
-					.forEach(fhirResources :: add);
+			exportInPages(afterObsId -> createdOnly
+					? exportDao.getCreatedObs(visitDiagnosesConcept, persons, startDate, endDate, afterObsId, PAGE_SIZE)
+					: exportDao.getObs(visitDiagnosesConcept, persons, startDate, endDate, afterObsId, PAGE_SIZE),
+					Obs::getObsId, visitDiagnosisObs -> {
+				Map<Integer, Obs> groupMembers = getGroupMembersByConceptId(visitDiagnosisObs);
+				if (!groupMembers.containsKey(codedDiagnosisConceptId)) {
+					return null;
+				}
+				return convertDiagnosisAsFhirCondition(groupMembers.get(codedDiagnosisConceptId),
+						groupMembers.get(diagnosisStatusConceptId));
+			}, pageConsumer, exportDao::clearSession);
 		} catch (Exception e) {
 			log.error("Exception while exporting diagnosis to FHIR type ", e);
 			throw new RuntimeException(e);
 		}
-		
-		return fhirResources;
 	}
 	
-	private Condition convertDiagnosisAsFhirCondition(Obs visitDiagnosisObsGroup) {
+	private Condition convertDiagnosisAsFhirCondition(Obs codedDiagnosisObs, Obs diagnosisStatusObs) {
 		Condition condition = new Condition();
-		Obs codedDiagnosisObs = getObsFor(visitDiagnosisObsGroup, CODED_DIAGNOSIS);
-		CodeableConcept clinicalStatus = getClinicalStatus(visitDiagnosisObsGroup);
+		CodeableConcept clinicalStatus = getClinicalStatus(diagnosisStatusObs);
 		CodeableConcept codeableConcept = conceptTranslator.toFhirResource(codedDiagnosisObs.getValueCoded());
 		condition.setId(codedDiagnosisObs.getUuid());
 		condition.setCategory(getCategory());
@@ -90,31 +126,30 @@ public class DiagnosisExport implements Exporter {
 		return condition;
 	}
 	
-	private boolean isActiveDiagnosis(Obs visitDiagnosisObsGroup) {
-		Obs codedDiagnosisStatusObs = getObsFor(visitDiagnosisObsGroup, BAHMNI_DIAGNOSIS_STATUS);
-		return codedDiagnosisStatusObs == null;
-	}
-	
-	private boolean isCodedDiagnosis(Obs visitDiagnosisObsGroup) {
-		Obs codedDiagnosisObs = getObsFor(visitDiagnosisObsGroup, CODED_DIAGNOSIS);
-		return codedDiagnosisObs != null;
+	private Integer getConceptId(String conceptName) {
+		Concept concept = conceptService.getConceptByName(conceptName);
+		if (concept == null) {
+			log.error("Concept " + conceptName + " is not available");
+			return null;
+		}
+		return concept.getConceptId();
 	}
 	
-	private Obs getObsFor(Obs visitDiagnosisObsGroup, String conceptName) {
-		Optional<Obs> optionalObs = visitDiagnosisObsGroup.getGroupMembers()
-				.stream()
-				.filter(obs -> obs.getConcept().getName().getName().equals(conceptName))
-				.findFirst();
-		if (optionalObs.isPresent()) {
-			return optionalObs.get();
+	/**
+	 * Indexes the members of a visit diagnosis obs group by concept id in a single pass, keeping the first
+	 * member for each concept, so that looking up the diagnosis and its status does not load concept names.
+	 */
+	private Map<Integer, Obs> getGroupMembersByConceptId(Obs visitDiagnosisObsGroup) {
+		Map<Integer, Obs> groupMembers = new HashMap<>();
+		for (Obs obs : visitDiagnosisObsGroup.getGroupMembers()) {
+			groupMembers.putIfAbsent(obs.getConcept().getConceptId(), obs);
 		}
-		return null;
+		return groupMembers;
 	}
 	
-	private CodeableConcept getClinicalStatus(Obs visitDiagnosisObsGroup) {
-		boolean isActiveDiagnosis = isActiveDiagnosis(visitDiagnosisObsGroup);
+	private CodeableConcept getClinicalStatus(Obs diagnosisStatusObs) {
 		ConditionClinicalStatus conditionClinicalStatus = ConditionClinicalStatus.INACTIVE;
-		if (isActiveDiagnosis) {
+		if (diagnosisStatusObs == null) {
 			conditionClinicalStatus = ConditionClinicalStatus.ACTIVE;
 		}
 		return conditionClinicalStatusTranslator.toFhirResource(conditionClinicalStatus);
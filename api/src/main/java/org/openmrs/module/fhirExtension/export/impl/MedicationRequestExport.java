@@ -3,10 +3,13 @@ package org.openmrs.module.fhirExtension.export.impl;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.Medication;
 import org.hl7.fhir.r4.model.MedicationRequest;
 import org.openmrs.Drug;
 import org.openmrs.DrugOrder;
+import org.openmrs.Patient;
+import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.module.fhir2.api.FhirMedicationRequestService;
 import org.openmrs.module.fhir2.api.translators.MedicationTranslator;
@@ -14,8 +17,12 @@ import org.openmrs.module.fhirExtension.export.Exporter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Component
 public class MedicationRequestExport implements Exporter {
@@ -26,29 +33,61 @@ public class MedicationRequestExport implements Exporter {
 	
 	private final OrderService orderService;
 	
+	private final ConceptService conceptService;
+	
 	@Autowired
 	public MedicationRequestExport(FhirMedicationRequestService fhirMedicationRequestService,
-	    MedicationTranslator medicationTranslator, OrderService orderService) {
+	    MedicationTranslator medicationTranslator, OrderService orderService, ConceptService conceptService) {
 		this.fhirMedicationRequestService = fhirMedicationRequestService;
 		this.medicationTranslator = medicationTranslator;
 		this.orderService = orderService;
+		this.conceptService = conceptService;
+	}
+	
+	@Override
+	public String getResourceType() {
+		return "MedicationRequest";
 	}
 	
 	@Override
 	public List<IBaseResource> export(String startDate, String endDate) {
-		DateRangeParam lastUpdated = getLastUpdated(startDate, endDate);
-		IBundleProvider iBundleProvider = fhirMedicationRequestService.searchForMedicationRequests(null, null, null, null,
-		    null, null, null, null, lastUpdated, null, null);
-		List<IBaseResource> medicationRequests = iBundleProvider.getAllResources().stream().map(this::addMedicationInfo).collect(Collectors.toList());
+		List<IBaseResource> medicationRequests = new ArrayList<>();
+		export(startDate, endDate, medicationRequests::addAll);
 		return medicationRequests;
 	}
 	
-	private MedicationRequest addMedicationInfo(IBaseResource iBaseResource) {
-		MedicationRequest medicationRequest = (MedicationRequest) iBaseResource;
-		String orderUuid = medicationRequest.getId();
-		Drug drug = ((DrugOrder) orderService.getOrderByUuid(orderUuid)).getDrug();
+	@Override
+	public void export(String startDate, String endDate, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		DateRangeParam lastUpdated = getLastUpdated(startDate, endDate);
+		IBundleProvider iBundleProvider = fhirMedicationRequestService.searchForMedicationRequests(
+		    getPatientReferences(patients), null, null, null, null, null, null, null, lastUpdated, null, null);
+		Map<String, CodeableConcept> medicationCodes = new HashMap<>();
+		exportInPages(iBundleProvider, Function.identity(), page -> {
+			page.forEach(medicationRequest -> addMedicationInfo((MedicationRequest) medicationRequest, medicationCodes));
+			pageConsumer.accept(page);
+		});
+	}
+	
+	/**
+	 * Sets the medication code of the drug being requested. Codes are translated once per drug and kept in
+	 * medicationCodes for the rest of the export, as most requests share a small set of drugs.
+	 */
+	private void addMedicationInfo(MedicationRequest medicationRequest, Map<String, CodeableConcept> medicationCodes) {
+		CodeableConcept medicationCode;
+		if (medicationRequest.hasMedicationReference()) {
+			String drugUuid = medicationRequest.getMedicationReference().getReferenceElement().getIdPart();
+			medicationCode = medicationCodes.computeIfAbsent(drugUuid,
+			    uuid -> getMedicationCode(conceptService.getDrugByUuid(uuid)));
+		} else {
+			Drug drug = ((DrugOrder) orderService.getOrderByUuid(medicationRequest.getId())).getDrug();
+			medicationCode = medicationCodes.computeIfAbsent(drug.getUuid(), uuid -> getMedicationCode(drug));
+		}
+		medicationRequest.setMedication(medicationCode);
+	}
+	
+	private CodeableConcept getMedicationCode(Drug drug) {
 		Medication medicationFhirResource = medicationTranslator.toFhirResource(drug);
-		medicationRequest.setMedication(medicationFhirResource.getCode());
-		return medicationRequest;
+		return medicationFhirResource.getCode();
 	}
 }
@@ -3,13 +3,17 @@ package org.openmrs.module.fhirExtension.export.impl;
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openmrs.Patient;
 import org.openmrs.module.fhir2.api.FhirPatientService;
 import org.openmrs.module.fhir2.api.search.param.PatientSearchParams;
 import org.openmrs.module.fhirExtension.export.Exporter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Component
 public class PatientExport implements Exporter {
@@ -21,12 +25,25 @@ public class PatientExport implements Exporter {
 		this.fhirPatientService = fhirPatientService;
 	}
 	
+	@Override
+	public String getResourceType() {
+		return "Patient";
+	}
+	
 	@Override
 	public List<IBaseResource> export(String startDate, String endDate) {
+		List<IBaseResource> patientResources = new ArrayList<>();
+		export(startDate, endDate, patientResources::addAll);
+		return patientResources;
+	}
+	
+	@Override
+	public void export(String startDate, String endDate, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
 		DateRangeParam lastUpdated = getLastUpdated(startDate, endDate);
 		PatientSearchParams patientSearchParams = new PatientSearchParams(null, null, null, null, null, null, null, null,
-		        null, null, null, null, null, lastUpdated, null, null);
+		        null, null, null, null, getPatientIds(patients), lastUpdated, null, null);
 		IBundleProvider iBundleProvider = fhirPatientService.searchForPatients(patientSearchParams);
-		return iBundleProvider.getAllResources();
+		exportInPages(iBundleProvider, Function.identity(), pageConsumer);
 	}
 }
@@ -9,11 +9,15 @@ import org.hl7.fhir.r4.model.DateTimeType;
 import org.hl7.fhir.r4.model.MarkdownType;
 import org.hl7.fhir.r4.model.Procedure;
 import org.openmrs.Concept;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
-import org.openmrs.api.ObsService;
+import org.openmrs.api.GlobalPropertyListener;
 import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
+import org.openmrs.module.fhirExtension.dao.ExportDao;
 import org.openmrs.module.fhirExtension.export.Exporter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -24,19 +28,24 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 @Component
 @Log4j2
-public class ProcedureFormExport implements Exporter {
+public class ProcedureFormExport implements Exporter, GlobalPropertyListener {
 
 	private final AdministrationService adminService;
 	
@@ -44,50 +53,78 @@ public class ProcedureFormExport implements Exporter {
 	
 	private final ConceptService conceptService;
 	
-	private final ObsService obsService;
+	private final ExportDao exportDao;
 
 	private static final String GP_PROCEDURE_TEMPLATE_PROPERTIES_FILE_PATH = "fhir.export.procedure.template";
-	private final Map<ProcedureAttribute, String> procedureAttributesMap = new HashMap<>();
-	private final Properties procedureRecordAttributesFromProperties = new Properties();
 	private final List<String> procedureConfigurationKeys = new ArrayList<>();
+	private final AtomicReference<ProcedureAttributeConfig> procedureAttributeConfig = new AtomicReference<>();
+	private final AtomicLong procedureAttributeConfigVersion = new AtomicLong();
+	private final AtomicLong procedureAttributeConfigGeneration = new AtomicLong();
 	
 	@Autowired
 	public ProcedureFormExport(@Qualifier("adminService") AdministrationService adminService,
-							   ConceptTranslator conceptTranslator, ConceptService conceptService, ObsService obsService) {
+							   ConceptTranslator conceptTranslator, ConceptService conceptService, ExportDao exportDao) {
 		this.adminService = adminService;
 		this.conceptTranslator = conceptTranslator;
 		this.conceptService = conceptService;
-		this.obsService = obsService;
+		this.exportDao = exportDao;
 
 		Arrays.stream(ProcedureAttribute.values()).forEach(procedureAttribute -> procedureConfigurationKeys.add(procedureAttribute.getMapping()));
 	}
 	
+	@Override
+	public String getResourceType() {
+		return "Procedure";
+	}
+	
 	@Override
 	public List<IBaseResource> export(String startDateStr, String endDateStr) {
 		List<IBaseResource> procedureResources = new ArrayList<>();
-
+		export(startDateStr, endDateStr, procedureResources::addAll);
+		return procedureResources;
+	}
+	
+	@Override
+	public void export(String startDateStr, String endDateStr, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		exportProcedures(startDateStr, endDateStr, patients, false, pageConsumer);
+	}
+	
+	@Override
+	public void exportChanges(String changedSince, String endDateStr, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		exportProcedures(changedSince, endDateStr, patients, true, pageConsumer);
+	}
+	
+	/**
+	 * Procedure records are selected by the date they were recorded for, or by the date the obs were created
+	 * when only the changes of an incremental export are exported.
+	 */
+	private void exportProcedures(String startDateStr, String endDateStr, List<Patient> patients, boolean createdOnly,
+	        Consumer<List<IBaseResource>> pageConsumer) {
 		try {
 			Date startDate = getFormattedDate(startDateStr);
 			Date endDate = getFormattedDate(endDateStr);
-			readProcedureAttributeProperties();
-			Concept procedureRecordConcept = conceptService.getConceptByUuid(procedureAttributesMap.get(getProcedureObsRootConcept()));
+			ProcedureAttributeConfig config = getProcedureAttributeConfig();
+			Concept procedureRecordConcept = conceptService.getConceptByUuid(config.getConceptUuid(getProcedureObsRootConcept()));
 			if (procedureRecordConcept == null) {
 				log.warn("Procedure Record Template is not available");
-				return procedureResources;
+				return;
 			}
-			List<Obs> procedureRecordObs = obsService.getObservations(null, null, Collections.singletonList(procedureRecordConcept), null, null,
-					null, null, null, null, startDate, endDate, false);
-			procedureRecordObs.stream()
-							  .map(this::convertToFhirResource)
-						      .forEach(procedureResources :: add);
+			List<Person> persons = getPersons(patients);
+			exportInPages(afterObsId -> createdOnly
+					? exportDao.getCreatedObs(procedureRecordConcept, persons, startDate, endDate, afterObsId,
+							PAGE_SIZE)
+					: exportDao.getObs(procedureRecordConcept, persons, startDate, endDate, afterObsId, PAGE_SIZE),
+					Obs::getObsId, obs -> convertToFhirResource(obs, config.getAttributesByConceptUuid()),
+					pageConsumer, exportDao::clearSession);
 		} catch (Exception e) {
 			log.error("Exception while exporting procedure to FHIR type ", e);
 			throw new RuntimeException(e);
 		}
-		return procedureResources;
 	}
 	
-	private Procedure convertToFhirResource(Obs procedureObs) {
+	private Procedure convertToFhirResource(Obs procedureObs, Map<String, ProcedureAttribute> procedureAttributesByConceptUuid) {
 		Procedure procedure = new Procedure();
 		procedure.setId(procedureObs.getUuid());
 
@@ -101,40 +138,10 @@ public class ProcedureFormExport implements Exporter {
 		AtomicReference<Date> procedureEndDate = new AtomicReference<>();
 
 		procedureObs.getGroupMembers().forEach(member -> {
-			Concept memberConcept = member.getConcept();
-
-			if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_NAME))) {
-				procedure.setCode(conceptTranslator.toFhirResource(member.getValueCoded()));
-			} else if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_NAME_NONCODED))) {
-				CodeableConcept concept = new CodeableConcept();
-				concept.setText(member.getValueCoded().getDisplayString());
-				procedure.setCode(concept);
+			ProcedureAttribute procedureAttribute = procedureAttributesByConceptUuid.get(member.getConcept().getUuid());
+			if (procedureAttribute != null) {
+				setProcedureAttribute(procedure, procedureAttribute, member, procedureStartDate, procedureEndDate);
 			}
-
-			if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_START_DATETIME))) {
-				procedureStartDate.set(member.getValueDatetime());
-				procedure.setPerformed(new DateTimeType(procedureStartDate.get()));
-			}
-
-			if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_END_DATETIME))) {
-				procedureEndDate.set(member.getValueDatetime());
-			}
-
-			if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_BODYSITE))) {
-				procedure.setBodySite(Collections.singletonList(conceptTranslator.toFhirResource(member.getValueCoded())));
-			} else if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_NONCODED_BODYSITE))) {
-				CodeableConcept concept = new CodeableConcept();
-				concept.setText(member.getValueText());
-				procedure.setBodySite(Collections.singletonList(concept));
-			}
-
-			if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_OUTCOME))) {
-				procedure.setOutcome(conceptTranslator.toFhirResource(member.getValueCoded()));
-			}
-			if (conceptMatchesForAttribute(memberConcept, procedureAttributesMap.get(ProcedureAttribute.PROCEDURE_NOTE))) {
-				procedure.addNote(new Annotation(new MarkdownType(member.getValueText())));
-			}
-
 		});
 
 		Date currentDate = new Date();
@@ -150,6 +157,44 @@ public class ProcedureFormExport implements Exporter {
 		return procedure;
 	}
 
+	private void setProcedureAttribute(Procedure procedure, ProcedureAttribute procedureAttribute, Obs member,
+									   AtomicReference<Date> procedureStartDate, AtomicReference<Date> procedureEndDate) {
+		CodeableConcept concept;
+		switch (procedureAttribute) {
+			case PROCEDURE_NAME:
+				procedure.setCode(conceptTranslator.toFhirResource(member.getValueCoded()));
+				break;
+			case PROCEDURE_NAME_NONCODED:
+				concept = new CodeableConcept();
+				concept.setText(member.getValueCoded().getDisplayString());
+				procedure.setCode(concept);
+				break;
+			case PROCEDURE_START_DATETIME:
+				procedureStartDate.set(member.getValueDatetime());
+				procedure.setPerformed(new DateTimeType(procedureStartDate.get()));
+				break;
+			case PROCEDURE_END_DATETIME:
+				procedureEndDate.set(member.getValueDatetime());
+				break;
+			case PROCEDURE_BODYSITE:
+				procedure.setBodySite(Collections.singletonList(conceptTranslator.toFhirResource(member.getValueCoded())));
+				break;
+			case PROCEDURE_NONCODED_BODYSITE:
+				concept = new CodeableConcept();
+				concept.setText(member.getValueText());
+				procedure.setBodySite(Collections.singletonList(concept));
+				break;
+			case PROCEDURE_OUTCOME:
+				procedure.setOutcome(conceptTranslator.toFhirResource(member.getValueCoded()));
+				break;
+			case PROCEDURE_NOTE:
+				procedure.addNote(new Annotation(new MarkdownType(member.getValueText())));
+				break;
+			default:
+				break;
+		}
+	}
+
 	public enum ProcedureAttribute {
 		PROCEDURE_TEMPLATE("conceptMap.procedure.procedureTemplate"),
 		PROCEDURE_NAME("conceptMap.procedure.procedureName"),
@@ -177,42 +222,69 @@ public class ProcedureFormExport implements Exporter {
 		return ProcedureAttribute.PROCEDURE_TEMPLATE;
 	}
 
-	private void updateProcedureAttributeConceptsMap() {
-		Arrays.stream(ProcedureAttribute.values()).forEach(procedureAttribute -> {
-			String procedureAttributeUuid = (String) procedureRecordAttributesFromProperties.get(procedureAttribute.getMapping());
-			getProcedureAttributesMap().put(procedureAttribute, procedureAttributeUuid);
-		});
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return GP_PROCEDURE_TEMPLATE_PROPERTIES_FILE_PATH.equals(propertyName) || procedureConfigurationKeys.contains(propertyName);
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		invalidateProcedureAttributeConfig();
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		invalidateProcedureAttributeConfig();
 	}
 
-	private Map<ProcedureAttribute, String> getProcedureAttributesMap() {
-		return procedureAttributesMap;
+	private void invalidateProcedureAttributeConfig() {
+		procedureAttributeConfigGeneration.incrementAndGet();
+		procedureAttributeConfig.set(null);
 	}
 
-	private boolean conceptMatchesForAttribute(Concept memberConcept, String mappedConceptUuid) {
-		return mappedConceptUuid != null && memberConcept.getUuid().equals(mappedConceptUuid);
+	/**
+	 * Returns the cached configuration, reloading it when a procedure global property has changed or the
+	 * modification time of the properties file differs from the one it was read at. A configuration is
+	 * tagged with the generation of global property changes it was read at, so one whose load overlapped
+	 * with a change is reloaded on the next call even when it got published after the change.
+	 */
+	private ProcedureAttributeConfig getProcedureAttributeConfig() {
+		ProcedureAttributeConfig observed = procedureAttributeConfig.get();
+		long generation = procedureAttributeConfigGeneration.get();
+		if (observed != null && !observed.isStale(generation)) {
+			return observed;
+		}
+		ProcedureAttributeConfig config = readProcedureAttributeProperties(generation);
+		if (procedureAttributeConfig.compareAndSet(observed, config)) {
+			log.info(String.format("Loaded Procedure Attribute config version %d", config.getVersion()));
+		}
+		return config;
 	}
 
-	private void readProcedureAttributeProperties() {
+	private ProcedureAttributeConfig readProcedureAttributeProperties(long generation) {
 		String procedureTemplateGlobalPropValue = adminService.getGlobalProperty(GP_PROCEDURE_TEMPLATE_PROPERTIES_FILE_PATH);
 		Path configFilePath = null;
 		if ( StringUtils.isNotBlank(procedureTemplateGlobalPropValue) ) {
 			configFilePath = Paths.get(procedureTemplateGlobalPropValue);
 		}
-		if (StringUtils.isEmpty(procedureTemplateGlobalPropValue) || !Files.exists(configFilePath)) {
+		Properties procedureRecordAttributesFromProperties = new Properties();
+		FileTime lastModified = getLastModifiedTime(configFilePath);
+		if (lastModified == null) {
 			log.warn(String.format("Procedure Attribute config file does not exist: [%s]. Trying to read from Global Properties", configFilePath));
-			readFromGlobalProperties();
-			return;
-		}
-		log.info(String.format("Reading Procedure Attribute config properties from : %s", configFilePath));
-		try (InputStream configFile = Files.newInputStream(configFilePath)) {
-			procedureRecordAttributesFromProperties.load(configFile);
-			updateProcedureAttributeConceptsMap();
-		} catch (IOException e) {
-			log.error("Error Occurred while trying to read Procedure Attribute config file", e);
+			readFromGlobalProperties(procedureRecordAttributesFromProperties);
+		} else {
+			log.info(String.format("Reading Procedure Attribute config properties from : %s", configFilePath));
+			try (InputStream configFile = Files.newInputStream(configFilePath)) {
+				procedureRecordAttributesFromProperties.load(configFile);
+			} catch (IOException e) {
+				log.error("Error Occurred while trying to read Procedure Attribute config file", e);
+			}
 		}
+		return new ProcedureAttributeConfig(procedureAttributeConfigVersion.incrementAndGet(), generation, configFilePath,
+				lastModified, procedureRecordAttributesFromProperties);
 	}
 
-	private void readFromGlobalProperties() {
+	private void readFromGlobalProperties(Properties procedureRecordAttributesFromProperties) {
 		procedureConfigurationKeys.forEach(key -> {
 			String value = adminService.getGlobalProperty(key);
 			if (!StringUtils.isEmpty(value)) {
@@ -221,6 +293,81 @@ public class ProcedureFormExport implements Exporter {
 				log.warn("Procedure Attribute: No property set for " + key);
 			}
 		});
-		updateProcedureAttributeConceptsMap();
 	}
-}
\ No newline at end of file
+
+	private static FileTime getLastModifiedTime(Path configFilePath) {
+		if (configFilePath == null || !Files.exists(configFilePath)) {
+			return null;
+		}
+		try {
+			return Files.getLastModifiedTime(configFilePath);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Immutable snapshot of the procedure attribute mapping. Exports keep using the snapshot they started
+	 * with while a newer version is swapped in.
+	 */
+	private static final class ProcedureAttributeConfig {
+
+		private final long version;
+
+		private final long generation;
+
+		private final Path configFilePath;
+
+		private final FileTime lastModified;
+
+		private final Map<ProcedureAttribute, String> conceptUuids;
+
+		private final Map<String, ProcedureAttribute> attributesByConceptUuid;
+
+		private ProcedureAttributeConfig(long version, long generation, Path configFilePath, FileTime lastModified,
+				Properties properties) {
+			this.version = version;
+			this.generation = generation;
+			this.configFilePath = configFilePath;
+			this.lastModified = lastModified;
+			Map<ProcedureAttribute, String> conceptUuids = new EnumMap<>(ProcedureAttribute.class);
+			Map<String, ProcedureAttribute> attributesByConceptUuid = new HashMap<>();
+			Arrays.stream(ProcedureAttribute.values()).forEach(procedureAttribute -> {
+				String conceptUuid = properties.getProperty(procedureAttribute.getMapping());
+				if (conceptUuid == null) {
+					return;
+				}
+				conceptUuids.put(procedureAttribute, conceptUuid);
+				// when a uuid is configured for more than one attribute, the attribute declared first wins
+				if (procedureAttribute != ProcedureAttribute.PROCEDURE_TEMPLATE) {
+					attributesByConceptUuid.putIfAbsent(conceptUuid, procedureAttribute);
+				}
+			});
+			this.conceptUuids = Collections.unmodifiableMap(conceptUuids);
+			this.attributesByConceptUuid = Collections.unmodifiableMap(attributesByConceptUuid);
+		}
+
+		private long getVersion() {
+			return version;
+		}
+
+		private String getConceptUuid(ProcedureAttribute procedureAttribute) {
+			return conceptUuids.get(procedureAttribute);
+		}
+
+		/**
+		 * Dispatch table from the configured concept uuid to the attribute it holds, so that each group
+		 * member is routed with a single lookup.
+		 */
+		private Map<String, ProcedureAttribute> getAttributesByConceptUuid() {
+			return attributesByConceptUuid;
+		}
+
+		private boolean isStale(long currentGeneration) {
+			if (generation != currentGeneration) {
+				return true;
+			}
+			return configFilePath != null && !Objects.equals(lastModified, getLastModifiedTime(configFilePath));
+		}
+	}
+}
@@ -1,26 +1,30 @@
 package org.openmrs.module.fhirExtension.export.impl;
 
 import lombok.extern.log4j.Log4j2;
-import org.apache.commons.lang3.time.DateUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeableConcept;
 import org.hl7.fhir.r4.model.ServiceRequest;
 import org.openmrs.Concept;
 import org.openmrs.Order;
 import org.openmrs.OrderType;
+import org.openmrs.Patient;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
+import org.openmrs.module.fhirExtension.dao.ExportDao;
 import org.openmrs.module.fhirExtension.export.Exporter;
-import org.openmrs.parameter.OrderSearchCriteria;
-import org.openmrs.parameter.OrderSearchCriteriaBuilder;
+import org.openmrs.util.OpenmrsUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Component
 @Log4j2
@@ -36,61 +40,93 @@ public class ProcedureOrderExport implements Exporter {
 	
 	private final ConceptTranslator conceptTranslator;
 	
+	private final ExportDao exportDao;
+	
 	@Autowired
-	public ProcedureOrderExport(OrderService orderService, ConceptService conceptService, ConceptTranslator conceptTranslator) {
+	public ProcedureOrderExport(OrderService orderService, ConceptService conceptService, ConceptTranslator conceptTranslator,
+	    ExportDao exportDao) {
 		this.orderService = orderService;
 		this.conceptService = conceptService;
 		this.conceptTranslator = conceptTranslator;
+		this.exportDao = exportDao;
+	}
+	
+	@Override
+	public String getResourceType() {
+		return "ServiceRequest";
+	}
+	
+	@Override
+	public List<IBaseResource> export(String startDate, String endDate) {
+		List<IBaseResource> procedureResources = new ArrayList<>();
+		export(startDate, endDate, procedureResources::addAll);
+		return procedureResources;
+	}
+	
+	@Override
+	public void export(String startDate, String endDate, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		exportOrders(startDate, endDate, patients, false, pageConsumer);
 	}
 	
 	@Override
-    public List<IBaseResource> export(String startDate, String endDate) {
-        List<IBaseResource> procedureResources = new ArrayList<>();
-        OrderType procedureOrderType = orderService.getOrderTypeByName(PROCEDURE_ORDER);
-        if (procedureOrderType == null) {
-            log.error("Order Type " + PROCEDURE_ORDER + " is not available");
-            return procedureResources;
-        }
-        OrderSearchCriteria orderSearchCriteria = getOrderSearchCriteria(procedureOrderType, startDate, endDate);
-        List<Order> orders = orderService.getOrders(orderSearchCriteria);
-        orders.stream().map(this::convertToFhirResource).forEach(procedureResources :: add);
-        return procedureResources;
-    }
+	public void exportChanges(String changedSince, String endDate, List<Patient> patients,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		exportOrders(changedSince, endDate, patients, true, pageConsumer);
+	}
+	
+	/**
+	 * Orders are selected by the date they were activated, or by the date they were created when only the
+	 * changes of an incremental export are exported. As with the order search of core, the end date includes
+	 * the whole day.
+	 */
+	private void exportOrders(String startDate, String endDate, List<Patient> patients, boolean createdOnly,
+	        Consumer<List<IBaseResource>> pageConsumer) {
+		OrderType procedureOrderType = orderService.getOrderTypeByName(PROCEDURE_ORDER);
+		if (procedureOrderType == null) {
+			log.error("Order Type " + PROCEDURE_ORDER + " is not available");
+			return;
+		}
+		Date from = getDate(startDate);
+		Date to = endDate == null ? null : OpenmrsUtil.getLastMomentOfDay(getDate(endDate));
+		Concept surgicalProcedureConcept = conceptService.getConceptByName(SURGICAL_PROCEDURE);
+		CodeableConcept serviceRequestCategory = conceptTranslator.toFhirResource(surgicalProcedureConcept);
+		Map<Concept, CodeableConcept> procedureCodes = new HashMap<>();
+		exportInPages(afterOrderId -> createdOnly
+		        ? exportDao.getCreatedOrders(procedureOrderType, patients, from, to, afterOrderId, PAGE_SIZE)
+		        : exportDao.getOrders(procedureOrderType, patients, from, to, afterOrderId, PAGE_SIZE),
+		    Order::getOrderId,
+		    order -> convertToFhirResource(order, serviceRequestCategory, procedureCodes), pageConsumer,
+		    exportDao::clearSession);
+	}
 	
-	private ServiceRequest convertToFhirResource(Order order) {
+	/**
+	 * The category is the same for every order and is translated once per export. Procedure concepts are
+	 * translated the first time they are seen and reused from procedureCodes afterwards.
+	 */
+	private ServiceRequest convertToFhirResource(Order order, CodeableConcept serviceRequestCategory,
+	        Map<Concept, CodeableConcept> procedureCodes) {
 		ServiceRequest serviceRequest = new ServiceRequest();
 		
-		CodeableConcept codeableConcept = conceptTranslator.toFhirResource(order.getConcept());
+		CodeableConcept codeableConcept = procedureCodes.computeIfAbsent(order.getConcept(),
+		    conceptTranslator::toFhirResource);
 		
 		serviceRequest.setId(order.getUuid());
 		serviceRequest.setStatus(ServiceRequest.ServiceRequestStatus.ACTIVE);
 		serviceRequest.setCode(codeableConcept);
 		serviceRequest.setSubject(getSubjectReference(order.getPatient().getUuid()));
 		serviceRequest.setEncounter(getEncounterReference(order.getEncounter().getUuid()));
-		
-		Concept surgicalProcedureConcept = conceptService.getConceptByName(SURGICAL_PROCEDURE);
-		CodeableConcept serviceRequestCategory = conceptTranslator.toFhirResource(surgicalProcedureConcept);
 		serviceRequest.setCategory(Collections.singletonList(serviceRequestCategory));
 		return serviceRequest;
 	}
 	
-	private OrderSearchCriteria getOrderSearchCriteria(OrderType procedureOrderType, String startDate, String endDate) {
-		OrderSearchCriteriaBuilder orderSearchCriteriaBuilder = new OrderSearchCriteriaBuilder();
-		orderSearchCriteriaBuilder.setOrderTypes(Collections.singletonList(procedureOrderType));
-		orderSearchCriteriaBuilder.setIncludeVoided(false);
+	private Date getDate(String date) {
 		try {
-			if (startDate != null) {
-				orderSearchCriteriaBuilder.setActivatedOnOrAfterDate(DateUtils.parseDate(startDate, DATE_FORMAT));
-			}
-			if (endDate != null) {
-				orderSearchCriteriaBuilder.setActivatedOnOrBeforeDate(DateUtils.parseDate(endDate, DATE_FORMAT));
-			}
+			return getFormattedDate(date);
 		}
 		catch (ParseException e) {
 			log.error("Exception while parsing the date ", e);
 			throw new RuntimeException("Exception while parsing the date");
 		}
-		
-		return orderSearchCriteriaBuilder.build();
 	}
 }
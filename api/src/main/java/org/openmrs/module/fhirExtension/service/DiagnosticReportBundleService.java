@@ -0,0 +1,18 @@
+package org.openmrs.module.fhirExtension.service;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+public interface DiagnosticReportBundleService {
+	
+	/**
+	 * Saves every DiagnosticReport of a batch or transaction Bundle. A transaction Bundle is saved in a single
+	 * database transaction once all of its reports are valid; it is rejected as a whole when an entry is
+	 * invalid, and an error while saving rolls back the whole Bundle. Every entry of a batch Bundle is saved
+	 * in a transaction of its own, so an entry which is invalid or fails to save is reported in its entry
+	 * response without affecting the other entries.
+	 *
+	 * @param bundle batch or transaction Bundle of DiagnosticReport entries
+	 * @return batch-response or transaction-response Bundle with one entry per request entry, in order
+	 */
+	Bundle createAll(Bundle bundle);
+}
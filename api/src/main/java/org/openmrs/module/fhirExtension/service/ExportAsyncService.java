@@ -1,21 +1,53 @@
 package org.openmrs.module.fhirExtension.service;
 
 import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openmrs.Concept;
+import org.openmrs.Patient;
+import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.UserContext;
 import org.openmrs.module.fhir2.api.dao.FhirTaskDao;
 import org.openmrs.module.fhir2.model.FhirTask;
 import org.openmrs.module.fhir2.model.FhirTaskOutput;
+import org.openmrs.module.fhirExtension.dao.ExportHighWaterMarkDao;
+import org.openmrs.module.fhirExtension.export.BulkDataOutput;
+import org.openmrs.module.fhirExtension.export.ExportMetrics;
+import org.openmrs.module.fhirExtension.export.ExportProgress;
 import org.openmrs.module.fhirExtension.export.Exporter;
+import org.openmrs.module.fhirExtension.export.NdjsonWriter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ClassUtils;
 
+import java.text.SimpleDateFormat;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @Log4j2
 @Component
@@ -24,50 +56,439 @@ public class ExportAsyncService {
 	
 	public static final String DOWNLOAD_URL = "Download URL";
 	
+	public static final String EXPORT_METRICS = "Export Metrics";
+	
+	public static final String METRICS_PATH = "/metrics/";
+	
+	public static final String EXPORT_PROGRESS = "Export Progress";
+	
+	public static final String GP_EXPORT_WORKER_THREADS = "fhir.export.worker.threads";
+	
+	public static final String GP_EXPORT_PROGRESS_INTERVAL = "fhir.export.progress.intervalSeconds";
+	
+	private static final int DEFAULT_EXPORT_WORKER_THREADS = 1;
+	
+	private static final int DEFAULT_EXPORT_PROGRESS_INTERVAL = 30;
+	
+	private static final int WORKER_TERMINATION_TIMEOUT_SECONDS = 60;
+	
 	private FhirTaskDao fhirTaskDao;
 	
 	private ConceptService conceptService;
 	
 	private FileExportService fileExportService;
 	
+	private AdministrationService adminService;
+	
+	private ExportHighWaterMarkDao exportHighWaterMarkDao;
+	
+	private ExportTask exportTask;
+	
+	private ExportMetricsService exportMetricsService;
+	
 	@Autowired
-	public ExportAsyncService(FhirTaskDao fhirTaskDao, ConceptService conceptService, FileExportService fileExportService) {
+	public ExportAsyncService(FhirTaskDao fhirTaskDao, ConceptService conceptService, FileExportService fileExportService,
+	    @Qualifier("adminService") AdministrationService adminService, ExportHighWaterMarkDao exportHighWaterMarkDao,
+	    ExportTask exportTask, ExportMetricsService exportMetricsService) {
 		this.fhirTaskDao = fhirTaskDao;
 		this.conceptService = conceptService;
 		this.fileExportService = fileExportService;
+		this.adminService = adminService;
+		this.exportHighWaterMarkDao = exportHighWaterMarkDao;
+		this.exportTask = exportTask;
+		this.exportMetricsService = exportMetricsService;
 	}
 	
+	/**
+	 * Runs all exporters and records the export files as outputs of the task. An incremental export only
+	 * exports what was created or changed since the cut-off of the last successful incremental export of each
+	 * exporter, falling back to the given start date, and moves the cut-off to the time this export started
+	 * once it completed. A scoped export only exports the resources of the given patients or of the members
+	 * of the given cohort. When resource types are given, only the exporters producing these types are run.
+	 * The timings and sizes of the export are kept by {@link ExportMetricsService} and linked from the task
+	 * outputs. While the exporters run, the task is in progress and its outputs show the
+	 * progress made, saved at most once per configured interval.
+	 * A rejected task keeps no progress outputs.
+	 */
 	@Async("export-fhir-data-threadPoolTaskExecutor")
-	public void export(FhirTask fhirTask, String startDate, String endDate, UserContext userContext, String downloadUrl) {
+	public void export(FhirTask fhirTask, String startDate, String endDate, boolean incremental,
+	        List<String> patientUuids, String cohortUuid, List<String> resourceTypes, UserContext userContext,
+	        String downloadUrl, String requestUrl) {
 		FhirTask.TaskStatus taskStatus = null;
+		ExportProgress exportProgress = null;
+		ExportMetrics exportMetrics = exportMetricsService.start(fhirTask.getUuid());
+		exportMetrics.setQueueWaitMillis(getQueueWaitMillis(fhirTask, exportMetrics.getStartDate()));
 		
 		try {
 			Context.openSession();
 			Context.setUserContext(userContext);
 			
-			List<Exporter> fhirExporters = Context.getRegisteredComponents(Exporter.class);
-			fileExportService.createDirectory(fhirTask.getUuid());
-			for (Exporter fhirExporter : fhirExporters) {
-				List<IBaseResource> fhirResources = fhirExporter.export(startDate, endDate);
-				fileExportService.createAndWriteToFile(fhirResources, fhirTask.getUuid());
+			Date transactionTime = new Date();
+			List<Patient> patients = exportTask.getScopedPatients(patientUuids, cohortUuid);
+			List<Exporter> fhirExporters = getExporters(patients, resourceTypes);
+			Map<Exporter, String> highWaterMarks = getHighWaterMarks(fhirExporters, incremental);
+			int workerThreads = getWorkerThreads(fhirExporters.size());
+			exportProgress = new ExportProgress(fhirExporters.size(), getProgressIntervalMillis(),
+			        progress -> saveProgress(fhirTask, progress));
+			exportProgress.report();
+			String directory = fhirTask.getUuid();
+			Set<FhirTaskOutput> fhirTaskOutputs = new LinkedHashSet<>();
+			if (fileExportService.isBulkDataEnabled()) {
+				BulkDataOutput bulkDataOutput = new BulkDataOutput();
+				fileExportService.createDirectory(directory);
+				runExporters(fhirExporters, workerThreads, startDate, highWaterMarks, endDate, patients, userContext,
+				    exportMetrics, exportProgress,
+				    partName -> fileExportService.createBulkDataNdjsonWriter(directory, bulkDataOutput));
+				fileExportService.writeBulkDataManifest(directory, bulkDataOutput, transactionTime, requestUrl, downloadUrl);
+				fhirTaskOutputs.addAll(getBulkDataTaskOutputs(fhirTask, bulkDataOutput, downloadUrl));
+			} else if (workerThreads == 1 && fileExportService.isZipStreamingEnabled()) {
+				runExporters(fhirExporters, workerThreads, startDate, highWaterMarks, endDate, patients, userContext,
+				    exportMetrics, exportProgress, partName -> fileExportService.createZipNdjsonWriter(directory));
+				fhirTaskOutputs.add(getFhirTaskOutput(fhirTask, downloadUrl));
+			} else {
+				fileExportService.createDirectory(directory);
+				runExporters(fhirExporters, workerThreads, startDate, highWaterMarks, endDate, patients, userContext,
+				    exportMetrics, exportProgress,
+				    partName -> fileExportService.createNdjsonWriter(directory, partName));
+				long zipStarted = System.nanoTime();
+				fileExportService.createZipWithExportedNdjsonFiles(directory);
+				exportMetrics.setZipMillis(getMillisSince(zipStarted));
+				fileExportService.deleteDirectory(directory);
+				fhirTaskOutputs.add(getFhirTaskOutput(fhirTask, downloadUrl));
+			}
+			addMetricsTaskOutput(fhirTaskOutputs, fhirTask, requestUrl);
+			fhirTask.setOutput(fhirTaskOutputs);
+			if (incremental) {
+				saveHighWaterMarks(fhirExporters, transactionTime);
 			}
-			
-			fileExportService.createZipWithExportedNdjsonFiles(fhirTask.getUuid());
-			FhirTaskOutput fhirTaskOutput = getFhirTaskOutput(fhirTask, downloadUrl);
-			fhirTask.setOutput(Collections.singleton(fhirTaskOutput));
-			fileExportService.deleteDirectory(fhirTask.getUuid());
 		}
 		catch (Exception exception) {
 			taskStatus = FhirTask.TaskStatus.REJECTED;
 			log.error("Exception occurred while exporting data in FHIR format ", exception);
 		}
 		finally {
+			if (exportProgress != null) {
+				exportProgress.stop();
+			}
 			if (taskStatus == null) {
 				taskStatus = FhirTask.TaskStatus.COMPLETED;
+			} else {
+				fhirTask.setOutput(new LinkedHashSet<>());
 			}
 			fhirTask.setStatus(taskStatus);
 			fhirTaskDao.createOrUpdate(fhirTask);
+			exportMetrics.setTotalMillis(System.currentTimeMillis() - exportMetrics.getStartDate().getTime());
+			exportMetricsService.logSummary(exportMetrics);
+		}
+	}
+	
+	/**
+	 * Runs the exporters one after another through a single writer, or concurrently when more than one
+	 * worker thread is configured. A writer is only committed once all of its exporters succeeded. The
+	 * writer factory is given a part name when the worker shares its resource type with another worker, or
+	 * null otherwise.
+	 */
+	private void runExporters(List<Exporter> fhirExporters, int workerThreads, String startDate,
+	        Map<Exporter, String> highWaterMarks, String endDate, List<Patient> patients, UserContext userContext,
+	        ExportMetrics exportMetrics, ExportProgress exportProgress, Function<String, NdjsonWriter> writerFactory)
+	        throws InterruptedException, ExecutionException {
+		if (workerThreads > 1) {
+			exportInParallel(fhirExporters, workerThreads, startDate, highWaterMarks, endDate, patients, userContext,
+			    exportMetrics, exportProgress, writerFactory);
+			return;
+		}
+		try (NdjsonWriter ndjsonWriter = writerFactory.apply(null)) {
+			for (Exporter fhirExporter : fhirExporters) {
+				exportAndMeasure(fhirExporter, startDate, highWaterMarks.get(fhirExporter), endDate, patients,
+				    ndjsonWriter, exportMetrics, exportProgress);
+			}
+			ndjsonWriter.commit();
+		}
+	}
+	
+	/**
+	 * Runs every exporter on its own worker. Each worker opens its own OpenMRS session with its own copy of
+	 * the user context and writes through its own writer, so exporters producing the same resource type do
+	 * not share a file. As soon as an exporter failed, the workers still running are interrupted and waited for.
+	 */
+	private void exportInParallel(List<Exporter> fhirExporters, int workerThreads, String startDate,
+	        Map<Exporter, String> highWaterMarks, String endDate, List<Patient> patients, UserContext userContext,
+	        ExportMetrics exportMetrics, ExportProgress exportProgress, Function<String, NdjsonWriter> writerFactory)
+	        throws InterruptedException, ExecutionException {
+		ExecutorService workers = Executors.newFixedThreadPool(workerThreads,
+		    new CustomizableThreadFactory("fhir-export-worker-"));
+		try {
+			Map<Exporter, String> partNames = getPartNames(fhirExporters);
+			CompletionService<Void> results = new ExecutorCompletionService<>(workers);
+			for (Exporter fhirExporter : fhirExporters) {
+				String partName = partNames.get(fhirExporter);
+				String highWaterMark = highWaterMarks.get(fhirExporter);
+				UserContext workerUserContext = SerializationUtils.clone(userContext);
+				results.submit(() -> exportInNewSession(fhirExporter, startDate, highWaterMark, endDate, patients,
+				    workerUserContext, exportMetrics, exportProgress, () -> writerFactory.apply(partName)), null);
+			}
+			for (int finished = 0; finished < fhirExporters.size(); finished++) {
+				results.take().get();
+			}
+		}
+		finally {
+			workers.shutdownNow();
+			awaitWorkers(workers);
+		}
+	}
+	
+	/**
+	 * An interrupted worker stops at its next page, so that none of them is still querying or writing when
+	 * the task is saved.
+	 */
+	private void awaitWorkers(ExecutorService workers) throws InterruptedException {
+		if (!workers.awaitTermination(WORKER_TERMINATION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			log.error("Export workers did not stop within " + WORKER_TERMINATION_TIMEOUT_SECONDS + " seconds");
+		}
+	}
+	
+	/**
+	 * Only exporters producing the same resource type would write to the same file, so only these are
+	 * numbered. Every other file keeps the name it has when the exporters run sequentially.
+	 */
+	private Map<Exporter, String> getPartNames(List<Exporter> fhirExporters) {
+		Map<String, Integer> exportersByType = new HashMap<>();
+		for (Exporter fhirExporter : fhirExporters) {
+			exportersByType.merge(fhirExporter.getResourceType(), 1, Integer::sum);
+		}
+		Map<String, Integer> partsByType = new HashMap<>();
+		Map<Exporter, String> partNames = new HashMap<>();
+		for (Exporter fhirExporter : fhirExporters) {
+			String resourceType = fhirExporter.getResourceType();
+			if (exportersByType.get(resourceType) > 1) {
+				partNames.put(fhirExporter, String.valueOf(partsByType.merge(resourceType, 1, Integer::sum)));
+			}
+		}
+		return partNames;
+	}
+	
+	private void exportInNewSession(Exporter fhirExporter, String startDate, String highWaterMark, String endDate,
+	        List<Patient> patients, UserContext userContext, ExportMetrics exportMetrics, ExportProgress exportProgress,
+	        Supplier<NdjsonWriter> writerSupplier) {
+		try {
+			Context.openSession();
+			Context.setUserContext(userContext);
+			try (NdjsonWriter ndjsonWriter = writerSupplier.get()) {
+				exportAndMeasure(fhirExporter, startDate, highWaterMark, endDate, patients, ndjsonWriter,
+				    exportMetrics, exportProgress);
+				ndjsonWriter.commit();
+			}
+		}
+		finally {
+			Context.closeSession();
+		}
+	}
+	
+	/**
+	 * Runs the exporter, timing the writing of every page it produces. The rest of its run is spent querying
+	 * and translating. Counts are taken as the difference on the writer, which may be shared by exporters
+	 * running one after another. The progress is told about every page written. An exporter with a high-water
+	 * mark only exports what changed since. A worker interrupted because another exporter failed stops before
+	 * writing its next page.
+	 */
+	private void exportAndMeasure(Exporter fhirExporter, String startDate, String highWaterMark, String endDate,
+	        List<Patient> patients, NdjsonWriter ndjsonWriter, ExportMetrics exportMetrics,
+	        ExportProgress exportProgress) {
+		String exporterName = getExporterName(fhirExporter);
+		ExportMetrics.ExporterMetrics exporterMetrics = exportMetrics.addExporter(exporterName,
+		    fhirExporter.getResourceType());
+		exportProgress.exporterStarted(exporterName);
+		long resourceCount = ndjsonWriter.getResourceCount();
+		long encodedBytes = ndjsonWriter.getEncodedBytes();
+		long exportStarted = System.nanoTime();
+		Consumer<List<IBaseResource>> pageConsumer = page -> {
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("Export of " + exporterName + " was cancelled");
+			}
+			long writeStarted = System.nanoTime();
+			ndjsonWriter.write(page);
+			exporterMetrics.addWriteTime(System.nanoTime() - writeStarted);
+			exportProgress.resourcesWritten(fhirExporter.getResourceType(), page.size());
+		};
+		if (highWaterMark == null) {
+			fhirExporter.export(startDate, endDate, patients, pageConsumer);
+		} else {
+			fhirExporter.exportChanges(highWaterMark, endDate, patients, pageConsumer);
+		}
+		exporterMetrics.setQueryMillis(Math.max(0, getMillisSince(exportStarted) - exporterMetrics.getWriteMillis()));
+		exporterMetrics.setResourceCount(ndjsonWriter.getResourceCount() - resourceCount);
+		exporterMetrics.setEncodedBytes(ndjsonWriter.getEncodedBytes() - encodedBytes);
+		exportProgress.exporterFinished(exporterName);
+	}
+	
+	/**
+	 * A failure to save the progress does not fail the export, the task is saved again once it is done.
+	 */
+	private void saveProgress(FhirTask fhirTask, ExportProgress exportProgress) {
+		try {
+			exportTask.updateProgress(fhirTask, getProgressTaskOutputs(fhirTask, exportProgress));
+		}
+		catch (Exception exception) {
+			log.warn("Could not save the progress of export " + fhirTask.getUuid(), exception);
+		}
+	}
+	
+	private long getMillisSince(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+	
+	/**
+	 * The task is saved when the export is accepted, so its creation date is when the export was queued.
+	 */
+	private long getQueueWaitMillis(FhirTask fhirTask, Date exportStarted) {
+		if (fhirTask.getDateCreated() == null) {
+			return 0;
+		}
+		return Math.max(0, exportStarted.getTime() - fhirTask.getDateCreated().getTime());
+	}
+	
+	/**
+	 * A scoped export without any patient, e.g. of an empty cohort, runs no exporter at all rather than
+	 * running them without a patient filter.
+	 */
+	private List<Exporter> getExporters(List<Patient> patients, List<String> resourceTypes) {
+		if (patients != null && patients.isEmpty()) {
+			log.info("No patients to export in the requested scope");
+			return Collections.emptyList();
+		}
+		List<Exporter> fhirExporters = Context.getRegisteredComponents(Exporter.class);
+		if (resourceTypes == null || resourceTypes.isEmpty()) {
+			return fhirExporters;
 		}
+		return fhirExporters.stream().filter(fhirExporter -> resourceTypes.contains(fhirExporter.getResourceType()))
+		        .collect(Collectors.toList());
+	}
+	
+	/**
+	 * @return the high-water marks of the exporters that already completed an incremental export, formatted
+	 *         as {@link Exporter#DATE_TIME_FORMAT}. Every other exporter starts from the requested start date.
+	 */
+	private Map<Exporter, String> getHighWaterMarks(List<Exporter> fhirExporters, boolean incremental) {
+		Map<Exporter, String> highWaterMarks = new HashMap<>();
+		if (!incremental) {
+			return highWaterMarks;
+		}
+		for (Exporter fhirExporter : fhirExporters) {
+			Date highWaterMark = exportHighWaterMarkDao.getHighWaterMark(getExporterName(fhirExporter),
+			    fhirExporter.getResourceType());
+			if (highWaterMark != null) {
+				highWaterMarks.put(fhirExporter, new SimpleDateFormat(Exporter.DATE_TIME_FORMAT).format(highWaterMark));
+			}
+		}
+		return highWaterMarks;
+	}
+	
+	private void saveHighWaterMarks(List<Exporter> fhirExporters, Date highWaterMark) {
+		for (Exporter fhirExporter : fhirExporters) {
+			exportHighWaterMarkDao.saveHighWaterMark(getExporterName(fhirExporter), fhirExporter.getResourceType(),
+			    highWaterMark);
+		}
+	}
+	
+	private String getExporterName(Exporter fhirExporter) {
+		return ClassUtils.getUserClass(fhirExporter).getSimpleName();
+	}
+	
+	private long getProgressIntervalMillis() {
+		String progressInterval = adminService.getGlobalProperty(GP_EXPORT_PROGRESS_INTERVAL);
+		int intervalSeconds = NumberUtils.toInt(progressInterval, DEFAULT_EXPORT_PROGRESS_INTERVAL);
+		return TimeUnit.SECONDS.toMillis(Math.max(0, intervalSeconds));
+	}
+	
+	private int getWorkerThreads(int exporterCount) {
+		String workerThreads = adminService.getGlobalProperty(GP_EXPORT_WORKER_THREADS);
+		int configuredThreads = NumberUtils.toInt(workerThreads, DEFAULT_EXPORT_WORKER_THREADS);
+		return Math.max(1, Math.min(configuredThreads, exporterCount));
+	}
+	
+	private Set<FhirTaskOutput> getBulkDataTaskOutputs(FhirTask fhirTask, BulkDataOutput bulkDataOutput,
+	        String downloadUrl) {
+		Concept downloadUrlConcept = conceptService.getConceptByName(DOWNLOAD_URL);
+		Set<FhirTaskOutput> fhirTaskOutputs = new LinkedHashSet<>();
+		fhirTaskOutputs.add(getBulkDataTaskOutput(fhirTask, FileExportService.BULK_DATA_MANIFEST, downloadUrl,
+		    downloadUrlConcept));
+		for (BulkDataOutput.OutputFile outputFile : bulkDataOutput.getFiles()) {
+			fhirTaskOutputs.add(getBulkDataTaskOutput(fhirTask, outputFile.getFileName(), downloadUrl, downloadUrlConcept));
+		}
+		return fhirTaskOutputs;
+	}
+	
+	private FhirTaskOutput getBulkDataTaskOutput(FhirTask fhirTask, String fileName, String downloadUrl,
+	        Concept downloadUrlConcept) {
+		FhirTaskOutput fhirTaskOutput = new FhirTaskOutput();
+		fhirTaskOutput.setName(fileName);
+		fhirTaskOutput.setTask(fhirTask);
+		fhirTaskOutput.setValueText(FileExportService.getOutputUrl(downloadUrl, fhirTask.getUuid(), fileName));
+		fhirTaskOutput.setType(downloadUrlConcept);
+		return fhirTaskOutput;
+	}
+	
+	/**
+	 * Progress outputs are typed with the concept "Export Progress" that the module ships, none are saved
+	 * when the concept was removed.
+	 */
+	private Set<FhirTaskOutput> getProgressTaskOutputs(FhirTask fhirTask, ExportProgress exportProgress) {
+		Set<FhirTaskOutput> fhirTaskOutputs = new LinkedHashSet<>();
+		Map<String, Long> resourcesWrittenByType = exportProgress.getResourcesWritten();
+		List<String> currentExporters = exportProgress.getCurrentExporters();
+		if (resourcesWrittenByType.isEmpty() && currentExporters.isEmpty()) {
+			return fhirTaskOutputs;
+		}
+		Concept progressConcept = conceptService.getConceptByName(EXPORT_PROGRESS);
+		if (progressConcept == null) {
+			log.warn("Concept " + EXPORT_PROGRESS + " not found, the progress of export " + fhirTask.getUuid()
+			        + " is not saved");
+			return fhirTaskOutputs;
+		}
+		for (Map.Entry<String, Long> resourcesWritten : resourcesWrittenByType.entrySet()) {
+			String resourceType = resourcesWritten.getKey();
+			fhirTaskOutputs.add(getProgressTaskOutput(fhirTask, "Resources Written " + resourceType, resourceType + ": "
+			        + resourcesWritten.getValue() + " resources written", progressConcept));
+		}
+		if (!currentExporters.isEmpty()) {
+			fhirTaskOutputs.add(getProgressTaskOutput(fhirTask, "Current Exporter",
+			    "Current exporter: " + String.join(", ", currentExporters), progressConcept));
+		}
+		Long estimatedRemainingMillis = exportProgress.getEstimatedRemainingMillis();
+		if (estimatedRemainingMillis != null) {
+			fhirTaskOutputs.add(getProgressTaskOutput(fhirTask, "Estimated Remaining Time", "Estimated remaining time: "
+			        + DurationFormatUtils.formatDuration(estimatedRemainingMillis, "HH:mm:ss"), progressConcept));
+		}
+		return fhirTaskOutputs;
+	}
+	
+	private FhirTaskOutput getProgressTaskOutput(FhirTask fhirTask, String name, String valueText,
+	        Concept progressConcept) {
+		FhirTaskOutput fhirTaskOutput = new FhirTaskOutput();
+		fhirTaskOutput.setName(name);
+		fhirTaskOutput.setTask(fhirTask);
+		fhirTaskOutput.setValueText(valueText);
+		fhirTaskOutput.setType(progressConcept);
+		return fhirTaskOutput;
+	}
+	
+	/**
+	 * The metrics link is typed with the concept "Export Metrics" that the module ships, so that it is not
+	 * taken for a download. It is left out when the concept was removed.
+	 */
+	private void addMetricsTaskOutput(Set<FhirTaskOutput> fhirTaskOutputs, FhirTask fhirTask, String requestUrl) {
+		Concept metricsConcept = conceptService.getConceptByName(EXPORT_METRICS);
+		if (metricsConcept == null) {
+			log.warn("Concept " + EXPORT_METRICS + " not found, the metrics of export " + fhirTask.getUuid()
+			        + " are not linked from its outputs");
+			return;
+		}
+		FhirTaskOutput fhirTaskOutput = new FhirTaskOutput();
+		fhirTaskOutput.setName(EXPORT_METRICS);
+		fhirTaskOutput.setTask(fhirTask);
+		fhirTaskOutput.setValueText(StringUtils.substringBefore(requestUrl, "?") + METRICS_PATH + fhirTask.getUuid());
+		fhirTaskOutput.setType(metricsConcept);
+		fhirTaskOutputs.add(fhirTaskOutput);
 	}
 	
 	private FhirTaskOutput getFhirTaskOutput(FhirTask fhirTask, String downloadUrl) {
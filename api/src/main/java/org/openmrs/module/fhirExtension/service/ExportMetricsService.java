@@ -0,0 +1,64 @@
+package org.openmrs.module.fhirExtension.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.openmrs.module.fhirExtension.export.ExportMetrics;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the metrics of the most recent exports in memory, so that they can be looked up while an export
+ * runs and after it completed. Metrics are lost on restart.
+ */
+@Log4j2
+@Component
+public class ExportMetricsService {
+	
+	static final int MAX_EXPORTS = 50;
+	
+	private final Map<String, ExportMetrics> exports = new LinkedHashMap<String, ExportMetrics>() {
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ExportMetrics> eldest) {
+			return size() > MAX_EXPORTS;
+		}
+	};
+	
+	public synchronized ExportMetrics start(String taskUuid) {
+		ExportMetrics exportMetrics = new ExportMetrics(taskUuid);
+		exports.put(taskUuid, exportMetrics);
+		return exportMetrics;
+	}
+	
+	public synchronized ExportMetrics getMetrics(String taskUuid) {
+		return exports.get(taskUuid);
+	}
+	
+	/**
+	 * @return the metrics of the most recent exports, latest first
+	 */
+	public synchronized List<ExportMetrics> getRecentMetrics() {
+		List<ExportMetrics> recentMetrics = new ArrayList<>(exports.values());
+		Collections.reverse(recentMetrics);
+		return recentMetrics;
+	}
+	
+	public void logSummary(ExportMetrics exportMetrics) {
+		StringBuilder summary = new StringBuilder("Export ").append(exportMetrics.getTaskUuid()).append(" took ")
+		        .append(exportMetrics.getTotalMillis()).append(" ms after waiting ")
+		        .append(exportMetrics.getQueueWaitMillis()).append(" ms in queue, zip ")
+		        .append(exportMetrics.getZipMillis()).append(" ms");
+		for (ExportMetrics.ExporterMetrics exporterMetrics : exportMetrics.getExporters()) {
+			summary.append("; ").append(exporterMetrics.getExporter()).append(": ")
+			        .append(exporterMetrics.getResourceCount()).append(" resources, ")
+			        .append(exporterMetrics.getEncodedBytes()).append(" bytes, query ")
+			        .append(exporterMetrics.getQueryMillis()).append(" ms, write ")
+			        .append(exporterMetrics.getWriteMillis()).append(" ms");
+		}
+		log.info(summary.toString());
+	}
+}
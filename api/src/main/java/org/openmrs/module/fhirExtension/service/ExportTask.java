@@ -1,7 +1,12 @@
 package org.openmrs.module.fhirExtension.service;
 
+import org.openmrs.Patient;
 import org.openmrs.annotation.Authorized;
 import org.openmrs.module.fhir2.model.FhirTask;
+import org.openmrs.module.fhir2.model.FhirTaskOutput;
+
+import java.util.List;
+import java.util.Set;
 
 public interface ExportTask {
 	
@@ -10,4 +15,22 @@ public interface ExportTask {
 	
 	@Authorized(value = { "Export Patient Data" })
 	String validateParams(String startDate, String endDate);
+	
+	@Authorized(value = { "Export Patient Data" })
+	String validateParams(String startDate, String endDate, boolean incremental);
+	
+	@Authorized(value = { "Export Patient Data" })
+	String validateScope(List<String> patientUuids, String cohortUuid, boolean incremental);
+	
+	@Authorized(value = { "Export Patient Data" })
+	String validateResourceTypes(List<String> resourceTypes);
+	
+	@Authorized(value = { "Export Patient Data" })
+	List<Patient> getScopedPatients(List<String> patientUuids, String cohortUuid);
+	
+	@Authorized(value = { "Export Patient Data" })
+	void rejectTask(FhirTask fhirTask);
+	
+	@Authorized(value = { "Export Patient Data" })
+	void updateProgress(FhirTask fhirTask, Set<FhirTaskOutput> progressOutputs);
 }
@@ -3,10 +3,14 @@ package org.openmrs.module.fhirExtension.service;
 import org.openmrs.annotation.Authorized;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 public interface FileDownloadService {
 	
 	@Authorized(value = { "Export Patient Data" })
-	public byte[] getFile(String filename) throws IOException;
+	public Path getFile(String filename) throws IOException;
+	
+	@Authorized(value = { "Export Patient Data" })
+	public Path getExportOutput(String directory, String outputName) throws IOException;
 	
 }
@@ -1,14 +1,20 @@
 package org.openmrs.module.fhirExtension.service;
 
 import ca.uhn.fhir.parser.IParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.export.BulkDataNdjsonWriter;
+import org.openmrs.module.fhirExtension.export.BulkDataOutput;
+import org.openmrs.module.fhirExtension.export.NdjsonWriter;
+import org.openmrs.module.fhirExtension.export.ZipNdjsonWriter;
 import org.openmrs.api.APIException;
-import org.openmrs.api.AdministrationService;
+import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.io.FileOutputStream;
@@ -20,8 +26,13 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -29,30 +40,119 @@ import java.util.zip.ZipOutputStream;
 @Component
 public class FileExportService {
 	
-	private static final String NDJSON_EXTENSION = ".ndjson";
-	
 	public static final String EXTENSION_ZIP = ".zip";
 	
 	public static final String FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP = "fhir.export.files.directory";
 	
-	private AdministrationService adminService;
+	public static final String GP_EXPORT_ZIP_STREAMING = "fhir.export.zip.streaming";
+	
+	public static final String GP_EXPORT_ZIP_COMPRESSION_LEVEL = "fhir.export.zip.compressionLevel";
+	
+	public static final String GP_EXPORT_BULK_DATA = "fhir.export.bulkData.enabled";
+	
+	public static final String GP_EXPORT_BULK_DATA_MAX_RESOURCES_PER_FILE = "fhir.export.bulkData.maxResourcesPerFile";
+	
+	public static final String GP_EXPORT_BULK_DATA_MAX_BYTES_PER_FILE = "fhir.export.bulkData.maxBytesPerFile";
+	
+	public static final String BULK_DATA_MANIFEST = "manifest.json";
+	
+	private static final long DEFAULT_MAX_RESOURCES_PER_FILE = 100000;
+	
+	private static final String MANIFEST_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+	
+	private GlobalPropertyCache globalPropertyCache;
 	
-	private IParser parser;
+	private ObjectFactory<IParser> parserFactory;
 	
 	@Autowired
-	public FileExportService(@Qualifier("adminService") AdministrationService adminService, IParser parser) {
-		this.adminService = adminService;
-		this.parser = parser;
+	public FileExportService(GlobalPropertyCache globalPropertyCache, ObjectFactory<IParser> parserFactory) {
+		this.globalPropertyCache = globalPropertyCache;
+		this.parserFactory = parserFactory;
 	}
 	
 	public void createAndWriteToFile(List<IBaseResource> fhirResources, String directory) {
 		if (fhirResources.isEmpty())
 			return;
-		String resourceType = fhirResources.get(0).getClass().getSimpleName();
-		String basePath = getBaseDirectory();
-		Path filePath = Paths.get(basePath, directory, resourceType + NDJSON_EXTENSION);
-		createFile(filePath);
-		writeToFile(fhirResources, filePath);
+		try (NdjsonWriter ndjsonWriter = createNdjsonWriter(directory)) {
+			ndjsonWriter.write(fhirResources);
+			ndjsonWriter.commit();
+		}
+	}
+	
+	/**
+	 * Opens a writer on the export directory. The caller owns the writer and must close it before the
+	 * directory is zipped.
+	 */
+	public NdjsonWriter createNdjsonWriter(String directory) {
+		return createNdjsonWriter(directory, null);
+	}
+	
+	public NdjsonWriter createNdjsonWriter(String directory, String partName) {
+		return new NdjsonWriter(Paths.get(getBaseDirectory(), directory), partName, parserFactory.getObject());
+	}
+	
+	/**
+	 * Opens a writer that compresses NDJSON directly into the export zip, replacing the directory of
+	 * NDJSON files and the separate zipping pass. The zip is complete once the writer is closed.
+	 */
+	public NdjsonWriter createZipNdjsonWriter(String directoryName) {
+		Path zipFilePath = Paths.get(getBaseDirectory(), directoryName + EXTENSION_ZIP);
+		return new ZipNdjsonWriter(zipFilePath, getCompressionLevel(), parserFactory.getObject());
+	}
+	
+	public boolean isZipStreamingEnabled() {
+		return Boolean.parseBoolean(globalPropertyCache.getGlobalProperty(GP_EXPORT_ZIP_STREAMING));
+	}
+	
+	public boolean isBulkDataEnabled() {
+		return Boolean.parseBoolean(globalPropertyCache.getGlobalProperty(GP_EXPORT_BULK_DATA));
+	}
+	
+	/**
+	 * Opens a writer producing Bulk Data style NDJSON files in the export directory, split at the
+	 * configured number of resources or bytes per file.
+	 */
+	public NdjsonWriter createBulkDataNdjsonWriter(String directory, BulkDataOutput bulkDataOutput) {
+		long maxResourcesPerFile = NumberUtils.toLong(
+		    globalPropertyCache.getGlobalProperty(GP_EXPORT_BULK_DATA_MAX_RESOURCES_PER_FILE), DEFAULT_MAX_RESOURCES_PER_FILE);
+		long maxBytesPerFile = NumberUtils.toLong(globalPropertyCache.getGlobalProperty(GP_EXPORT_BULK_DATA_MAX_BYTES_PER_FILE),
+		    0);
+		return new BulkDataNdjsonWriter(Paths.get(getBaseDirectory(), directory), maxResourcesPerFile, maxBytesPerFile,
+		        bulkDataOutput, parserFactory.getObject());
+	}
+	
+	/**
+	 * Writes the Bulk Data export manifest listing every output file with its resource count.
+	 */
+	public void writeBulkDataManifest(String directory, BulkDataOutput bulkDataOutput, Date transactionTime,
+	        String requestUrl, String downloadUrl) {
+		List<Map<String, Object>> outputs = new ArrayList<>();
+		for (BulkDataOutput.OutputFile outputFile : bulkDataOutput.getFiles()) {
+			Map<String, Object> output = new LinkedHashMap<>();
+			output.put("type", outputFile.getType());
+			output.put("url", getOutputUrl(downloadUrl, directory, outputFile.getFileName()));
+			output.put("count", outputFile.getCount());
+			outputs.add(output);
+		}
+		Map<String, Object> manifest = new LinkedHashMap<>();
+		manifest.put("transactionTime", new SimpleDateFormat(MANIFEST_DATE_FORMAT).format(transactionTime));
+		manifest.put("request", requestUrl);
+		manifest.put("requiresAccessToken", true);
+		manifest.put("output", outputs);
+		manifest.put("error", new ArrayList<>());
+		
+		Path manifestPath = Paths.get(getBaseDirectory(), directory, BULK_DATA_MANIFEST);
+		try {
+			new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(manifestPath.toFile(), manifest);
+		}
+		catch (IOException e) {
+			log.error("Error while writing manifest " + manifestPath);
+			throw new RuntimeException(e);
+		}
+	}
+	
+	public static String getOutputUrl(String downloadUrl, String directory, String fileName) {
+		return downloadUrl + "?file=" + directory + "&output=" + fileName;
 	}
 	
 	public void createDirectory(String uuidFolderName) {
@@ -89,18 +189,15 @@ public class FileExportService {
 		createZip(exportedFilesPath, zipFilePath);
 	}
 	
-	private void writeToFile(List<IBaseResource> fhirResources, Path filePath) {
-		List<String> stringList = fhirResources.stream().map(iBaseResource -> parser.encodeResourceToString(iBaseResource)).collect(Collectors.toList());
-		try {
-			FileUtils.writeLines(filePath.toFile(), stringList, true);
-		} catch (IOException e) {
-			log.error("Exception while processing data for " + filePath);
-			throw new RuntimeException(e);
-		}
+	private int getCompressionLevel() {
+		int compressionLevel = NumberUtils.toInt(globalPropertyCache.getGlobalProperty(GP_EXPORT_ZIP_COMPRESSION_LEVEL),
+		    Deflater.DEFAULT_COMPRESSION);
+		boolean isValidLevel = compressionLevel >= Deflater.NO_COMPRESSION && compressionLevel <= Deflater.BEST_COMPRESSION;
+		return isValidLevel ? compressionLevel : Deflater.DEFAULT_COMPRESSION;
 	}
 	
 	private String getBaseDirectory() {
-		String propertyValue = adminService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP);
+		String propertyValue = globalPropertyCache.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP);
 		if (StringUtils.isBlank(propertyValue))
 			throw new APIException();
 		return propertyValue;
@@ -122,6 +219,7 @@ public class FileExportService {
 	private void createZip(Path exportedNdjsonFilesDirectoryPath, Path destinationZipPath) {
 		try {
 			ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(destinationZipPath.toFile()));
+			zos.setLevel(getCompressionLevel());
 			Files.walkFileTree(exportedNdjsonFilesDirectoryPath, new SimpleFileVisitor<Path>() {
 				
 				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
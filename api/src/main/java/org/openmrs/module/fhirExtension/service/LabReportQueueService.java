@@ -0,0 +1,140 @@
+package org.openmrs.module.fhirExtension.service;
+
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhir2.api.FhirDiagnosticReportService;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.dao.LabReportQueueDao;
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@Log4j2
+@Component
+@Transactional
+public class LabReportQueueService {
+	
+	public static final String GP_MAX_ATTEMPTS = "fhir.labReport.queue.maxAttempts";
+	
+	public static final String GP_RETRY_DELAY_SECONDS = "fhir.labReport.queue.retryDelaySeconds";
+	
+	private static final int DEFAULT_MAX_ATTEMPTS = 5;
+	
+	private static final int DEFAULT_RETRY_DELAY_SECONDS = 60;
+	
+	private static final int MAX_ERROR_LENGTH = 1024;
+	
+	private final LabReportQueueDao labReportQueueDao;
+	
+	private final FhirDiagnosticReportService diagnosticReportService;
+	
+	private final GlobalPropertyCache globalPropertyCache;
+	
+	private final ObjectFactory<IParser> parserFactory;
+	
+	@Autowired
+	public LabReportQueueService(LabReportQueueDao labReportQueueDao, FhirDiagnosticReportService diagnosticReportService,
+	    GlobalPropertyCache globalPropertyCache, ObjectFactory<IParser> parserFactory) {
+		this.labReportQueueDao = labReportQueueDao;
+		this.diagnosticReportService = diagnosticReportService;
+		this.globalPropertyCache = globalPropertyCache;
+		this.parserFactory = parserFactory;
+	}
+	
+	/**
+	 * Stores the DiagnosticReport JSON for later processing on behalf of the current user and login
+	 * location.
+	 */
+	public LabReportQueueItem enqueue(String payload) {
+		LabReportQueueItem item = new LabReportQueueItem();
+		item.setUuid(UUID.randomUUID().toString());
+		item.setPayload(payload);
+		item.setStatus(LabReportQueueItem.Status.QUEUED);
+		item.setCreatorId(Context.getAuthenticatedUser().getUserId());
+		item.setLocationId(Context.getUserContext().getLocationId());
+		item.setDateCreated(new Date());
+		labReportQueueDao.save(item);
+		return item;
+	}
+	
+	/**
+	 * @return the queued item, or the dead letter when the item ran out of attempts, or null
+	 */
+	@Transactional(readOnly = true)
+	public LabReportQueueItem getItem(String uuid) {
+		LabReportQueueItem item = labReportQueueDao.getByUuid(uuid);
+		return item != null ? item : labReportQueueDao.getDeadLetterByUuid(uuid);
+	}
+	
+	/**
+	 * @return the item when it was still queued and is now claimed by the caller, otherwise null
+	 */
+	public LabReportQueueItem claim(String uuid) {
+		return labReportQueueDao.claim(uuid, new Date()) ? labReportQueueDao.getByUuid(uuid) : null;
+	}
+	
+	@Transactional(readOnly = true)
+	public List<String> getDueItems(int limit) {
+		return labReportQueueDao.getDueUuids(new Date(), limit);
+	}
+	
+	public int requeueInterruptedItems() {
+		return labReportQueueDao.requeueProcessing(new Date());
+	}
+	
+	/**
+	 * Saves the report through the same pipeline as a synchronous upload. The item is marked completed in the
+	 * same transaction, so a report is never saved without its item being completed.
+	 */
+	public void process(LabReportQueueItem item) {
+		DiagnosticReport diagnosticReport = parserFactory.getObject().parseResource(DiagnosticReport.class,
+		    item.getPayload());
+		DiagnosticReport createdDiagnosticReport = diagnosticReportService.create(diagnosticReport);
+		item.setStatus(LabReportQueueItem.Status.COMPLETED);
+		item.setResult("DiagnosticReport/" + createdDiagnosticReport.getIdElement().getIdPart());
+		item.setLastError(null);
+		labReportQueueDao.update(item);
+	}
+	
+	/**
+	 * Queues the item again after a delay growing with every attempt. Items rejected as invalid, which would
+	 * fail the same way again, and items out of attempts are moved to the dead letter table.
+	 */
+	public void recordFailure(LabReportQueueItem item, Exception exception) {
+		item.setAttempts(item.getAttempts() + 1);
+		item.setLastError(StringUtils.abbreviate(String.valueOf(exception.getMessage()), MAX_ERROR_LENGTH));
+		int maxAttempts = getIntProperty(GP_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS);
+		if (isClientError(exception) || item.getAttempts() >= maxAttempts) {
+			log.error("Lab report " + item.getUuid() + " failed after " + item.getAttempts()
+			        + " attempt(s) and is moved to the dead letter table: " + item.getLastError());
+			labReportQueueDao.moveToDeadLetter(item, new Date());
+			return;
+		}
+		long retryDelay = TimeUnit.SECONDS.toMillis(getIntProperty(GP_RETRY_DELAY_SECONDS, DEFAULT_RETRY_DELAY_SECONDS));
+		item.setStatus(LabReportQueueItem.Status.QUEUED);
+		item.setNextAttemptDate(new Date(System.currentTimeMillis() + retryDelay * item.getAttempts()));
+		labReportQueueDao.update(item);
+	}
+	
+	private boolean isClientError(Exception exception) {
+		return exception instanceof BaseServerResponseException
+		        && ((BaseServerResponseException) exception).getStatusCode() < 500;
+	}
+	
+	private int getIntProperty(String propertyName, int defaultValue) {
+		int value = NumberUtils.toInt(globalPropertyCache.getGlobalProperty(propertyName), defaultValue);
+		return value > 0 ? value : defaultValue;
+	}
+}
@@ -0,0 +1,145 @@
+package org.openmrs.module.fhirExtension.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the lab report queue on a bounded pool of workers. Items are handed to the pool as soon as they are
+ * queued, and a poller picks up the items whose retry is due or which did not fit in the pool's queue.
+ * Workers run as the module's daemon user, switched to the user who uploaded the report so the encounter
+ * gets the same provider and location as a synchronous upload.
+ */
+@Log4j2
+@Component
+public class LabReportQueueWorker {
+	
+	public static final String GP_POLL_SECONDS = "fhir.labReport.queue.pollSeconds";
+	
+	private static final int DEFAULT_POLL_SECONDS = 30;
+	
+	private final LabReportQueueService labReportQueueService;
+	
+	private final ThreadPoolTaskExecutor labReportTaskExecutor;
+	
+	private final GlobalPropertyCache globalPropertyCache;
+	
+	private final Set<String> submittedItems = ConcurrentHashMap.newKeySet();
+	
+	private volatile DaemonToken daemonToken;
+	
+	private ScheduledExecutorService poller;
+	
+	@Autowired
+	public LabReportQueueWorker(LabReportQueueService labReportQueueService,
+	    @Qualifier("lab-report-threadPoolTaskExecutor") ThreadPoolTaskExecutor labReportTaskExecutor,
+	    GlobalPropertyCache globalPropertyCache) {
+		this.labReportQueueService = labReportQueueService;
+		this.labReportTaskExecutor = labReportTaskExecutor;
+		this.globalPropertyCache = globalPropertyCache;
+	}
+	
+	public synchronized void start(DaemonToken daemonToken) {
+		this.daemonToken = daemonToken;
+		Daemon.runInDaemonThreadAndWait(() -> {
+			int requeued = labReportQueueService.requeueInterruptedItems();
+			if (requeued > 0) {
+				log.info("Queued again " + requeued + " lab report(s) interrupted by the last shutdown");
+			}
+		}, daemonToken);
+		int pollSeconds = NumberUtils.toInt(globalPropertyCache.getGlobalProperty(GP_POLL_SECONDS), DEFAULT_POLL_SECONDS);
+		poller = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("fhir-lab-report-poller-"));
+		poller.scheduleWithFixedDelay(this::submitDueItems, 0, pollSeconds > 0 ? pollSeconds : DEFAULT_POLL_SECONDS,
+		    TimeUnit.SECONDS);
+	}
+	
+	public synchronized void stop() {
+		if (poller != null) {
+			poller.shutdownNow();
+			poller = null;
+		}
+		daemonToken = null;
+	}
+	
+	/**
+	 * Hands the item to a worker. When the pool is busy, or the worker is not started yet, the item stays
+	 * queued until the next poll.
+	 */
+	public void submit(String uuid) {
+		DaemonToken token = daemonToken;
+		if (token == null || !submittedItems.add(uuid)) {
+			return;
+		}
+		try {
+			labReportTaskExecutor.execute(() -> {
+				try {
+					Daemon.runInDaemonThreadAndWait(() -> process(uuid), token);
+				}
+				finally {
+					submittedItems.remove(uuid);
+				}
+			});
+		}
+		catch (TaskRejectedException e) {
+			submittedItems.remove(uuid);
+			log.debug("Lab report workers are busy, " + uuid + " is left for the next poll");
+		}
+	}
+	
+	void submitDueItems() {
+		DaemonToken token = daemonToken;
+		if (token == null) {
+			return;
+		}
+		try {
+			int capacity = labReportTaskExecutor.getThreadPoolExecutor().getQueue().remainingCapacity();
+			if (capacity > 0) {
+				Daemon.runInDaemonThreadAndWait(() -> labReportQueueService.getDueItems(capacity).forEach(this::submit),
+				    token);
+			}
+		}
+		catch (Exception e) {
+			log.error("Exception while polling the lab report queue", e);
+		}
+	}
+	
+	void process(String uuid) {
+		LabReportQueueItem item = labReportQueueService.claim(uuid);
+		if (item == null) {
+			return;
+		}
+		try {
+			becomeUploader(item);
+			labReportQueueService.process(item);
+		}
+		catch (Exception e) {
+			log.error("Exception while processing queued lab report " + uuid, e);
+			labReportQueueService.recordFailure(item, e);
+		}
+	}
+	
+	private void becomeUploader(LabReportQueueItem item) {
+		User uploader = item.getCreatorId() == null ? null : Context.getUserService().getUser(item.getCreatorId());
+		if (uploader != null) {
+			Context.becomeUser(uploader.getSystemId());
+		}
+		Context.getUserContext().setLocationId(item.getLocationId());
+	}
+}
@@ -6,10 +6,20 @@ import ca.uhn.fhir.rest.api.server.IBundleProvider;
 import ca.uhn.fhir.rest.param.DateRangeParam;
 import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.param.TokenAndListParam;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import ca.uhn.fhir.rest.server.exceptions.InvalidRequestException;
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
 import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DiagnosticReport;
 import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.OperationOutcome;
 import org.openmrs.CareSetting;
 import org.openmrs.Concept;
 import org.openmrs.Encounter;
@@ -25,7 +35,6 @@ import org.openmrs.Provider;
 import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.VisitType;
-import org.openmrs.api.AdministrationService;
 import org.openmrs.api.APIException;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.ObsService;
@@ -33,6 +42,7 @@ import org.openmrs.api.OrderService;
 import org.openmrs.api.ProviderService;
 import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.FhirDiagnosticReportService;
 import org.openmrs.module.fhir2.api.dao.FhirDao;
@@ -44,16 +54,22 @@ import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
 import org.openmrs.module.fhir2.api.translators.OpenmrsFhirTranslator;
 import org.openmrs.module.fhir2.model.FhirDiagnosticReport;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.LabVisitCache;
+import org.openmrs.module.fhirExtension.MetadataResolver;
+import org.openmrs.module.fhirExtension.dao.LabOrderDao;
 import org.openmrs.module.fhirExtension.domain.observation.LabResult;
 import org.openmrs.module.fhirExtension.translators.ObsBasedDiagnosticReportTranslator;
 import org.openmrs.module.fhirExtension.translators.impl.DiagnosticReportObsLabResultTranslatorImpl;
 import org.openmrs.module.fhirExtension.validators.DiagnosticReportObsValidator;
 import org.openmrs.module.fhirExtension.validators.DiagnosticReportRequestValidator;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.CollectionUtils;
 
 import javax.annotation.Nonnull;
@@ -65,24 +81,28 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 @Primary
 @Component
 @Log4j2
 @Transactional
-public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticReport, FhirDiagnosticReport> implements FhirDiagnosticReportService {
+public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticReport, FhirDiagnosticReport> implements FhirDiagnosticReportService, DiagnosticReportBundleService {
 	
 	static final String SAVE_OBS_MESSAGE = "Created when saving a Fhir Diagnostic Report";
 	
@@ -98,6 +118,14 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 	
 	public static final String DEFAULT_LAB_VISIT_TYPE = "LAB_VISIT";
 	
+	public static final String GP_BATCH_SIZE = "fhir.diagnosticReport.batchSize";
+	
+	static final int DEFAULT_BATCH_SIZE = 50;
+	
+	static final String INVALID_TRANSACTION_BUNDLE = "Transaction Bundle was not saved, as some of its diagnostic reports are invalid";
+	
+	static final String INVALID_BUNDLE_ENTRY = "Only DiagnosticReport entries are supported";
+	
 	@Autowired
 	private FhirDiagnosticReportDao fhirDiagnosticReportDao;
 	
@@ -128,12 +156,26 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 	@Autowired
 	private VisitService visitService;
 	
+	@Autowired
+	private LabVisitCache labVisitCache;
+	
 	@Autowired
 	private ProviderService providerService;
 	
 	@Autowired
-	@Qualifier("adminService")
-	private AdministrationService adminService;
+	private GlobalPropertyCache globalPropertyCache;
+	
+	@Autowired
+	private MetadataResolver metadataResolver;
+	
+	@Autowired
+	private DbSessionFactory sessionFactory;
+	
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	
+	@Autowired
+	private LabOrderDao labOrderDao;
 	
 	@Autowired
 	private ObservationTranslator observationTranslator;
@@ -144,51 +186,221 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 	@Override
 	public DiagnosticReport create(@Nonnull DiagnosticReport diagnosticReport) {
 		try {
-			diagnosticReportRequestValidator.validate(diagnosticReport);
+			LabReport labReport = prepareReport(diagnosticReport);
+			return inBatchedSession(session -> {
+				Order order = getOrder(labReport.diagnosticReport, labReport.fhirDiagnosticReport);
+				Encounter encounter = createNewEncounterForReport(labReport.fhirDiagnosticReport, order,
+						new HashMap<>(), new HashMap<>());
+				DiagnosticReport createdReport = saveReport(labReport, order, encounter);
+				session.flush();
+				return createdReport;
+			});
+		} catch (Exception exception) {
+			log.error("Exception while saving diagnostic report: " + exception.getMessage());
+			throw exception;
+		}
+	}
+	
+	@Override
+	public Bundle createAll(@Nonnull Bundle bundle) {
+		boolean transaction = Bundle.BundleType.TRANSACTION.equals(bundle.getType());
+		Bundle.BundleEntryResponseComponent[] responses = transaction ? createTransactionEntries(bundle.getEntry())
+				: createBatchEntries(bundle.getEntry());
 
-			List<Obs> reportResults = diagnosticReport.getResult().stream().map(reference -> {
-				IBaseResource obsResource = reference.getResource();
-				if ((obsResource != null) && (obsResource instanceof Observation)) {
-					return observationTranslator.toOpenmrsType((Observation) obsResource);
-				} else {
-					return null;
+		Bundle response = new Bundle();
+		response.setType(transaction ? Bundle.BundleType.TRANSACTIONRESPONSE : Bundle.BundleType.BATCHRESPONSE);
+		Arrays.stream(responses).forEach(entryResponse -> response.addEntry().setResponse(entryResponse));
+		return response;
+	}
+	
+	/**
+	 * Saves every entry of a batch Bundle in a transaction of its own, so that an entry failing to save is
+	 * rolled back alone and reported in its entry response while the other entries are kept. A savepoint
+	 * per entry would not do: the Hibernate session can not be used any further once a save failed, and the
+	 * failing OpenMRS service marks the shared transaction as rollback-only.
+	 */
+	private Bundle.BundleEntryResponseComponent[] createBatchEntries(List<Bundle.BundleEntryComponent> entries) {
+		TransactionTemplate entryTransaction = new TransactionTemplate(transactionManager);
+		entryTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		Bundle.BundleEntryResponseComponent[] responses = new Bundle.BundleEntryResponseComponent[entries.size()];
+		for (int i = 0; i < entries.size(); i++) {
+			Bundle.BundleEntryComponent entry = entries.get(i);
+			try {
+				DiagnosticReport createdReport = entryTransaction.execute(status -> create(getDiagnosticReport(entry)));
+				responses[i] = newEntryResponse(createdReport);
+			} catch (RuntimeException exception) {
+				log.error("Diagnostic report at Bundle entry " + i + " was not saved: " + exception.getMessage());
+				responses[i] = newEntryResponse(exception);
+			}
+		}
+		return responses;
+	}
+	
+	/**
+	 * Saves all entries of a transaction Bundle in the current transaction, once all of them are valid. Reports
+	 * for the same patient and visit share one encounter. The open order of a report is looked up only once the
+	 * report before it was flushed, so that two reports of the same test do not complete the same order.
+	 */
+	private Bundle.BundleEntryResponseComponent[] createTransactionEntries(List<Bundle.BundleEntryComponent> entries) {
+		LabReport[] labReports = new LabReport[entries.size()];
+		Bundle.BundleEntryResponseComponent[] responses = new Bundle.BundleEntryResponseComponent[entries.size()];
+		for (int i = 0; i < entries.size(); i++) {
+			try {
+				labReports[i] = prepareReport(getDiagnosticReport(entries.get(i)));
+			} catch (RuntimeException exception) {
+				log.error("Invalid diagnostic report at Bundle entry " + i + ": " + exception.getMessage());
+				responses[i] = newEntryResponse(exception);
+			}
+		}
+		if (Arrays.stream(responses).anyMatch(Objects::nonNull)) {
+			throw new UnprocessableEntityException(INVALID_TRANSACTION_BUNDLE, getTransactionOutcome(responses));
+		}
+
+		try {
+			inBatchedSession(session -> {
+				labVisitCache.lockPatients(Arrays.stream(labReports)
+						.map(labReport -> labReport.fhirDiagnosticReport.getSubject()).collect(Collectors.toList()));
+				Map<Patient, Visit> patientVisits = new HashMap<>();
+				Map<Pair<Patient, Visit>, Encounter> visitEncounters = new HashMap<>();
+				for (int i = 0; i < labReports.length; i++) {
+					LabReport labReport = labReports[i];
+					Order order = getOrder(labReport.diagnosticReport, labReport.fhirDiagnosticReport);
+					Encounter encounter = createNewEncounterForReport(labReport.fhirDiagnosticReport, order,
+							patientVisits, visitEncounters);
+					responses[i] = newEntryResponse(saveReport(labReport, order, encounter));
+					session.flush();
 				}
-			}).filter(Objects::nonNull).collect(Collectors.toList());
-			diagnosticReport.setResult(Collections.emptyList());
+				return null;
+			});
+		} catch (Exception exception) {
+			log.error("Exception while saving diagnostic report Bundle: " + exception.getMessage());
+			throw exception;
+		}
+		return responses;
+	}
+	
+	/**
+	 * Saves reports with the session in manual flush mode and JDBC batching enabled, leaving it to the caller
+	 * to flush once per report. Saving the obs of a report then no longer flushes the session before each
+	 * query run by the obs handlers, and the pending updates are sent in batches. Obs ids are generated by the
+	 * database, so their inserts are still sent one by one.
+	 */
+	private <T> T inBatchedSession(Function<Session, T> work) {
+		Session session = sessionFactory.getHibernateSessionFactory().getCurrentSession();
+		FlushMode sessionFlushMode = session.getHibernateFlushMode();
+		Integer sessionBatchSize = session.getJdbcBatchSize();
+		session.setHibernateFlushMode(FlushMode.MANUAL);
+		session.setJdbcBatchSize(getBatchSize());
+		try {
+			return work.apply(session);
+		} finally {
+			session.setJdbcBatchSize(sessionBatchSize);
+			session.setHibernateFlushMode(sessionFlushMode);
+		}
+	}
+	
+	private int getBatchSize() {
+		int batchSize = NumberUtils.toInt(globalPropertyCache.getGlobalProperty(GP_BATCH_SIZE), DEFAULT_BATCH_SIZE);
+		return batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+	}
+	
+	private LabReport prepareReport(DiagnosticReport diagnosticReport) {
+		diagnosticReportRequestValidator.validate(diagnosticReport);
 
-			FhirDiagnosticReport fhirDiagnosticReport = obsBasedDiagnosticReportTranslator.toOpenmrsType(diagnosticReport);
-			Set<Obs> attachmentObs = fhirDiagnosticReport.getResults();
+		List<Obs> reportResults = diagnosticReport.getResult().stream().map(reference -> {
+			IBaseResource obsResource = reference.getResource();
+			if ((obsResource != null) && (obsResource instanceof Observation)) {
+				return observationTranslator.toOpenmrsType((Observation) obsResource);
+			} else {
+				return null;
+			}
+		}).filter(Objects::nonNull).collect(Collectors.toList());
+		diagnosticReport.setResult(Collections.emptyList());
 
-			Order order = getOrder(diagnosticReport, fhirDiagnosticReport);
-			Encounter encounter = createNewEncounterForReport(fhirDiagnosticReport, order);
+		FhirDiagnosticReport fhirDiagnosticReport = obsBasedDiagnosticReportTranslator.toOpenmrsType(diagnosticReport);
+		Set<Obs> attachmentObs = fhirDiagnosticReport.getResults();
 
-			fhirDiagnosticReport.setEncounter(encounter);
-			if (attachmentObs.isEmpty()) {
-				Obs obs = reportResults.get(0);
-				LabResult labResult = LabResult.builder()
-						.setLabResultValue(obs)
-						.concept(fhirDiagnosticReport.getCode())
-						.obsFactory(newObs(fhirDiagnosticReport.getSubject(), fhirDiagnosticReport.getIssued()))
-						.build();
-				fhirDiagnosticReport.setResults(
-						Stream.of(diagnosticReportObsLabResultTranslator.toOpenmrsType(labResult))
-								.filter(Objects::nonNull)
-								.collect(Collectors.toSet()));
-			}
+		if (attachmentObs.isEmpty()) {
+			Obs obs = reportResults.get(0);
+			LabResult labResult = LabResult.builder()
+					.setLabResultValue(obs)
+					.concept(fhirDiagnosticReport.getCode())
+					.obsFactory(newObs(fhirDiagnosticReport.getSubject(), fhirDiagnosticReport.getIssued()))
+					.build();
+			fhirDiagnosticReport.setResults(
+					Stream.of(diagnosticReportObsLabResultTranslator.toOpenmrsType(labResult))
+							.filter(Objects::nonNull)
+							.collect(Collectors.toSet()));
+		}
 
-			diagnosticReportObsValidator.validate(fhirDiagnosticReport);
+		diagnosticReportObsValidator.validate(fhirDiagnosticReport);
+		return new LabReport(diagnosticReport, fhirDiagnosticReport);
+	}
+	
+	private DiagnosticReport saveReport(LabReport labReport, Order order, Encounter encounter) {
+		FhirDiagnosticReport fhirDiagnosticReport = labReport.fhirDiagnosticReport;
+		fhirDiagnosticReport.setEncounter(encounter);
 
-			Set<Obs> reportObs = saveReportObs(fhirDiagnosticReport, order, encounter);
+		Set<Obs> reportObs = saveReportObs(fhirDiagnosticReport, order, encounter);
 
-			fhirDiagnosticReport.setResults(reportObs);
+		fhirDiagnosticReport.setResults(reportObs);
 
-			FhirDiagnosticReport createdFhirDiagnosticReport = fhirDiagnosticReportDao.createOrUpdate(fhirDiagnosticReport);
-			updateFulFillerStatus(order);
-			return obsBasedDiagnosticReportTranslator.toFhirResource(createdFhirDiagnosticReport);
-		} catch (Exception exception) {
-			log.error("Exception while saving diagnostic report: " + exception.getMessage());
-			throw exception;
+		FhirDiagnosticReport createdFhirDiagnosticReport = fhirDiagnosticReportDao.createOrUpdate(fhirDiagnosticReport);
+		updateFulFillerStatus(order);
+		return obsBasedDiagnosticReportTranslator.toFhirResource(createdFhirDiagnosticReport);
+	}
+	
+	private DiagnosticReport getDiagnosticReport(Bundle.BundleEntryComponent entry) {
+		if (!(entry.getResource() instanceof DiagnosticReport)) {
+			throw new InvalidRequestException(INVALID_BUNDLE_ENTRY, createOperationOutcome(
+					OperationOutcome.IssueType.NOTSUPPORTED, INVALID_BUNDLE_ENTRY));
 		}
+		return (DiagnosticReport) entry.getResource();
+	}
+	
+	private Bundle.BundleEntryResponseComponent newEntryResponse(DiagnosticReport createdDiagnosticReport) {
+		Bundle.BundleEntryResponseComponent response = new Bundle.BundleEntryResponseComponent();
+		response.setStatus("201 Created");
+		response.setLocation("DiagnosticReport/" + createdDiagnosticReport.getIdElement().getIdPart());
+		return response;
+	}
+	
+	/**
+	 * Exceptions which are not FHIR server responses, e.g. from the OpenMRS services, are reported as an
+	 * internal error of the entry.
+	 */
+	private Bundle.BundleEntryResponseComponent newEntryResponse(RuntimeException exception) {
+		BaseServerResponseException responseException = exception instanceof BaseServerResponseException
+				? (BaseServerResponseException) exception : new InternalErrorException(exception.getMessage(), exception);
+		Bundle.BundleEntryResponseComponent response = new Bundle.BundleEntryResponseComponent();
+		response.setStatus(String.valueOf(responseException.getStatusCode()));
+		response.setOutcome(responseException.getOperationOutcome() != null
+				? (OperationOutcome) responseException.getOperationOutcome()
+				: createOperationOutcome(OperationOutcome.IssueType.PROCESSING, responseException.getMessage()));
+		return response;
+	}
+	
+	private OperationOutcome getTransactionOutcome(Bundle.BundleEntryResponseComponent[] responses) {
+		OperationOutcome outcome = new OperationOutcome();
+		for (int i = 0; i < responses.length; i++) {
+			if (responses[i] == null) {
+				continue;
+			}
+			for (OperationOutcome.OperationOutcomeIssueComponent issue : ((OperationOutcome) responses[i].getOutcome())
+					.getIssue()) {
+				outcome.addIssue(issue.copy().addExpression("Bundle.entry[" + i + "]"));
+			}
+		}
+		return outcome;
+	}
+	
+	private OperationOutcome createOperationOutcome(OperationOutcome.IssueType issueType, String diagnostics) {
+		OperationOutcome outcome = new OperationOutcome();
+		OperationOutcome.OperationOutcomeIssueComponent issue = outcome.addIssue();
+		issue.setCode(issueType);
+		issue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
+		issue.setDiagnostics(diagnostics);
+		return outcome;
 	}
 	
 	private BiFunction<Concept, Object, Obs> newObs(Patient subject, Date issued) {
@@ -226,12 +438,18 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 	
 	static final String UNABLE_TO_PROCESS_DIAGNOSTIC_REPORT = "Can not process Diagnostic Report. Please check with your administrator.";
 	
-	private Encounter createNewEncounterForReport(FhirDiagnosticReport fhirDiagnosticReport, Order order) {
+	/**
+	 * Reports for the same patient and visit share one encounter, and the visit of a patient is resolved once
+	 * for all the reports not placed against an order. The visit is resolved through {@link LabVisitCache}, so
+	 * that concurrent uploads for the same patient do not each create a lab visit.
+	 */
+	private Encounter createNewEncounterForReport(FhirDiagnosticReport fhirDiagnosticReport, Order order,
+			Map<Patient, Visit> patientVisits, Map<Pair<Patient, Visit>, Encounter> visitEncounters) {
 		if (fhirDiagnosticReport.getEncounter() != null) {
 			log.info("Diagnostic Report was submitted with an existing encounter reference. This will be overwritten by a new encounter");
 		}
 
-		EncounterType encounterType = encounterService.getEncounterType(LAB_RESULT_ENC_TYPE);
+		EncounterType encounterType = metadataResolver.getEncounterType(LAB_RESULT_ENC_TYPE);
 		if (encounterType == null) {
 			log.error("Encounter type LAB_RESULT must be defined to support Diagnostic Report");
 			throw new RuntimeException(UNABLE_TO_PROCESS_DIAGNOSTIC_REPORT);
@@ -244,25 +462,28 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 		}
 
 		Optional<Visit> reportOrderVisit = Optional.ofNullable(order).map(ord -> ord.getEncounter()).map(enc -> enc.getVisit());
-		Visit applicableVisit = reportOrderVisit.isPresent() ? reportOrderVisit.get() : getActiveVisit(fhirDiagnosticReport).orElseGet(() -> {
-			log.warn("Can not identify an active visit for the patient. Trying to identify a lab visit for today...");
-			return findOrCreateLabVisit(fhirDiagnosticReport, location);
-		});
+		Patient patient = fhirDiagnosticReport.getSubject();
+		Visit applicableVisit = reportOrderVisit.isPresent() ? reportOrderVisit.get() : patientVisits.computeIfAbsent(patient,
+				subject -> labVisitCache.getVisit(subject, () -> getActiveVisit(fhirDiagnosticReport).orElseGet(() -> {
+					log.warn("Can not identify an active visit for the patient. Trying to identify a lab visit for today...");
+					return findOrCreateLabVisit(fhirDiagnosticReport, location);
+				})));
 		if (applicableVisit == null) {
 			log.error("Can not identify or create visit for the patient for lab results upload. Please check with your administrator");
 			throw new RuntimeException(UNABLE_TO_PROCESS_DIAGNOSTIC_REPORT);
 		}
 
-		return encounterService.saveEncounter(newEncounterInstance(fhirDiagnosticReport.getSubject(), encounterType,
-				location, applicableVisit, Context.getAuthenticatedUser()));
+		return visitEncounters.computeIfAbsent(Pair.of(patient, applicableVisit), patientVisit -> encounterService
+				.saveEncounter(newEncounterInstance(patient, encounterType, location, applicableVisit,
+						Context.getAuthenticatedUser())));
 	}
 	
 	private Visit findOrCreateLabVisit(FhirDiagnosticReport report, Location location) {
-		String labEntryVisitType = adminService.getGlobalProperty(LAB_ENTRY_VISIT_TYPE);
+		String labEntryVisitType = globalPropertyCache.getGlobalProperty(LAB_ENTRY_VISIT_TYPE);
 		if (labEntryVisitType == null || "".equals(labEntryVisitType)) {
 			labEntryVisitType = DEFAULT_LAB_VISIT_TYPE;
 		}
-		List<VisitType> labVisitTypes = visitService.getVisitTypes(labEntryVisitType);
+		List<VisitType> labVisitTypes = metadataResolver.getVisitTypes(labEntryVisitType);
 		if (CollectionUtils.isEmpty(labVisitTypes)) {
 			return null;
 		}
@@ -322,7 +543,7 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 	}
 	
 	EncounterRole getEncounterRoleForLabResults() {
-		return Optional.ofNullable(encounterService.getEncounterRoleByName(LAB_RESULTS_ENCOUNTER_ROLE)).orElse(
+		return Optional.ofNullable(metadataResolver.getEncounterRoleByName(LAB_RESULTS_ENCOUNTER_ROLE)).orElseGet(() ->
 		    encounterService.getEncounterRoleByUuid(EncounterRole.UNKNOWN_ENCOUNTER_ROLE_UUID));
 	}
 	
@@ -379,16 +600,10 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 			return orderService.getOrderByUuid(orderUuid);
 		} else {
 			String careSettingTypeName = CareSetting.CareSettingType.OUTPATIENT.toString();
-			CareSetting careSetting = orderService.getCareSettingByName(careSettingTypeName);
-			OrderType orderType = orderService.getOrderTypeByName(ORDER_TYPE_NAME);
-			Patient patient = fhirDiagnosticReport.getSubject();
-			Integer conceptId = fhirDiagnosticReport.getCode().getId();
-			List<Order> allOrders = orderService.getOrders(patient, careSetting, orderType, false);
-			Optional<Order> order = allOrders.stream()
-					.filter(o -> !Order.FulfillerStatus.COMPLETED.equals(o.getFulfillerStatus()))
-					.filter(o -> o.getConcept().getId().equals(conceptId))
-					.findFirst();
-			return order.orElse(null);
+			CareSetting careSetting = metadataResolver.getCareSettingByName(careSettingTypeName);
+			OrderType orderType = metadataResolver.getOrderTypeByName(ORDER_TYPE_NAME);
+			return labOrderDao.getOpenOrder(fhirDiagnosticReport.getSubject(), careSetting, orderType,
+					fhirDiagnosticReport.getCode());
 		}
 	}
 	
@@ -414,4 +629,16 @@ public class ObsBasedDiagnosticReportService extends BaseFhirService<DiagnosticR
 		}
 		return location.hasTag(LOCATION_TAG_SUPPORTS_VISITS) ? location : visitLocationFor(location.getParentLocation());
 	}
+	
+	private static class LabReport {
+		
+		private final DiagnosticReport diagnosticReport;
+		
+		private final FhirDiagnosticReport fhirDiagnosticReport;
+		
+		private LabReport(DiagnosticReport diagnosticReport, FhirDiagnosticReport fhirDiagnosticReport) {
+			this.diagnosticReport = diagnosticReport;
+			this.fhirDiagnosticReport = fhirDiagnosticReport;
+		}
+	}
 }
@@ -2,13 +2,24 @@ package org.openmrs.module.fhirExtension.service.impl;
 
 import lombok.extern.log4j.Log4j2;
 import org.apache.commons.lang3.time.DateUtils;
+import org.openmrs.Cohort;
+import org.openmrs.Patient;
+import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.fhir2.api.dao.FhirTaskDao;
 import org.openmrs.module.fhir2.model.FhirTask;
+import org.openmrs.module.fhir2.model.FhirTaskOutput;
+import org.openmrs.module.fhirExtension.export.Exporter;
 import org.openmrs.module.fhirExtension.service.ExportTask;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
 
 import static org.openmrs.module.fhirExtension.export.Exporter.DATE_FORMAT;
 
@@ -36,6 +47,24 @@ public class ExportTaskImpl implements ExportTask {
 		return fhirTask;
 	}
 	
+	@Override
+	public void rejectTask(FhirTask fhirTask) {
+		fhirTask.setStatus(FhirTask.TaskStatus.REJECTED);
+		fhirTaskDao.createOrUpdate(fhirTask);
+	}
+	
+	/**
+	 * Saved in a transaction of its own, committed straight away, so that the progress is visible while the
+	 * export carries on and no lock on the task is held for the length of the export.
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRES_NEW)
+	public void updateProgress(FhirTask fhirTask, Set<FhirTaskOutput> progressOutputs) {
+		fhirTask.setStatus(FhirTask.TaskStatus.IN_PROGRESS);
+		fhirTask.setOutput(progressOutputs);
+		fhirTaskDao.createOrUpdate(fhirTask);
+	}
+	
 	@Override
 	public String validateParams(String startDateStr, String endDateStr) {
 		Date startDate = null;
@@ -56,4 +85,82 @@ public class ExportTaskImpl implements ExportTask {
 		}
 		return validationErrorMessage;
 	}
+	
+	/**
+	 * An incremental export always runs up to now, so that the next one can carry on from where it stopped.
+	 */
+	@Override
+	public String validateParams(String startDateStr, String endDateStr, boolean incremental) {
+		if (incremental && endDateStr != null) {
+			return "End date can not be used with an incremental export";
+		}
+		return validateParams(startDateStr, endDateStr);
+	}
+	
+	/**
+	 * A scoped export is limited to either the given patients or the members of a cohort. It can not be
+	 * incremental, as the high-water marks are kept for system-wide exports only.
+	 */
+	@Override
+	public String validateScope(List<String> patientUuids, String cohortUuid, boolean incremental) {
+		boolean hasPatients = patientUuids != null && !patientUuids.isEmpty();
+		if (!hasPatients && cohortUuid == null) {
+			return null;
+		}
+		if (hasPatients && cohortUuid != null) {
+			return "Patient and cohort can not be used together";
+		}
+		if (incremental) {
+			return "Patient or cohort can not be used with an incremental export";
+		}
+		if (cohortUuid != null) {
+			return Context.getCohortService().getCohortByUuid(cohortUuid) == null ? String.format(
+			    "Cohort [%s] not found", cohortUuid) : null;
+		}
+		PatientService patientService = Context.getPatientService();
+		for (String patientUuid : patientUuids) {
+			if (patientService.getPatientByUuid(patientUuid) == null) {
+				return String.format("Patient [%s] not found", patientUuid);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Only the resource types produced by one of the registered exporters can be requested.
+	 */
+	@Override
+	public String validateResourceTypes(List<String> resourceTypes) {
+		if (resourceTypes == null || resourceTypes.isEmpty()) {
+			return null;
+		}
+		Set<String> supportedResourceTypes = Context.getRegisteredComponents(Exporter.class).stream()
+		        .map(Exporter::getResourceType).collect(Collectors.toCollection(TreeSet::new));
+		for (String resourceType : resourceTypes) {
+			if (!supportedResourceTypes.contains(resourceType)) {
+				return String.format("Resource type [%s] is not supported, supported types are %s", resourceType,
+				    supportedResourceTypes);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the patients an export is limited to, or null for a system-wide export
+	 */
+	@Override
+	public List<Patient> getScopedPatients(List<String> patientUuids, String cohortUuid) {
+		PatientService patientService = Context.getPatientService();
+		if (cohortUuid != null) {
+			Cohort cohort = Context.getCohortService().getCohortByUuid(cohortUuid);
+			return cohort.getActiveMemberships().stream()
+			        .map(cohortMembership -> patientService.getPatient(cohortMembership.getPatientId()))
+			        .filter(Objects::nonNull).collect(Collectors.toList());
+		}
+		if (patientUuids == null || patientUuids.isEmpty()) {
+			return null;
+		}
+		return patientUuids.stream().map(patientService::getPatientByUuid).filter(Objects::nonNull)
+		        .collect(Collectors.toList());
+	}
 }
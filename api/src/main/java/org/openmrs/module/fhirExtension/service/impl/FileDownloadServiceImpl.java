@@ -1,27 +1,57 @@
 package org.openmrs.module.fhirExtension.service.impl;
 
-import org.openmrs.api.AdministrationService;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
 import org.openmrs.module.fhirExtension.service.FileDownloadService;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.regex.Pattern;
 
 public class FileDownloadServiceImpl implements FileDownloadService {
 	
 	public static final String FHIR_EXPORT_FILES_DIRECTORY = "fhir.export.files.directory";
 	
-	private AdministrationService adminService;
+	private static final Pattern EXPORT_NAME = Pattern.compile("[\\w-]+");
 	
-	public FileDownloadServiceImpl(AdministrationService adminService) {
-		this.adminService = adminService;
+	private static final Pattern EXPORT_OUTPUT_NAME = Pattern.compile("[A-Za-z]+\\.\\d+\\.ndjson|manifest\\.json");
+	
+	private GlobalPropertyCache globalPropertyCache;
+	
+	public FileDownloadServiceImpl(GlobalPropertyCache globalPropertyCache) {
+		this.globalPropertyCache = globalPropertyCache;
+	}
+	
+	public Path getFile(String filename) throws IOException {
+		requireMatch(EXPORT_NAME, filename);
+		String fileDirectory = globalPropertyCache.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY);
+		return getRegularFile(Paths.get(fileDirectory, filename + ".zip"));
+	}
+	
+	/**
+	 * Returns one of the files of a Bulk Data export. Only manifest and NDJSON file names are accepted, so
+	 * the request cannot reach outside the export directory.
+	 */
+	public Path getExportOutput(String directory, String outputName) throws IOException {
+		requireMatch(EXPORT_NAME, directory);
+		requireMatch(EXPORT_OUTPUT_NAME, outputName);
+		String fileDirectory = globalPropertyCache.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY);
+		return getRegularFile(Paths.get(fileDirectory, directory, outputName));
+	}
+	
+	private void requireMatch(Pattern pattern, String name) throws NoSuchFileException {
+		if (name == null || !pattern.matcher(name).matches()) {
+			throw new NoSuchFileException(name);
+		}
 	}
 	
-	public byte[] getFile(String filename) throws IOException {
-		String fileDirectory = adminService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY);
-		Path path = Paths.get(fileDirectory, filename + ".zip");
-		return Files.readAllBytes(path);
+	private Path getRegularFile(Path path) throws NoSuchFileException {
+		if (!Files.isRegularFile(path)) {
+			throw new NoSuchFileException(path.toString());
+		}
+		return path;
 	}
 	
 }
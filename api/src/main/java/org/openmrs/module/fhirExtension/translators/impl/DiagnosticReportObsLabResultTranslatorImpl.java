@@ -3,7 +3,7 @@ package org.openmrs.module.fhirExtension.translators.impl;
 import org.apache.commons.collections.CollectionUtils;
 import org.openmrs.Concept;
 import org.openmrs.Obs;
-import org.openmrs.api.ConceptService;
+import org.openmrs.module.fhirExtension.MetadataResolver;
 import org.openmrs.module.fhirExtension.domain.observation.LabResult;
 import org.openmrs.module.fhirExtension.translators.DiagnosticReportObsLabResultTranslator;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,7 +27,7 @@ public class DiagnosticReportObsLabResultTranslatorImpl implements DiagnosticRep
 	public static final String LAB_ABNORMAL = "LAB_ABNORMAL";
 	
 	@Autowired
-	private ConceptService conceptService;
+	private MetadataResolver metadataResolver;
 	
 	@Override
 	public LabResult toFhirResource(@Nonnull Obs obs) {
@@ -65,16 +65,16 @@ public class DiagnosticReportObsLabResultTranslatorImpl implements DiagnosticRep
 	
 	private Set<Obs> createLabResultObs(LabResult labResult) {
         Set<Obs> labResultObs = new HashSet<>();
-        labResult.newValueObs(conceptService.getConceptByName(LAB_REPORT_CONCEPT), labResult.getLabReportUrl())
+        labResult.newValueObs(metadataResolver.getConceptByName(LAB_REPORT_CONCEPT), labResult.getLabReportUrl())
                 .ifPresent(labResultObs::add);
-        labResult.newValueObs(conceptService.getConceptByName(LAB_RESULT_CONCEPT), labResult.getLabReportFileName())
+        labResult.newValueObs(metadataResolver.getConceptByName(LAB_RESULT_CONCEPT), labResult.getLabReportFileName())
                 .ifPresent(labResultObs::add);
-        labResult.newValueObs(conceptService.getConceptByName(LAB_NOTES_CONCEPT), labResult.getLabReportNotes())
+        labResult.newValueObs(metadataResolver.getConceptByName(LAB_NOTES_CONCEPT), labResult.getLabReportNotes())
                 .ifPresent(labResultObs::add);
 		labResult.newValueObs(labResult.getConcept(), labResult.getLabResultValue())
 					.ifPresent(labResultObs::add);
 		if(labResult.getInterpretationOfLabResultValue() != null) {
-			labResult.newValueObs(conceptService.getConceptByName(LAB_ABNORMAL), labResult.getInterpretationOfLabResultValue() == Obs.Interpretation.ABNORMAL)
+			labResult.newValueObs(metadataResolver.getConceptByName(LAB_ABNORMAL), labResult.getInterpretationOfLabResultValue() == Obs.Interpretation.ABNORMAL)
 					.ifPresent(labResultObs::add);
 		}
         return labResultObs;
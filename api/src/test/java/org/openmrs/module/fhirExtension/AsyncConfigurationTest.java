@@ -1,15 +1,36 @@
 package org.openmrs.module.fhirExtension;
 
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.api.AdministrationService;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+import static org.openmrs.module.fhirExtension.AsyncConfiguration.GP_EXPORT_EXECUTOR_CORE_POOL_SIZE;
+import static org.openmrs.module.fhirExtension.AsyncConfiguration.GP_EXPORT_EXECUTOR_KEEP_ALIVE_SECONDS;
+import static org.openmrs.module.fhirExtension.AsyncConfiguration.GP_EXPORT_EXECUTOR_MAX_POOL_SIZE;
+import static org.openmrs.module.fhirExtension.AsyncConfiguration.GP_EXPORT_EXECUTOR_QUEUE_CAPACITY;
 
+@RunWith(MockitoJUnitRunner.class)
 public class AsyncConfigurationTest {
 	
+	@Mock
+	private AdministrationService administrationService;
+	
+	@InjectMocks
+	private AsyncConfiguration configuredAsyncConfiguration;
+	
 	@Test
 	public void testAsyncExecutor() {
 		AsyncConfiguration asyncConfiguration = new AsyncConfiguration();
@@ -18,4 +39,53 @@ public class AsyncConfigurationTest {
 		assertNotNull(taskExecutor);
 		assertTrue(taskExecutor instanceof ThreadPoolTaskExecutor);
 	}
+	
+	@Test
+	public void shouldConfigureExecutorFromGlobalProperties() {
+		when(administrationService.getGlobalProperty(GP_EXPORT_EXECUTOR_CORE_POOL_SIZE)).thenReturn("2");
+		when(administrationService.getGlobalProperty(GP_EXPORT_EXECUTOR_MAX_POOL_SIZE)).thenReturn("4");
+		when(administrationService.getGlobalProperty(GP_EXPORT_EXECUTOR_QUEUE_CAPACITY)).thenReturn("5");
+		when(administrationService.getGlobalProperty(GP_EXPORT_EXECUTOR_KEEP_ALIVE_SECONDS)).thenReturn("30");
+		
+		ExportTaskExecutor taskExecutor = configuredAsyncConfiguration.threadPoolTaskExecutor();
+		taskExecutor.initialize();
+		
+		assertEquals(2, taskExecutor.getCorePoolSize());
+		assertEquals(4, taskExecutor.getMaxPoolSize());
+		assertEquals(30, taskExecutor.getKeepAliveSeconds());
+		assertEquals(5, taskExecutor.getRemainingQueueCapacity());
+		taskExecutor.shutdown();
+	}
+	
+	@Test
+	public void shouldRejectAndCountExport_whenQueueIsFull() {
+		when(administrationService.getGlobalProperty(GP_EXPORT_EXECUTOR_QUEUE_CAPACITY)).thenReturn("1");
+		ExportTaskExecutor taskExecutor = configuredAsyncConfiguration.threadPoolTaskExecutor();
+		taskExecutor.initialize();
+		CountDownLatch release = new CountDownLatch(1);
+		
+		try {
+			taskExecutor.execute(() -> awaitQuietly(release));
+			taskExecutor.execute(() -> awaitQuietly(release));
+			taskExecutor.execute(() -> awaitQuietly(release));
+			fail("Expected the third export to be rejected");
+		}
+		catch (TaskRejectedException e) {
+			assertEquals(1, taskExecutor.getRejectedCount());
+			assertEquals(1, taskExecutor.getQueuedCount());
+		}
+		finally {
+			release.countDown();
+			taskExecutor.shutdown();
+		}
+	}
+	
+	private void awaitQuietly(CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
 }
@@ -0,0 +1,85 @@
+package org.openmrs.module.fhirExtension;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.AdministrationService;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GlobalPropertyCacheTest {
+	
+	private static final String FILES_DIRECTORY = "fhir.export.files.directory";
+	
+	@Mock
+	private AdministrationService administrationService;
+	
+	private GlobalPropertyCache globalPropertyCache;
+	
+	@Before
+	public void setUp() {
+		globalPropertyCache = new GlobalPropertyCache(administrationService);
+	}
+	
+	@Test
+	public void shouldReadGlobalPropertyOnce_whenItIsRequestedRepeatedly() {
+		when(administrationService.getGlobalProperty(FILES_DIRECTORY)).thenReturn("/openmrs/data/fhir-export");
+		
+		assertEquals("/openmrs/data/fhir-export", globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+		assertEquals("/openmrs/data/fhir-export", globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+		
+		verify(administrationService, times(1)).getGlobalProperty(FILES_DIRECTORY);
+	}
+	
+	@Test
+	public void shouldCacheMissingGlobalProperty() {
+		assertNull(globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+		assertNull(globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+		
+		verify(administrationService, times(1)).getGlobalProperty(FILES_DIRECTORY);
+	}
+	
+	@Test
+	public void shouldReadGlobalPropertyAgain_whenItIsChangedOrDeleted() {
+		when(administrationService.getGlobalProperty(FILES_DIRECTORY)).thenReturn("/old", "/new", null);
+		
+		assertFalse(globalPropertyCache.supportsPropertyName(FILES_DIRECTORY));
+		assertEquals("/old", globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+		assertTrue(globalPropertyCache.supportsPropertyName(FILES_DIRECTORY));
+		globalPropertyCache.globalPropertyChanged(new GlobalProperty(FILES_DIRECTORY, "/new"));
+		assertEquals("/new", globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+		globalPropertyCache.globalPropertyDeleted(FILES_DIRECTORY);
+		assertNull(globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+	}
+	
+	@Test
+	public void shouldDropValueReadBeforeCommit_onceTransactionCompleted() {
+		when(administrationService.getGlobalProperty(FILES_DIRECTORY)).thenReturn("/old", "/old", "/new");
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			globalPropertyCache.getGlobalProperty(FILES_DIRECTORY);
+			globalPropertyCache.globalPropertyChanged(new GlobalProperty(FILES_DIRECTORY, "/new"));
+			assertEquals("/old", globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+			TransactionSynchronizationUtils.invokeAfterCompletion(
+			    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_COMMITTED);
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		
+		assertEquals("/new", globalPropertyCache.getGlobalProperty(FILES_DIRECTORY));
+	}
+}
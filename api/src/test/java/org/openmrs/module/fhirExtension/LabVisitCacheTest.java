@@ -0,0 +1,166 @@
+package org.openmrs.module.fhirExtension;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.VisitService;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LabVisitCacheTest {
+	
+	@Mock
+	private VisitService visitService;
+	
+	@InjectMocks
+	private LabVisitCache labVisitCache;
+	
+	private final Patient patient = new Patient(123);
+	
+	private final Visit visit = new Visit(7);
+	
+	@Before
+	public void setUp() {
+		TransactionSynchronizationManager.initSynchronization();
+	}
+	
+	@After
+	public void tearDown() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			completeTransaction(true);
+		}
+	}
+	
+	@Test
+	public void shouldRememberVisit_onceTransactionCommitted() {
+		when(visitService.getVisit(7)).thenReturn(visit);
+		Supplier<Visit> resolver = mockResolver(visit);
+		
+		assertSame(visit, labVisitCache.getVisit(patient, resolver));
+		completeTransaction(true);
+		
+		TransactionSynchronizationManager.initSynchronization();
+		assertSame(visit, labVisitCache.getVisit(patient, resolver));
+		verify(resolver, times(1)).get();
+	}
+	
+	@Test
+	public void shouldNotRememberVisit_whenTransactionRolledBack() {
+		Supplier<Visit> resolver = mockResolver(visit);
+		
+		labVisitCache.getVisit(patient, resolver);
+		completeTransaction(false);
+		
+		TransactionSynchronizationManager.initSynchronization();
+		labVisitCache.getVisit(patient, resolver);
+		verify(resolver, times(2)).get();
+		verify(visitService, never()).getVisit(7);
+	}
+	
+	@Test
+	public void shouldResolveVisitAgain_whenRememberedVisitWasVoided() {
+		Visit voidedVisit = new Visit(7);
+		voidedVisit.setVoided(true);
+		when(visitService.getVisit(7)).thenReturn(voidedVisit);
+		Supplier<Visit> resolver = mockResolver(visit);
+		
+		labVisitCache.getVisit(patient, resolver);
+		completeTransaction(true);
+		
+		TransactionSynchronizationManager.initSynchronization();
+		labVisitCache.getVisit(patient, resolver);
+		verify(resolver, times(2)).get();
+	}
+	
+	@Test
+	public void shouldResolveVisitAgain_whenPatientIsInvalidated() {
+		Supplier<Visit> resolver = mockResolver(visit);
+		
+		labVisitCache.getVisit(patient, resolver);
+		completeTransaction(true);
+		labVisitCache.invalidate(patient);
+		
+		TransactionSynchronizationManager.initSynchronization();
+		labVisitCache.getVisit(patient, resolver);
+		verify(resolver, times(2)).get();
+		verify(visitService, never()).getVisit(7);
+	}
+	
+	@Test
+	public void shouldMakeConcurrentUploadWait_untilVisitOfFirstUploadIsCommitted() throws Exception {
+		when(visitService.getVisit(7)).thenReturn(visit);
+		labVisitCache.getVisit(patient, () -> visit);
+		
+		Supplier<Visit> concurrentResolver = mockResolver(new Visit(8));
+		CompletableFuture<Visit> concurrentUpload = CompletableFuture.supplyAsync(() -> labVisitCache.getVisit(patient,
+		    concurrentResolver));
+		assertWaiting(concurrentUpload);
+		
+		completeTransaction(true);
+		
+		assertSame(visit, concurrentUpload.get(5, TimeUnit.SECONDS));
+		verify(concurrentResolver, never()).get();
+	}
+	
+	@Test
+	public void shouldHoldLocksOfBatch_untilTransactionCompletes() throws Exception {
+		labVisitCache.lockPatients(Arrays.asList(patient, new Patient(124)));
+		
+		CompletableFuture<Visit> concurrentUpload = CompletableFuture.supplyAsync(() -> labVisitCache.getVisit(
+		    new Patient(124), () -> null));
+		assertWaiting(concurrentUpload);
+		
+		completeTransaction(false);
+		
+		assertNull(concurrentUpload.get(5, TimeUnit.SECONDS));
+	}
+	
+	private void assertWaiting(CompletableFuture<Visit> future) throws Exception {
+		try {
+			future.get(200, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e) {
+			return;
+		}
+		assertFalse("Concurrent upload should wait for the lock of the patient", future.isDone());
+	}
+	
+	@SuppressWarnings("unchecked")
+	private Supplier<Visit> mockResolver(Visit resolved) {
+		Supplier<Visit> resolver = mock(Supplier.class);
+		when(resolver.get()).thenReturn(resolved);
+		return resolver;
+	}
+	
+	private void completeTransaction(boolean committed) {
+		if (committed) {
+			TransactionSynchronizationUtils.triggerAfterCommit();
+		}
+		TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+		    committed ? TransactionSynchronization.STATUS_COMMITTED : TransactionSynchronization.STATUS_ROLLED_BACK);
+		TransactionSynchronizationManager.clearSynchronization();
+	}
+}
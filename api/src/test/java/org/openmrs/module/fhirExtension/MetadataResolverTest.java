@@ -0,0 +1,100 @@
+package org.openmrs.module.fhirExtension;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Concept;
+import org.openmrs.EncounterType;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.OrderService;
+import org.openmrs.api.VisitService;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetadataResolverTest {
+	
+	@Mock
+	private EncounterService encounterService;
+	
+	@Mock
+	private OrderService orderService;
+	
+	@Mock
+	private VisitService visitService;
+	
+	@Mock
+	private ConceptService conceptService;
+	
+	@InjectMocks
+	private MetadataResolver metadataResolver;
+	
+	@Test
+	public void shouldLookUpMetadataOnce_andCountHitsAndMisses() {
+		EncounterType labResult = new EncounterType();
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(labResult);
+		
+		assertSame(labResult, metadataResolver.getEncounterType("LAB_RESULT"));
+		assertSame(labResult, metadataResolver.getEncounterType("LAB_RESULT"));
+		assertNull(metadataResolver.getOrderTypeByName("Lab Order"));
+		assertNull(metadataResolver.getOrderTypeByName("Lab Order"));
+		
+		verify(encounterService, times(1)).getEncounterType("LAB_RESULT");
+		verify(orderService, times(1)).getOrderTypeByName("Lab Order");
+		assertEquals(2, metadataResolver.getHitCount());
+		assertEquals(2, metadataResolver.getMissCount());
+	}
+	
+	@Test
+	public void shouldLookUpMetadataAgain_whenTypeIsInvalidated() {
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
+		
+		metadataResolver.getEncounterType("LAB_RESULT");
+		metadataResolver.invalidate(EncounterType.class);
+		metadataResolver.getEncounterType("LAB_RESULT");
+		
+		verify(encounterService, times(2)).getEncounterType("LAB_RESULT");
+	}
+	
+	@Test
+	public void shouldDropMetadataLookedUpBeforeCommit_onceTransactionCompleted() {
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
+		TransactionSynchronizationManager.initSynchronization();
+		try {
+			metadataResolver.invalidate(EncounterType.class);
+			metadataResolver.getEncounterType("LAB_RESULT");
+			TransactionSynchronizationUtils.invokeAfterCompletion(
+			    TransactionSynchronizationManager.getSynchronizations(), TransactionSynchronization.STATUS_COMMITTED);
+		}
+		finally {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		metadataResolver.getEncounterType("LAB_RESULT");
+		
+		verify(encounterService, times(2)).getEncounterType("LAB_RESULT");
+	}
+	
+	@Test
+	public void shouldRememberConceptId_andLoadConceptById() {
+		Concept labReport = new Concept(42);
+		when(conceptService.getConceptByName("LAB_REPORT")).thenReturn(labReport);
+		when(conceptService.getConcept(42)).thenReturn(labReport);
+		
+		metadataResolver.getConceptByName("LAB_REPORT");
+		assertSame(labReport, metadataResolver.getConceptByName("LAB_REPORT"));
+		
+		verify(conceptService, times(1)).getConceptByName("LAB_REPORT");
+		verify(conceptService, times(2)).getConcept(42);
+	}
+}
@@ -0,0 +1,61 @@
+package org.openmrs.module.fhirExtension.advice;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.api.EncounterService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.MetadataResolver;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Context.class })
+@PowerMockIgnore("javax.management.*")
+public class MetadataResolverAdviceTest {
+	
+	@Mock
+	private MetadataResolver metadataResolver;
+	
+	private final MetadataResolverAdvice metadataResolverAdvice = new MetadataResolverAdvice();
+	
+	@Before
+	public void setUp() {
+		PowerMockito.mockStatic(Context.class);
+		when(Context.getRegisteredComponents(MetadataResolver.class)).thenReturn(
+		    Collections.singletonList(metadataResolver));
+	}
+	
+	@Test
+	public void shouldInvalidateCachedType_whenMetadataIsSaved() throws NoSuchMethodException {
+		Method saveEncounterType = EncounterService.class.getMethod("saveEncounterType", EncounterType.class);
+		EncounterType encounterType = new EncounterType();
+		
+		metadataResolverAdvice.afterReturning(encounterType, saveEncounterType, new Object[] { encounterType }, null);
+		
+		verify(metadataResolver).invalidate(EncounterType.class);
+	}
+	
+	@Test
+	public void shouldNotInvalidate_whenSavedObjectIsNotCachedMetadata() throws NoSuchMethodException {
+		Method saveEncounter = EncounterService.class.getMethod("saveEncounter", Encounter.class);
+		Encounter encounter = new Encounter();
+		
+		metadataResolverAdvice.afterReturning(encounter, saveEncounter, new Object[] { encounter }, null);
+		
+		verify(metadataResolver, never()).invalidate(any());
+	}
+}
@@ -0,0 +1,102 @@
+package org.openmrs.module.fhirExtension.export;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class BulkDataNdjsonWriterTest {
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	@Test
+	public void shouldSplitFiles_whenMaxResourcesPerFileReached() throws IOException {
+		Path directory = temporaryFolder.getRoot().toPath();
+		BulkDataOutput bulkDataOutput = new BulkDataOutput();
+		
+		try (NdjsonWriter ndjsonWriter = createWriter(directory, 2, 0, bulkDataOutput)) {
+			ndjsonWriter.write(getPatients(5));
+			ndjsonWriter.write(Collections.singletonList(getCondition()));
+		}
+		
+		assertEquals(Arrays.asList("Condition.1.ndjson", "Patient.1.ndjson", "Patient.2.ndjson", "Patient.3.ndjson"),
+		    getFileNames(bulkDataOutput));
+		assertEquals(Arrays.asList(1L, 2L, 2L, 1L), getCounts(bulkDataOutput));
+		assertEquals(2, Files.readAllLines(directory.resolve("Patient.2.ndjson")).size());
+		assertEquals(1, Files.readAllLines(directory.resolve("Patient.3.ndjson")).size());
+	}
+	
+	@Test
+	public void shouldSplitFiles_whenMaxBytesPerFileReached() throws IOException {
+		Path directory = temporaryFolder.getRoot().toPath();
+		BulkDataOutput bulkDataOutput = new BulkDataOutput();
+		
+		try (NdjsonWriter ndjsonWriter = createWriter(directory, 0, 1, bulkDataOutput)) {
+			for (IBaseResource patient : getPatients(3)) {
+				ndjsonWriter.write(Collections.singletonList(patient));
+			}
+		}
+		
+		assertEquals(Arrays.asList("Patient.1.ndjson", "Patient.2.ndjson", "Patient.3.ndjson"),
+		    getFileNames(bulkDataOutput));
+	}
+	
+	@Test
+	public void shouldKeepFileNumbersUnique_whenWritersShareOutput() {
+		Path directory = temporaryFolder.getRoot().toPath();
+		BulkDataOutput bulkDataOutput = new BulkDataOutput();
+		
+		try (NdjsonWriter firstWriter = createWriter(directory, 0, 0, bulkDataOutput);
+		        NdjsonWriter secondWriter = createWriter(directory, 0, 0, bulkDataOutput)) {
+			firstWriter.write(Collections.singletonList(getCondition()));
+			secondWriter.write(Collections.singletonList(getCondition()));
+		}
+		
+		assertEquals(Arrays.asList("Condition.1.ndjson", "Condition.2.ndjson"), getFileNames(bulkDataOutput));
+	}
+	
+	private NdjsonWriter createWriter(Path directory, long maxResources, long maxBytes, BulkDataOutput bulkDataOutput) {
+		return new BulkDataNdjsonWriter(directory, maxResources, maxBytes, bulkDataOutput, FhirContext.forR4()
+		        .newJsonParser());
+	}
+	
+	private List<String> getFileNames(BulkDataOutput bulkDataOutput) {
+		return bulkDataOutput.getFiles().stream().map(BulkDataOutput.OutputFile::getFileName).collect(Collectors.toList());
+	}
+	
+	private List<Long> getCounts(BulkDataOutput bulkDataOutput) {
+		return bulkDataOutput.getFiles().stream().map(BulkDataOutput.OutputFile::getCount).collect(Collectors.toList());
+	}
+	
+	private List<IBaseResource> getPatients(int count) {
+		List<IBaseResource> patients = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			Patient patient = new Patient();
+			patient.setId(UUID.randomUUID().toString());
+			patients.add(patient);
+		}
+		return patients;
+	}
+	
+	private IBaseResource getCondition() {
+		Condition condition = new Condition();
+		condition.setId(UUID.randomUUID().toString());
+		return condition;
+	}
+}
@@ -0,0 +1,74 @@
+package org.openmrs.module.fhirExtension.export;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ExportProgressTest {
+	
+	@Test
+	public void shouldSumResourcesWrittenPerResourceType() {
+		ExportProgress exportProgress = new ExportProgress(2, 0, progress -> {});
+		
+		exportProgress.resourcesWritten("Patient", 100);
+		exportProgress.resourcesWritten("Condition", 20);
+		exportProgress.resourcesWritten("Patient", 50);
+		
+		assertEquals(Long.valueOf(150), exportProgress.getResourcesWritten().get("Patient"));
+		assertEquals(Long.valueOf(20), exportProgress.getResourcesWritten().get("Condition"));
+	}
+	
+	@Test
+	public void shouldReportOnlyOnRequest_untilIntervalElapsed() {
+		List<ExportProgress> reports = new ArrayList<>();
+		ExportProgress exportProgress = new ExportProgress(1, 60000, reports::add);
+		
+		exportProgress.report();
+		exportProgress.exporterStarted("PatientExport");
+		exportProgress.resourcesWritten("Patient", 100);
+		exportProgress.exporterFinished("PatientExport");
+		
+		assertEquals(1, reports.size());
+	}
+	
+	@Test
+	public void shouldNotReport_onceStopped() {
+		List<ExportProgress> reports = new ArrayList<>();
+		ExportProgress exportProgress = new ExportProgress(1, 0, reports::add);
+		
+		exportProgress.report();
+		exportProgress.stop();
+		exportProgress.resourcesWritten("Patient", 100);
+		exportProgress.report();
+		
+		assertEquals(1, reports.size());
+	}
+	
+	@Test
+	public void shouldTrackCurrentExporters() {
+		ExportProgress exportProgress = new ExportProgress(2, 60000, progress -> {});
+		
+		exportProgress.exporterStarted("PatientExport");
+		exportProgress.exporterStarted("ConditionExport");
+		exportProgress.exporterFinished("PatientExport");
+		
+		assertEquals(Collections.singletonList("ConditionExport"), exportProgress.getCurrentExporters());
+	}
+	
+	@Test
+	public void shouldEstimateRemainingTime_onceAnExporterFinished() {
+		ExportProgress exportProgress = new ExportProgress(2, 60000, progress -> {});
+		
+		exportProgress.exporterStarted("PatientExport");
+		assertNull(exportProgress.getEstimatedRemainingMillis());
+		
+		exportProgress.exporterFinished("PatientExport");
+		assertNotNull(exportProgress.getEstimatedRemainingMillis());
+	}
+}
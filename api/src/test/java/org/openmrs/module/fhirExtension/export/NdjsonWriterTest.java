@@ -0,0 +1,98 @@
+package org.openmrs.module.fhirExtension.export;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NdjsonWriterTest {
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	@Test
+	public void shouldWriteOneLinePerResourceIntoFilePerResourceType() throws IOException {
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		try (NdjsonWriter ndjsonWriter = new NdjsonWriter(directory, FhirContext.forR4().newJsonParser())) {
+			ndjsonWriter.write(Arrays.asList(getPatient(), getPatient()));
+			ndjsonWriter.write(Collections.singletonList(getCondition()));
+		}
+		
+		List<String> patientLines = Files.readAllLines(directory.resolve("Patient.ndjson"));
+		List<String> conditionLines = Files.readAllLines(directory.resolve("Condition.ndjson"));
+		assertEquals(2, patientLines.size());
+		assertEquals(1, conditionLines.size());
+		assertTrue(patientLines.get(0).startsWith("{\"resourceType\":\"Patient\""));
+		assertFalse(patientLines.get(0).contains("\n"));
+	}
+	
+	@Test
+	public void shouldFlushEachPageToDisk_beforeWriterIsClosed() throws IOException {
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		try (NdjsonWriter ndjsonWriter = new NdjsonWriter(directory, FhirContext.forR4().newJsonParser())) {
+			ndjsonWriter.write(Collections.singletonList(getPatient()));
+			
+			assertEquals(1, Files.readAllLines(directory.resolve("Patient.ndjson")).size());
+		}
+	}
+	
+	@Test
+	public void shouldAppendToExistingFile_whenWriterIsReopened() throws IOException {
+		Path directory = temporaryFolder.getRoot().toPath();
+		
+		try (NdjsonWriter ndjsonWriter = new NdjsonWriter(directory, FhirContext.forR4().newJsonParser())) {
+			ndjsonWriter.write(Collections.singletonList(getPatient()));
+		}
+		try (NdjsonWriter ndjsonWriter = new NdjsonWriter(directory, FhirContext.forR4().newJsonParser())) {
+			ndjsonWriter.write(Collections.singletonList(getPatient()));
+		}
+		
+		assertEquals(2, Files.readAllLines(directory.resolve("Patient.ndjson")).size());
+	}
+	
+	@Test
+	public void shouldCountWrittenResourcesAndTheirUtf8Bytes() throws IOException {
+		Path directory = temporaryFolder.getRoot().toPath();
+		Patient patient = new Patient();
+		patient.setId("123");
+		patient.addName().setFamily("Müller");
+		
+		try (NdjsonWriter ndjsonWriter = new NdjsonWriter(directory, FhirContext.forR4().newJsonParser())) {
+			ndjsonWriter.write(Arrays.asList(patient, getCondition()));
+			
+			assertEquals(2, ndjsonWriter.getResourceCount());
+			assertEquals(Files.size(directory.resolve("Patient.ndjson")) + Files.size(directory.resolve("Condition.ndjson")),
+			    ndjsonWriter.getEncodedBytes());
+		}
+	}
+	
+	private IBaseResource getPatient() {
+		Patient patient = new Patient();
+		patient.setId(UUID.randomUUID().toString());
+		patient.setActive(true);
+		return patient;
+	}
+	
+	private IBaseResource getCondition() {
+		Condition condition = new Condition();
+		condition.setId(UUID.randomUUID().toString());
+		return condition;
+	}
+}
@@ -0,0 +1,142 @@
+package org.openmrs.module.fhirExtension.export;
+
+import ca.uhn.fhir.context.FhirContext;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ZipNdjsonWriterTest {
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	@Test
+	public void shouldWriteEachResourceTypeAsZipEntry() throws IOException {
+		Path zipFile = temporaryFolder.getRoot().toPath().resolve("export.zip");
+		
+		try (NdjsonWriter ndjsonWriter = createWriter(zipFile, Deflater.DEFAULT_COMPRESSION)) {
+			ndjsonWriter.write(Arrays.asList(getPatient(), getPatient()));
+			ndjsonWriter.write(Collections.singletonList(getCondition()));
+			ndjsonWriter.commit();
+		}
+		
+		Map<String, List<String>> entries = readEntries(zipFile);
+		assertEquals(Arrays.asList("Patient.ndjson", "Condition.ndjson"), new ArrayList<>(entries.keySet()));
+		assertEquals(2, entries.get("Patient.ndjson").size());
+		assertEquals(1, entries.get("Condition.ndjson").size());
+	}
+	
+	@Test
+	public void shouldContinueInNumberedEntry_whenResourceTypeIsWrittenAgain() throws IOException {
+		Path zipFile = temporaryFolder.getRoot().toPath().resolve("export.zip");
+		
+		try (NdjsonWriter ndjsonWriter = createWriter(zipFile, Deflater.DEFAULT_COMPRESSION)) {
+			ndjsonWriter.write(Collections.singletonList(getCondition()));
+			ndjsonWriter.write(Collections.singletonList(getPatient()));
+			ndjsonWriter.write(Collections.singletonList(getCondition()));
+			ndjsonWriter.commit();
+		}
+		
+		Map<String, List<String>> entries = readEntries(zipFile);
+		assertEquals(Arrays.asList("Condition.ndjson", "Patient.ndjson", "Condition.2.ndjson"),
+		    new ArrayList<>(entries.keySet()));
+	}
+	
+	@Test
+	public void shouldUseConfiguredCompressionLevel() throws IOException {
+		Path zipFile = temporaryFolder.getRoot().toPath().resolve("export.zip");
+		
+		try (NdjsonWriter ndjsonWriter = createWriter(zipFile, Deflater.NO_COMPRESSION)) {
+			ndjsonWriter.write(Arrays.asList(getPatient(), getPatient(), getPatient()));
+			ndjsonWriter.commit();
+		}
+		
+		try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+			ZipEntry entry = zip.getEntry("Patient.ndjson");
+			assertTrue(entry.getCompressedSize() >= entry.getSize());
+		}
+	}
+	
+	@Test
+	public void shouldOnlyPublishZip_whenWriterIsClosed() throws IOException {
+		Path zipFile = temporaryFolder.getRoot().toPath().resolve("export.zip");
+		
+		try (NdjsonWriter ndjsonWriter = createWriter(zipFile, Deflater.DEFAULT_COMPRESSION)) {
+			ndjsonWriter.write(Collections.singletonList(getPatient()));
+			ndjsonWriter.commit();
+			
+			assertFalse(Files.exists(zipFile));
+		}
+		
+		assertTrue(Files.exists(zipFile));
+		assertFalse(Files.exists(zipFile.resolveSibling("export.zip.part")));
+	}
+	
+	@Test
+	public void shouldDeletePartialZip_whenWriterIsClosedWithoutCommit() {
+		Path zipFile = temporaryFolder.getRoot().toPath().resolve("export.zip");
+		
+		try (NdjsonWriter ndjsonWriter = createWriter(zipFile, Deflater.DEFAULT_COMPRESSION)) {
+			ndjsonWriter.write(Collections.singletonList(getPatient()));
+		}
+		
+		assertFalse(Files.exists(zipFile));
+		assertFalse(Files.exists(zipFile.resolveSibling("export.zip.part")));
+	}
+	
+	private NdjsonWriter createWriter(Path zipFile, int compressionLevel) {
+		return new ZipNdjsonWriter(zipFile, compressionLevel, FhirContext.forR4().newJsonParser());
+	}
+	
+	private Map<String, List<String>> readEntries(Path zipFile) throws IOException {
+		Map<String, List<String>> entries = new LinkedHashMap<>();
+		try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+			for (ZipEntry entry : Collections.list(zip.entries())) {
+				List<String> lines = new ArrayList<>();
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(zip.getInputStream(entry),
+				        StandardCharsets.UTF_8))) {
+					reader.lines().forEach(lines::add);
+				}
+				entries.put(entry.getName(), lines);
+			}
+		}
+		return entries;
+	}
+	
+	private IBaseResource getPatient() {
+		Patient patient = new Patient();
+		patient.setId(UUID.randomUUID().toString());
+		patient.setActive(true);
+		return patient;
+	}
+	
+	private IBaseResource getCondition() {
+		Condition condition = new Condition();
+		condition.setId(UUID.randomUUID().toString());
+		return condition;
+	}
+}
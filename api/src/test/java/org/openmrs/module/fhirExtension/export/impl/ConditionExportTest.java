@@ -1,6 +1,8 @@
 package org.openmrs.module.fhirExtension.export.impl;
 
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
+import ca.uhn.fhir.rest.param.ReferenceParam;
 import ca.uhn.fhir.rest.server.SimpleBundleProvider;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeableConcept;
@@ -8,9 +10,11 @@ import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Condition;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Patient;
 import org.openmrs.module.fhir2.api.FhirConditionService;
 
 import java.util.Arrays;
@@ -20,6 +24,7 @@ import java.util.List;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -64,6 +69,24 @@ public class ConditionExportTest {
 		assertEquals(1, conditionResources.size());
 	}
 	
+	@Test
+	public void shouldSearchConditionsOfGivenPatientsOnly_whenExportIsScopedToPatients() {
+		when(fhirConditionService.searchConditions(any(), any(), any(), any(), any(), any(), any(), any(), any(), any()))
+		        .thenReturn(getMockConditionBundle(1));
+		Patient patient = new Patient();
+		patient.setUuid("patient-uuid");
+		
+		conditionExport.export("2023-05-01", null, Collections.singletonList(patient), page -> {});
+		
+		ArgumentCaptor<ReferenceAndListParam> patientReferences = ArgumentCaptor.forClass(ReferenceAndListParam.class);
+		verify(fhirConditionService).searchConditions(patientReferences.capture(), any(), any(), any(), any(), any(),
+		    any(), any(), any(), any());
+		ReferenceParam patientReference = patientReferences.getValue().getValuesAsQueryTokens().get(0)
+		        .getValuesAsQueryTokens().get(0);
+		assertEquals("Patient", patientReference.getResourceType());
+		assertEquals("patient-uuid", patientReference.getIdPart());
+	}
+	
 	private IBundleProvider getMockConditionBundle(int count) {
 		Condition activeConditionResource = new Condition();
 		CodeableConcept activeClinicalStatus = new CodeableConcept();
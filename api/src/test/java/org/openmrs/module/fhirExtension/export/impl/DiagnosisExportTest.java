@@ -10,15 +10,17 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.openmrs.Concept;
 import org.openmrs.ConceptName;
+import org.openmrs.ConditionClinicalStatus;
 import org.openmrs.Encounter;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
-import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
 import org.openmrs.module.fhir2.api.translators.ConditionClinicalStatusTranslator;
+import org.openmrs.module.fhirExtension.dao.ExportDao;
+import org.openmrs.module.fhirExtension.export.Exporter;
 import org.openmrs.util.LocaleUtility;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
@@ -26,7 +28,10 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.stream.Collectors;
@@ -35,8 +40,11 @@ import java.util.stream.Stream;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
-import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -52,7 +60,7 @@ public class DiagnosisExportTest {
 	private ConceptTranslator conceptTranslator;
 	
 	@Mock
-	private ObsService obsService;
+	private ExportDao exportDao;
 	
 	@Mock
 	private ConceptService conceptService;
@@ -77,6 +85,8 @@ public class DiagnosisExportTest {
 		when(Context.getAdministrationService()).thenReturn(administrationService);
 		when(LocaleUtility.getLocalesInOrder()).thenReturn(Collections.singleton(Locale.getDefault()));
 		when(Context.getLocale()).thenReturn(Locale.getDefault());
+		when(conceptService.getConceptByName(CODED_DIAGNOSIS)).thenReturn(new Concept(2));
+		when(conceptService.getConceptByName(BAHMNI_DIAGNOSIS_STATUS)).thenReturn(new Concept(5));
 	}
 	
 	@Test
@@ -84,9 +94,7 @@ public class DiagnosisExportTest {
 		List<Obs> visitDiagnosesObs = Stream
 		        .concat(getVisitDiagnosesObs().stream(), getInactiveVisitDiagnosesObs().stream()).collect(
 		            Collectors.toList());
-		when(
-		    obsService.getObservations(any(), any(), anyList(), any(), any(), any(), any(), any(), any(), any(), any(),
-		        anyBoolean())).thenReturn(visitDiagnosesObs);
+		when(exportDao.getObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(visitDiagnosesObs);
 		
 		List<IBaseResource> diagnosisResources = diagnosisExport.export("2023-05-01", "2023-05-31");
 		
@@ -98,9 +106,7 @@ public class DiagnosisExportTest {
 	@Test
 	public void shouldExportAllDiagnosis_whenNoDateRangeProvided() {
 		List<Obs> visitDiagnosesObs = getVisitDiagnosesObs();
-		when(
-		    obsService.getObservations(any(), any(), anyList(), any(), any(), any(), any(), any(), any(), any(), any(),
-		        anyBoolean())).thenReturn(visitDiagnosesObs);
+		when(exportDao.getObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(visitDiagnosesObs);
 		
 		List<IBaseResource> diagnosisResources = diagnosisExport.export(null, null);
 		
@@ -109,6 +115,50 @@ public class DiagnosisExportTest {
 		
 	}
 	
+	@Test
+	public void shouldExportDiagnosesOfObsCreatedSinceHighWaterMark_whenOnlyChangesAreExported() throws Exception {
+		when(exportDao.getCreatedObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(getVisitDiagnosesObs());
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		diagnosisExport.exportChanges("2023-10-20T01:30:00.000+05:30", null, null, pages::add);
+		
+		Date highWaterMark = new SimpleDateFormat(Exporter.DATE_TIME_FORMAT).parse("2023-10-20T01:30:00.000+05:30");
+		verify(exportDao).getCreatedObs(any(), eq(null), eq(highWaterMark), eq(null), eq(null), anyInt());
+		verify(exportDao, never()).getObs(any(), any(), any(), any(), any(), anyInt());
+		assertEquals(1, pages.get(0).size());
+	}
+	
+	@Test
+	public void shouldSearchObsOfGivenPatientsOnly_whenExportIsScopedToPatients() {
+		List<Patient> patients = Collections.singletonList(new Patient(1));
+		when(exportDao.getObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(getVisitDiagnosesObs());
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		diagnosisExport.export(null, null, patients, pages::add);
+		
+		verify(exportDao).getObs(any(), eq(new ArrayList<>(patients)), any(), any(), any(), anyInt());
+		assertEquals(1, pages.get(0).size());
+	}
+	
+	@Test
+	public void shouldQueryNextPageAfterLastObs_andClearSessionAfterEachPage() {
+		List<Obs> firstPage = new ArrayList<>();
+		for (int i = 0; i < Exporter.PAGE_SIZE; i++) {
+			firstPage.add(getVisitDiagnosesObs(i + 1));
+		}
+		when(exportDao.getObs(any(), any(), any(), any(), eq(null), anyInt())).thenReturn(firstPage);
+		when(exportDao.getObs(any(), any(), any(), any(), eq(Exporter.PAGE_SIZE), anyInt())).thenReturn(
+		    Collections.singletonList(getVisitDiagnosesObs(Exporter.PAGE_SIZE + 1)));
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		diagnosisExport.export(null, null, null, pages::add);
+		
+		assertEquals(2, pages.size());
+		assertEquals(Exporter.PAGE_SIZE, pages.get(0).size());
+		assertEquals(1, pages.get(1).size());
+		verify(exportDao, times(2)).clearSession();
+	}
+	
 	@Test
 	public void shouldThrowException_whenInvalidStartDateProvided() {
 		thrown.expect(RuntimeException.class);
@@ -125,8 +175,27 @@ public class DiagnosisExportTest {
 		diagnosisExport.export("2023-05-01", "2023-AB-CD");
 	}
 	
+	@Test
+	public void shouldResolveDiagnosisConceptsOnce_andUseStatusMemberForClinicalStatus() {
+		List<Obs> visitDiagnosesObs = Stream
+		        .concat(getVisitDiagnosesObs().stream(), getInactiveVisitDiagnosesObs().stream()).collect(
+		            Collectors.toList());
+		when(exportDao.getObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(visitDiagnosesObs);
+		
+		diagnosisExport.export(null, null);
+		
+		verify(conceptService, times(1)).getConceptByName(CODED_DIAGNOSIS);
+		verify(conceptService, times(1)).getConceptByName(BAHMNI_DIAGNOSIS_STATUS);
+		verify(conditionClinicalStatusTranslator, times(1)).toFhirResource(ConditionClinicalStatus.ACTIVE);
+		verify(conditionClinicalStatusTranslator, times(1)).toFhirResource(ConditionClinicalStatus.INACTIVE);
+	}
+	
 	private List<Obs> getVisitDiagnosesObs() {
-		Obs visitDiagnosisObs = new Obs(1);
+		return new ArrayList<>(Collections.singletonList(getVisitDiagnosesObs(1)));
+	}
+	
+	private Obs getVisitDiagnosesObs(Integer obsId) {
+		Obs visitDiagnosisObs = new Obs(obsId);
 		
 		Obs codedDiagnosisObs = new Obs(2);
 		Concept malariaConcept = new Concept(1);
@@ -145,7 +214,7 @@ public class DiagnosisExportTest {
 		codedDiagnosisObs.setPerson(patient);
 		codedDiagnosisObs.setEncounter(encounter);
 		visitDiagnosisObs.addGroupMember(codedDiagnosisObs);
-		return Collections.singletonList(visitDiagnosisObs);
+		return visitDiagnosisObs;
 	}
 	
 	private List<Obs> getInactiveVisitDiagnosesObs() {
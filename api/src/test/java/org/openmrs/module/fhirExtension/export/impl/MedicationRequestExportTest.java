@@ -1,6 +1,7 @@
 package org.openmrs.module.fhirExtension.export.impl;
 
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.server.SimpleBundleProvider;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Medication;
@@ -8,14 +9,20 @@ import org.hl7.fhir.r4.model.MedicationRequest;
 import org.hl7.fhir.r4.model.Reference;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.openmrs.Drug;
 import org.openmrs.DrugOrder;
+import org.openmrs.Patient;
+import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.module.fhir2.api.FhirMedicationRequestService;
 import org.openmrs.module.fhir2.api.translators.MedicationTranslator;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
@@ -24,6 +31,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -38,12 +48,17 @@ public class MedicationRequestExportTest {
 	@Mock
 	private OrderService orderService;
 	
+	@Mock
+	private ConceptService conceptService;
+	
 	@InjectMocks
 	private MedicationRequestExport medicationRequestExport;
 	
 	@Test
 	public void shouldExportMedicationRequest_whenValidDateRangeProvided() {
-		when(orderService.getOrderByUuid(anyString())).thenReturn(new DrugOrder());
+		DrugOrder drugOrder = new DrugOrder();
+		drugOrder.setDrug(new Drug());
+		when(orderService.getOrderByUuid(anyString())).thenReturn(drugOrder);
 		when(medicationTranslator.toFhirResource(any())).thenReturn(new Medication());
 		when(
 		    fhirMedicationRequestService.searchForMedicationRequests(any(), any(), any(), any(), any(), any(), any(), any(),
@@ -55,6 +70,57 @@ public class MedicationRequestExportTest {
 		assertEquals(1, medicationRequestResources.size());
 	}
 	
+	@Test
+	public void shouldTranslateEachDrugOnce_whenMedicationRequestsReferenceSameDrug() {
+		Drug drug = new Drug();
+		Medication medication = new Medication();
+		medication.setCode(new CodeableConcept().setText("Paracetamol"));
+		when(conceptService.getDrugByUuid("drug-uuid")).thenReturn(drug);
+		when(medicationTranslator.toFhirResource(drug)).thenReturn(medication);
+		when(
+		    fhirMedicationRequestService.searchForMedicationRequests(any(), any(), any(), any(), any(), any(), any(), any(),
+		        any(), any(), any())).thenReturn(
+		    new SimpleBundleProvider(Arrays.asList(getMedicationRequest("drug-uuid"), getMedicationRequest("drug-uuid"))));
+		
+		List<IBaseResource> medicationRequestResources = medicationRequestExport.export("2023-05-01", "2023-05-31");
+		
+		assertEquals(2, medicationRequestResources.size());
+		for (IBaseResource medicationRequest : medicationRequestResources) {
+			assertEquals("Paracetamol", ((MedicationRequest) medicationRequest).getMedicationCodeableConcept().getText());
+		}
+		verify(conceptService, times(1)).getDrugByUuid("drug-uuid");
+		verify(medicationTranslator, times(1)).toFhirResource(drug);
+		verify(orderService, never()).getOrderByUuid(anyString());
+	}
+	
+	@Test
+	public void shouldSearchMedicationRequestsOfGivenPatientsOnly_whenExportIsScopedToPatients() {
+		when(
+		    fhirMedicationRequestService.searchForMedicationRequests(any(), any(), any(), any(), any(), any(), any(), any(),
+		        any(), any(), any())).thenReturn(new SimpleBundleProvider());
+		Patient firstPatient = new Patient();
+		firstPatient.setUuid("patient-uuid-1");
+		Patient secondPatient = new Patient();
+		secondPatient.setUuid("patient-uuid-2");
+		
+		medicationRequestExport.export(null, null, Arrays.asList(firstPatient, secondPatient), page -> {});
+		
+		ArgumentCaptor<ReferenceAndListParam> patientReferences = ArgumentCaptor.forClass(ReferenceAndListParam.class);
+		verify(fhirMedicationRequestService).searchForMedicationRequests(patientReferences.capture(), any(), any(), any(),
+		    any(), any(), any(), any(), any(), any(), any());
+		List<String> patientUuids = new ArrayList<>();
+		patientReferences.getValue().getValuesAsQueryTokens().get(0).getValuesAsQueryTokens()
+		        .forEach(patientReference -> patientUuids.add(patientReference.getIdPart()));
+		assertEquals(Arrays.asList("patient-uuid-1", "patient-uuid-2"), patientUuids);
+	}
+	
+	private MedicationRequest getMedicationRequest(String drugUuid) {
+		MedicationRequest medicationRequest = new MedicationRequest();
+		medicationRequest.setId(UUID.randomUUID().toString());
+		medicationRequest.setMedication(new Reference("Medication/" + drugUuid));
+		return medicationRequest;
+	}
+	
 	private IBundleProvider getMockMedicationRequestBundle() {
 		MedicationRequest medicationRequest = new MedicationRequest();
 		medicationRequest.setId(UUID.randomUUID().toString());
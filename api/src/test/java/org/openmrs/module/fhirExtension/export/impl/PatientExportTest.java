@@ -1,24 +1,30 @@
 package org.openmrs.module.fhirExtension.export.impl;
 
 import ca.uhn.fhir.rest.api.server.IBundleProvider;
+import ca.uhn.fhir.rest.param.TokenParam;
 import ca.uhn.fhir.rest.server.SimpleBundleProvider;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.HumanName;
 import org.hl7.fhir.r4.model.Patient;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.openmrs.module.fhir2.api.FhirPatientService;
 import org.openmrs.module.fhir2.api.search.param.PatientSearchParams;
+import org.openmrs.module.fhirExtension.export.Exporter;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -40,6 +46,42 @@ public class PatientExportTest {
 		assertEquals(1, patientResources.size());
 	}
 	
+	@Test
+	public void shouldExportPatientDataInPages_whenResourcesExceedPageSize() {
+		List<IBaseResource> patients = new ArrayList<>();
+		for (int i = 0; i <= Exporter.PAGE_SIZE; i++) {
+			Patient fhirPatient = new Patient();
+			fhirPatient.setId("PATIENT_UUID_" + i);
+			patients.add(fhirPatient);
+		}
+		when(fhirPatientService.searchForPatients(any(PatientSearchParams.class))).thenReturn(
+		    new SimpleBundleProvider(patients));
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		patientExport.export("2023-05-01", "2023-05-31", pages::add);
+		
+		assertEquals(2, pages.size());
+		assertEquals(Exporter.PAGE_SIZE, pages.get(0).size());
+		assertEquals(1, pages.get(1).size());
+	}
+	
+	@Test
+	public void shouldSearchGivenPatientsById_whenExportIsScopedToPatients() {
+		when(fhirPatientService.searchForPatients(any(PatientSearchParams.class))).thenReturn(getMockPatientBundle());
+		org.openmrs.Patient patient = new org.openmrs.Patient();
+		patient.setUuid("PATIENT_UUID");
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		patientExport.export(null, null, Collections.singletonList(patient), pages::add);
+		
+		ArgumentCaptor<PatientSearchParams> patientSearchParams = ArgumentCaptor.forClass(PatientSearchParams.class);
+		verify(fhirPatientService).searchForPatients(patientSearchParams.capture());
+		TokenParam patientId = patientSearchParams.getValue().getId().getValuesAsQueryTokens().get(0)
+		        .getValuesAsQueryTokens().get(0);
+		assertEquals("PATIENT_UUID", patientId.getValue());
+		assertEquals(1, pages.size());
+	}
+	
 	private IBundleProvider getMockPatientBundle() {
 		HumanName humanName = new HumanName();
 		humanName.addGiven("John");
@@ -2,23 +2,27 @@ package org.openmrs.module.fhirExtension.export.impl;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Procedure;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.openmrs.Concept;
 import org.openmrs.ConceptName;
 import org.openmrs.Encounter;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
-import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
+import org.openmrs.module.fhirExtension.dao.ExportDao;
+import org.openmrs.module.fhirExtension.export.Exporter;
 import org.openmrs.util.LocaleUtility;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
@@ -26,18 +30,28 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -60,7 +74,7 @@ public class ProcedureFormExportTest {
 	private ConceptService conceptService;
 	
 	@Mock
-	private ObsService obsService;
+	private ExportDao exportDao;
 	
 	@InjectMocks
 	private ProcedureFormExport procedureFormExport;
@@ -68,6 +82,9 @@ public class ProcedureFormExportTest {
 	@Rule
 	public ExpectedException thrown = ExpectedException.none();
 	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
 	private List<Obs> procedureRecordObs;
 	
 	@Before
@@ -86,9 +103,8 @@ public class ProcedureFormExportTest {
 		when(conceptService.getConceptByUuid("9bb07482-4ff0-0305-1990-000000000014")).thenReturn(getProcedureRootConcept());
 		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
 		procedureRecordObs = getProcedureRecordObs();
-		when(
-		    obsService.getObservations(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(Date.class),
-		        any(Date.class), anyBoolean())).thenReturn(procedureRecordObs);
+		when(exportDao.getObs(any(), any(), any(Date.class), any(Date.class), any(), anyInt())).thenReturn(
+		    procedureRecordObs);
 		
 		List<IBaseResource> procedureResources = procedureFormExport.export("2023-05-01", "2023-05-31");
 		assertNotNull(procedureResources);
@@ -115,14 +131,27 @@ public class ProcedureFormExportTest {
 		assertEquals(0, procedureResources.size());
 	}
 	
+	@Test
+	public void shouldExportProceduresOfObsCreatedSinceHighWaterMark_whenOnlyChangesAreExported() throws Exception {
+		when(conceptService.getConceptByUuid("9bb07482-4ff0-0305-1990-000000000014")).thenReturn(getProcedureRootConcept());
+		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
+		when(exportDao.getCreatedObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(getProcedureRecordObs());
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		procedureFormExport.exportChanges("2023-10-20T01:30:00.000+05:30", null, null, pages::add);
+		
+		Date highWaterMark = new SimpleDateFormat(Exporter.DATE_TIME_FORMAT).parse("2023-10-20T01:30:00.000+05:30");
+		verify(exportDao).getCreatedObs(any(), eq(null), eq(highWaterMark), eq(null), eq(null), anyInt());
+		verify(exportDao, never()).getObs(any(), any(), any(), any(), any(), anyInt());
+		assertEquals(1, pages.get(0).size());
+	}
+	
 	@Test
 	public void shouldExportProcedureDataInFhirFormat_whenNoDateRangeProvided() {
 		procedureRecordObs = getProcedureRecordObs();
 		when(conceptService.getConceptByUuid("9bb07482-4ff0-0305-1990-000000000014")).thenReturn(getProcedureRootConcept());
 		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
-		when(
-		    obsService.getObservations(any(), any(), any(), any(), any(), any(), any(), any(), any(), any(), any(),
-		        anyBoolean())).thenReturn(procedureRecordObs);
+		when(exportDao.getObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(procedureRecordObs);
 		
 		List<IBaseResource> procedureResources = procedureFormExport.export(null, null);
 		assertNotNull(procedureResources);
@@ -142,6 +171,90 @@ public class ProcedureFormExportTest {
 		verify(administrationService, times(11)).getGlobalProperty(anyString());
 	}
 	
+	@Test
+	public void shouldMapGroupMembersToProcedureAttributes_byConfiguredConceptUuid() {
+		procedureRecordObs = getProcedureRecordObs();
+		Obs procedureObs = procedureRecordObs.get(0);
+		procedureObs.addGroupMember(getMemberObs("9bb07482-4ff0-0305-1990-000000000005", null, "Left knee"));
+		procedureObs.addGroupMember(getMemberObs("9bb07482-4ff0-0305-1990-000000000011", null, "Healed well"));
+		procedureObs.addGroupMember(getMemberObs("unmapped-concept-uuid", null, "Ignored"));
+		when(conceptService.getConceptByUuid("9bb07482-4ff0-0305-1990-000000000014")).thenReturn(getProcedureRootConcept());
+		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
+		when(exportDao.getObs(any(), any(), any(), any(), any(), anyInt())).thenReturn(procedureRecordObs);
+		
+		List<IBaseResource> procedureResources = procedureFormExport.export(null, null);
+		
+		Procedure procedure = (Procedure) procedureResources.get(0);
+		assertEquals(1, procedure.getNote().size());
+		assertEquals("Healed well", procedure.getNote().get(0).getText());
+		assertEquals(1, procedure.getBodySite().size());
+		assertNotNull(procedure.getPerformedDateTimeType().getValue());
+	}
+	
+	@Test
+	public void shouldReuseProcedureAttributeConfig_whenNothingChanged() {
+		when(conceptService.getConceptByUuid(anyString())).thenReturn(null);
+		
+		procedureFormExport.export(null, null);
+		procedureFormExport.export(null, null);
+		
+		verify(administrationService, times(1)).getGlobalProperty("fhir.export.procedure.template");
+	}
+	
+	@Test
+	public void shouldReloadProcedureAttributeConfig_whenProcedureGlobalPropertyChanges() {
+		when(conceptService.getConceptByUuid(anyString())).thenReturn(null);
+		
+		procedureFormExport.export(null, null);
+		assertTrue(procedureFormExport.supportsPropertyName("conceptMap.procedure.procedureName"));
+		assertFalse(procedureFormExport.supportsPropertyName("unrelated.property"));
+		procedureFormExport.globalPropertyChanged(new GlobalProperty("conceptMap.procedure.procedureName", "uuid"));
+		procedureFormExport.export(null, null);
+		
+		verify(administrationService, times(2)).getGlobalProperty("fhir.export.procedure.template");
+	}
+	
+	@Test
+	public void shouldReloadProcedureAttributeConfig_whenProcedureGlobalPropertyChangesWhileLoading() {
+		when(conceptService.getConceptByUuid(anyString())).thenReturn(null);
+		when(administrationService.getGlobalProperty("fhir.export.procedure.template")).thenAnswer(invocation -> {
+			procedureFormExport.globalPropertyChanged(new GlobalProperty("conceptMap.procedure.procedureName", "uuid"));
+			return null;
+		}).thenReturn(null);
+		
+		procedureFormExport.export(null, null);
+		procedureFormExport.export(null, null);
+		procedureFormExport.export(null, null);
+		
+		verify(administrationService, times(2)).getGlobalProperty("fhir.export.procedure.template");
+	}
+	
+	@Test
+	public void shouldReloadProcedureAttributeConfig_whenTemplateFileIsModified() throws IOException {
+		Path templateFile = temporaryFolder.newFile("procedure-template.properties").toPath();
+		Files.write(templateFile, "conceptMap.procedure.procedureTemplate=old-template-uuid".getBytes());
+		Files.setLastModifiedTime(templateFile, FileTime.fromMillis(1000));
+		when(administrationService.getGlobalProperty("fhir.export.procedure.template")).thenReturn(templateFile.toString());
+		
+		procedureFormExport.export(null, null);
+		Files.write(templateFile, "conceptMap.procedure.procedureTemplate=new-template-uuid".getBytes());
+		Files.setLastModifiedTime(templateFile, FileTime.fromMillis(2000));
+		procedureFormExport.export(null, null);
+		
+		verify(conceptService, times(1)).getConceptByUuid("old-template-uuid");
+		verify(conceptService, times(1)).getConceptByUuid("new-template-uuid");
+	}
+	
+	private Obs getMemberObs(String conceptUuid, Concept valueCoded, String valueText) {
+		Concept concept = new Concept();
+		concept.setUuid(conceptUuid);
+		Obs obs = new Obs();
+		obs.setConcept(concept);
+		obs.setValueCoded(valueCoded);
+		obs.setValueText(valueText);
+		return obs;
+	}
+	
 	private List<Obs> getProcedureRecordObs() {
 		Encounter encounter = new Encounter();
 		encounter.setUuid("encounter-uuid-1");
@@ -9,6 +9,7 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.Concept;
 import org.openmrs.Encounter;
 import org.openmrs.Order;
 import org.openmrs.OrderType;
@@ -16,15 +17,25 @@ import org.openmrs.Patient;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.OrderService;
 import org.openmrs.module.fhir2.api.translators.ConceptTranslator;
-import org.openmrs.parameter.OrderSearchCriteria;
+import org.openmrs.module.fhirExtension.dao.ExportDao;
+import org.openmrs.module.fhirExtension.export.Exporter;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -41,6 +52,9 @@ public class ProcedureOrderExportTest {
 	@Mock
 	private ConceptTranslator conceptTranslator;
 	
+	@Mock
+	private ExportDao exportDao;
+	
 	@InjectMocks
 	private ProcedureOrderExport procedureOrderExport;
 	
@@ -51,7 +65,7 @@ public class ProcedureOrderExportTest {
 	public void shouldExportProcedureDataInFhirFormat_whenValidDateRangeProvided() {
 		when(orderService.getOrderTypeByName(PROCEDURE_ORDER)).thenReturn(new OrderType());
 		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
-		when(orderService.getOrders(any(OrderSearchCriteria.class))).thenReturn(getMockOpenmrsProcedureOrders());
+		when(exportDao.getOrders(any(), any(), any(), any(), any(), anyInt())).thenReturn(getMockOpenmrsProcedureOrders());
 		
 		List<IBaseResource> procedureResources = procedureOrderExport.export("2023-05-01", "2023-05-31");
 		assertNotNull(procedureResources);
@@ -83,16 +97,112 @@ public class ProcedureOrderExportTest {
 	public void shouldExportProcedureDataInFhirFormat_whenNoDateRangeProvided() {
 		when(orderService.getOrderTypeByName(PROCEDURE_ORDER)).thenReturn(new OrderType());
 		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
-		when(orderService.getOrders(any(OrderSearchCriteria.class))).thenReturn(getMockOpenmrsProcedureOrders());
+		when(exportDao.getOrders(any(), any(), any(), any(), any(), anyInt())).thenReturn(getMockOpenmrsProcedureOrders());
 		
 		List<IBaseResource> procedureResources = procedureOrderExport.export(null, null);
 		assertNotNull(procedureResources);
 		assertEquals(1, procedureResources.size());
 	}
 	
+	@Test
+	public void shouldTranslateCategoryAndProcedureConceptsOnce_whenOrdersShareConcept() {
+		Concept surgicalProcedure = new Concept(1);
+		Concept splintRemoval = new Concept(2);
+		List<Order> orders = new ArrayList<>();
+		orders.addAll(getMockOpenmrsProcedureOrders());
+		orders.addAll(getMockOpenmrsProcedureOrders());
+		orders.forEach(order -> order.setConcept(splintRemoval));
+		when(orderService.getOrderTypeByName(PROCEDURE_ORDER)).thenReturn(new OrderType());
+		when(exportDao.getOrders(any(), any(), any(), any(), any(), anyInt())).thenReturn(orders);
+		when(conceptService.getConceptByName(ProcedureOrderExport.SURGICAL_PROCEDURE)).thenReturn(surgicalProcedure);
+		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
+		
+		List<IBaseResource> procedureResources = procedureOrderExport.export(null, null);
+		
+		assertEquals(2, procedureResources.size());
+		verify(conceptService, times(1)).getConceptByName(ProcedureOrderExport.SURGICAL_PROCEDURE);
+		verify(conceptTranslator, times(1)).toFhirResource(surgicalProcedure);
+		verify(conceptTranslator, times(1)).toFhirResource(splintRemoval);
+	}
+	
+	@Test
+	public void shouldExportOrdersActivatedOnEndDate_whenEndDateIsGiven() throws Exception {
+		when(orderService.getOrderTypeByName(PROCEDURE_ORDER)).thenReturn(new OrderType());
+		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
+		Order order = getMockOpenmrsProcedureOrder(1);
+		order.setDateActivated(new SimpleDateFormat("yyyy-MM-dd HH:mm").parse("2023-05-31 10:00"));
+		when(exportDao.getOrders(any(), any(), any(), any(), any(), anyInt())).thenAnswer(invocation -> {
+			Date activatedTo = invocation.getArgument(3);
+			return order.getDateActivated().after(activatedTo) ? Collections.emptyList()
+			        : Collections.singletonList(order);
+		});
+		
+		List<IBaseResource> procedureResources = procedureOrderExport.export("2023-05-01", "2023-05-31");
+		
+		assertEquals(1, procedureResources.size());
+	}
+	
+	@Test
+	public void shouldExportOrdersCreatedSinceHighWaterMark_whenOnlyChangesAreExported() throws Exception {
+		when(orderService.getOrderTypeByName(PROCEDURE_ORDER)).thenReturn(new OrderType());
+		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
+		when(exportDao.getCreatedOrders(any(), any(), any(), any(), any(), anyInt())).thenReturn(
+		    getMockOpenmrsProcedureOrders());
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		procedureOrderExport.exportChanges("2023-10-20T01:30:00.000+05:30", null, null, pages::add);
+		
+		Date highWaterMark = new SimpleDateFormat(Exporter.DATE_TIME_FORMAT).parse("2023-10-20T01:30:00.000+05:30");
+		verify(exportDao).getCreatedOrders(any(), eq(null), eq(highWaterMark), eq(null), eq(null), anyInt());
+		verify(exportDao, never()).getOrders(any(), any(), any(), any(), any(), anyInt());
+		assertEquals(1, pages.get(0).size());
+	}
+	
+	@Test
+	public void shouldSearchOrdersOfAllGivenPatientsAtOnce_whenExportIsScopedToPatients() {
+		List<Patient> patients = Arrays.asList(new Patient(1), new Patient(2));
+		when(orderService.getOrderTypeByName(PROCEDURE_ORDER)).thenReturn(new OrderType());
+		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
+		when(exportDao.getOrders(any(), eq(patients), any(), any(), any(), anyInt())).thenReturn(
+		    getMockOpenmrsProcedureOrders());
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		procedureOrderExport.export(null, null, patients, pages::add);
+		
+		verify(exportDao, times(1)).getOrders(any(), eq(patients), any(), any(), any(), anyInt());
+		assertEquals(1, pages.get(0).size());
+	}
+	
+	@Test
+	public void shouldQueryNextPageAfterLastOrder_andClearSessionAfterEachPage() {
+		List<Order> firstPage = new ArrayList<>();
+		for (int i = 0; i < Exporter.PAGE_SIZE; i++) {
+			firstPage.addAll(getMockOpenmrsProcedureOrders());
+		}
+		firstPage.set(firstPage.size() - 1, getMockOpenmrsProcedureOrder(Exporter.PAGE_SIZE));
+		when(orderService.getOrderTypeByName(PROCEDURE_ORDER)).thenReturn(new OrderType());
+		when(conceptTranslator.toFhirResource(any())).thenReturn(getCodeableConcept());
+		when(exportDao.getOrders(any(), any(), any(), any(), eq(null), anyInt())).thenReturn(firstPage);
+		when(exportDao.getOrders(any(), any(), any(), any(), eq(Exporter.PAGE_SIZE), anyInt())).thenReturn(
+		    getMockOpenmrsProcedureOrders());
+		
+		List<List<IBaseResource>> pages = new ArrayList<>();
+		procedureOrderExport.export(null, null, null, pages::add);
+		
+		assertEquals(2, pages.size());
+		assertEquals(Exporter.PAGE_SIZE, pages.get(0).size());
+		assertEquals(1, pages.get(1).size());
+		verify(exportDao, times(2)).clearSession();
+	}
+	
 	private List<Order> getMockOpenmrsProcedureOrders() {
         List<Order> orders = new ArrayList<>();
-        Order order = new Order(1);
+        orders.add(getMockOpenmrsProcedureOrder(1));
+        return orders;
+    }
+	
+	private Order getMockOpenmrsProcedureOrder(Integer orderId) {
+        Order order = new Order(orderId);
 
         Patient patient = new Patient();
         patient.setUuid("patient-uuid-1");
@@ -103,9 +213,7 @@ public class ProcedureOrderExportTest {
         order.setPatient(patient);
         order.setEncounter(encounter);
         order.setFulfillerStatus(Order.FulfillerStatus.RECEIVED);
-
-        orders.add(order);
-        return orders;
+        return order;
     }
 	
 	private CodeableConcept getCodeableConcept() {
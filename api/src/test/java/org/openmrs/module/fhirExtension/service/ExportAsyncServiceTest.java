@@ -1,31 +1,63 @@
 package org.openmrs.module.fhirExtension.service;
 
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Patient;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import org.openmrs.Concept;
 import org.openmrs.Person;
 import org.openmrs.User;
+import org.openmrs.api.AdministrationService;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
 import org.openmrs.module.fhir2.api.FhirConditionService;
 import org.openmrs.module.fhir2.api.dao.FhirTaskDao;
 import org.openmrs.module.fhir2.model.FhirTask;
+import org.openmrs.module.fhir2.model.FhirTaskOutput;
+import org.openmrs.module.fhirExtension.dao.ExportHighWaterMarkDao;
+import org.openmrs.module.fhirExtension.export.BulkDataOutput;
+import org.openmrs.module.fhirExtension.export.ExportMetrics;
 import org.openmrs.module.fhirExtension.export.Exporter;
+import org.openmrs.module.fhirExtension.export.NdjsonWriter;
 import org.openmrs.module.fhirExtension.export.impl.ConditionExport;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -45,6 +77,18 @@ public class ExportAsyncServiceTest {
 	@Mock
 	private FhirConditionService fhirConditionService;
 	
+	@Mock
+	private AdministrationService adminService;
+	
+	@Mock
+	private ExportHighWaterMarkDao exportHighWaterMarkDao;
+	
+	@Mock
+	private ExportTask exportTask;
+	
+	@Spy
+	private ExportMetricsService exportMetricsService = new ExportMetricsService();
+	
 	@InjectMocks
 	private ExportAsyncService exportAsyncService;
 	
@@ -54,13 +98,16 @@ public class ExportAsyncServiceTest {
 		User authenticatedUser = new User();
 		authenticatedUser.setPerson(new Person());
 		when(Context.getAuthenticatedUser()).thenReturn(authenticatedUser);
+		when(exportTask.getScopedPatients(null, null)).thenReturn(null);
 	}
 	
 	@Test
 	public void shouldExportPatientDataAndUpdateFhirTaskStatusToCompleted_whenValidDateRangeProvided() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
 		FhirTask fhirTask = mockFhirTask();
 		
-		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", Context.getUserContext(), "");
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
 		
 		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
 		verify(conceptService, times(1)).getConceptByName("Download URL");
@@ -72,15 +119,498 @@ public class ExportAsyncServiceTest {
 		List<Exporter> exporters = new ArrayList<>();
 		exporters.add(new ConditionExport(fhirConditionService));
 		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
-
+		
 		FhirTask fhirTask = mockFhirTask();
-
-		exportAsyncService.export(fhirTask, "2023-AB-CD", "2023-12-31", Context.getUserContext(), "");
-
+		
+		exportAsyncService.export(fhirTask, "2023-AB-CD", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
 		assertEquals(FhirTask.TaskStatus.REJECTED, fhirTask.getStatus());
 		verify(fhirTaskDao, times(1)).createOrUpdate(any(FhirTask.class));
 	}
 	
+	@Test
+	public void shouldWriteEachExportedPageToNdjsonWriter_whenExporterStreamsPages() {
+		NdjsonWriter ndjsonWriter = mock(NdjsonWriter.class);
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(ndjsonWriter);
+		List<IBaseResource> firstPage = Collections.singletonList(new Patient());
+		List<IBaseResource> secondPage = Collections.singletonList(new Patient());
+		Exporter exporter = mock(Exporter.class);
+		doAnswer(invocation -> {
+			Consumer<List<IBaseResource>> pageConsumer = invocation.getArgument(3);
+			pageConsumer.accept(firstPage);
+			pageConsumer.accept(secondPage);
+			return null;
+		}).when(exporter).export(any(), any(), any(), any(Consumer.class));
+		when(exporter.getResourceType()).thenReturn("Patient");
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(exporter));
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(ndjsonWriter, times(1)).write(firstPage);
+		verify(ndjsonWriter, times(1)).write(secondPage);
+		verify(ndjsonWriter, times(1)).close();
+		verify(fileExportService, times(1)).createZipWithExportedNdjsonFiles(fhirTask.getUuid());
+	}
+	
+	@Test
+	public void shouldRunEachExporterWithItsOwnWriter_whenWorkerThreadsConfigured() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_WORKER_THREADS)).thenReturn("2");
+		NdjsonWriter firstWriter = mock(NdjsonWriter.class);
+		NdjsonWriter secondWriter = mock(NdjsonWriter.class);
+		when(fileExportService.createNdjsonWriter(anyString(), eq("1"))).thenReturn(firstWriter);
+		when(fileExportService.createNdjsonWriter(anyString(), eq("2"))).thenReturn(secondWriter);
+		List<IBaseResource> firstPage = Collections.singletonList(new Patient());
+		List<IBaseResource> secondPage = Collections.singletonList(new Patient());
+		List<Exporter> exporters = Arrays.asList(mockExporter(firstPage), mockExporter(secondPage));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(firstWriter, times(1)).write(firstPage);
+		verify(firstWriter, times(1)).close();
+		verify(secondWriter, times(1)).write(secondPage);
+		verify(secondWriter, times(1)).close();
+		verify(fileExportService, times(1)).createZipWithExportedNdjsonFiles("task-uuid");
+	}
+	
+	@Test
+	public void shouldNotNumberFiles_whenParallelExportersProduceDifferentResourceTypes() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_WORKER_THREADS)).thenReturn("2");
+		when(fileExportService.createNdjsonWriter(anyString(), any())).thenReturn(mock(NdjsonWriter.class));
+		Exporter conditionExporter = mockExporter(Collections.emptyList());
+		when(conditionExporter.getResourceType()).thenReturn("Condition");
+		List<Exporter> exporters = Arrays.asList(mockExporter(Collections.emptyList()), conditionExporter);
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(fileExportService, times(2)).createNdjsonWriter("task-uuid", null);
+	}
+	
+	@Test
+	public void shouldWriteStraightIntoZip_whenZipStreamingEnabled() {
+		when(fileExportService.isZipStreamingEnabled()).thenReturn(true);
+		NdjsonWriter zipWriter = mock(NdjsonWriter.class);
+		when(fileExportService.createZipNdjsonWriter("task-uuid")).thenReturn(zipWriter);
+		List<IBaseResource> page = Collections.singletonList(new Patient());
+		List<Exporter> exporters = Collections.singletonList(mockExporter(page));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(zipWriter, times(1)).write(page);
+		verify(zipWriter, times(1)).commit();
+		verify(zipWriter, times(1)).close();
+		verify(fileExportService, times(0)).createDirectory(any());
+		verify(fileExportService, times(0)).createZipWithExportedNdjsonFiles(any());
+	}
+	
+	@Test
+	public void shouldAddTaskOutputPerBulkDataFile_whenBulkDataEnabled() {
+		when(fileExportService.isBulkDataEnabled()).thenReturn(true);
+		NdjsonWriter bulkDataWriter = mock(NdjsonWriter.class);
+		doAnswer(invocation -> {
+			BulkDataOutput bulkDataOutput = invocation.getArgument(1);
+			bulkDataOutput.addFile("Patient", "Patient.1.ndjson", 500);
+			bulkDataOutput.addFile("Patient", "Patient.2.ndjson", 20);
+			return bulkDataWriter;
+		}).when(fileExportService).createBulkDataNdjsonWriter(eq("task-uuid"), any(BulkDataOutput.class));
+		List<Exporter> exporters = Collections.singletonList(mockExporter(Collections.singletonList(new Patient())));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "http://host/download", "http://host/fhirexport");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		List<String> outputUrls = fhirTask.getOutput().stream().map(FhirTaskOutput::getValueText)
+		        .collect(Collectors.toList());
+		assertEquals(Arrays.asList("http://host/download?file=task-uuid&output=manifest.json",
+		    "http://host/download?file=task-uuid&output=Patient.1.ndjson",
+		    "http://host/download?file=task-uuid&output=Patient.2.ndjson"), outputUrls);
+		verify(fileExportService, times(1)).writeBulkDataManifest(eq("task-uuid"), any(BulkDataOutput.class), any(),
+		    eq("http://host/fhirexport"), eq("http://host/download"));
+		verify(fileExportService, times(0)).createZipWithExportedNdjsonFiles(any());
+		verify(fileExportService, times(0)).deleteDirectory(any());
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldMoveTaskToInProgressAndSaveProgress_whileExportersRun() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_PROGRESS_INTERVAL)).thenReturn("0");
+		when(conceptService.getConceptByName(ExportAsyncService.EXPORT_PROGRESS)).thenReturn(new Concept());
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		Exporter exporter = mockExporter(Arrays.asList(new Patient(), new Patient()));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(exporter));
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		ArgumentCaptor<Set<FhirTaskOutput>> progressCaptor = ArgumentCaptor.forClass(Set.class);
+		verify(exportTask, times(4)).updateProgress(eq(fhirTask), progressCaptor.capture());
+		List<Set<FhirTaskOutput>> progressUpdates = progressCaptor.getAllValues();
+		assertTrue(progressUpdates.get(0).isEmpty());
+		assertEquals(Collections.singletonList("Current exporter: " + exporter.getClass().getSimpleName()),
+		    getValueTexts(progressUpdates.get(1)));
+		assertEquals(Arrays.asList("Patient: 2 resources written", "Estimated remaining time: 00:00:00"),
+		    getValueTexts(progressUpdates.get(3)));
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void shouldNotSaveProgressOutputs_whenProgressConceptIsMissing() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_PROGRESS_INTERVAL)).thenReturn("0");
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		Exporter exporter = mockExporter(Collections.singletonList(new Patient()));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(exporter));
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		ArgumentCaptor<Set<FhirTaskOutput>> progressCaptor = ArgumentCaptor.forClass(Set.class);
+		verify(exportTask, times(4)).updateProgress(eq(fhirTask), progressCaptor.capture());
+		assertTrue(progressCaptor.getAllValues().stream().allMatch(Set::isEmpty));
+		verify(conceptService, times(1)).getConceptByName(ExportAsyncService.DOWNLOAD_URL);
+	}
+	
+	@Test
+	public void shouldClearProgressOutputs_whenExportIsRejected() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_PROGRESS_INTERVAL)).thenReturn("0");
+		when(conceptService.getConceptByName(ExportAsyncService.EXPORT_PROGRESS)).thenReturn(new Concept());
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		doAnswer(invocation -> {
+			FhirTask task = invocation.getArgument(0);
+			task.setOutput(invocation.getArgument(1));
+			return null;
+		}).when(exportTask).updateProgress(any(), any());
+		Exporter failingExporter = mock(Exporter.class);
+		when(failingExporter.getResourceType()).thenReturn("Patient");
+		doAnswer(invocation -> {
+			Consumer<List<IBaseResource>> pageConsumer = invocation.getArgument(3);
+			pageConsumer.accept(Collections.singletonList(new Patient()));
+			throw new RuntimeException("export failed");
+		}).when(failingExporter).export(any(), any(), any(), any(Consumer.class));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(failingExporter));
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.REJECTED, fhirTask.getStatus());
+		assertTrue(fhirTask.getOutput().isEmpty());
+		verify(fhirTaskDao, times(1)).createOrUpdate(fhirTask);
+	}
+	
+	@Test
+	public void shouldSaveProgressOnlyOnStart_whenIntervalHasNotElapsed() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		List<Exporter> exporters = Collections.singletonList(mockExporter(Collections.singletonList(new Patient())));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		verify(exportTask, times(1)).updateProgress(eq(fhirTask), any());
+	}
+	
+	@Test
+	public void shouldCompleteExport_whenProgressCanNotBeSaved() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		doThrow(new RuntimeException("lock wait timeout")).when(exportTask).updateProgress(any(), any());
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(fhirTaskDao, times(1)).createOrUpdate(fhirTask);
+	}
+	
+	@Test
+	public void shouldRecordMetricsPerExporterAndLinkThemFromTaskOutput() {
+		Concept metricsConcept = new Concept();
+		when(conceptService.getConceptByName(ExportAsyncService.EXPORT_METRICS)).thenReturn(metricsConcept);
+		NdjsonWriter ndjsonWriter = mock(NdjsonWriter.class);
+		when(ndjsonWriter.getResourceCount()).thenReturn(0L, 2L);
+		when(ndjsonWriter.getEncodedBytes()).thenReturn(0L, 120L);
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(ndjsonWriter);
+		Exporter exporter = mockExporter(Arrays.asList(new Patient(), new Patient()));
+		when(exporter.getResourceType()).thenReturn("Patient");
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(exporter));
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		fhirTask.setDateCreated(new Date(System.currentTimeMillis() - 5000));
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "http://host/download", "http://host/fhirexport?startDate=2023-01-01");
+		
+		ExportMetrics exportMetrics = exportMetricsService.getMetrics("task-uuid");
+		assertEquals(1, exportMetrics.getExporters().size());
+		ExportMetrics.ExporterMetrics exporterMetrics = exportMetrics.getExporters().get(0);
+		assertEquals("Patient", exporterMetrics.getResourceType());
+		assertEquals(2, exporterMetrics.getResourceCount());
+		assertEquals(120, exporterMetrics.getEncodedBytes());
+		assertTrue(exportMetrics.getQueueWaitMillis() >= 5000);
+		assertTrue(exportMetrics.getTotalMillis() >= exportMetrics.getZipMillis());
+		verify(exportMetricsService, times(1)).logSummary(exportMetrics);
+		FhirTaskOutput metricsOutput = fhirTask.getOutput().stream()
+		        .filter(output -> ExportAsyncService.EXPORT_METRICS.equals(output.getName())).findFirst().orElse(null);
+		assertNotNull(metricsOutput);
+		assertEquals("http://host/fhirexport/metrics/task-uuid", metricsOutput.getValueText());
+		assertSame(metricsConcept, metricsOutput.getType());
+	}
+	
+	@Test
+	public void shouldNotLinkMetricsFromTaskOutput_whenMetricsConceptIsMissing() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "http://host/download", "http://host/fhirexport");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		assertEquals(1, fhirTask.getOutput().size());
+		assertFalse(fhirTask.getOutput().stream().anyMatch(
+		    output -> ExportAsyncService.EXPORT_METRICS.equals(output.getName())));
+	}
+	
+	@Test
+	public void shouldChangeFhirTaskStatusToRejected_whenParallelExporterFails() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_WORKER_THREADS)).thenReturn("2");
+		NdjsonWriter ndjsonWriter = mock(NdjsonWriter.class);
+		when(fileExportService.createNdjsonWriter(anyString(), any())).thenReturn(ndjsonWriter);
+		Exporter failingExporter = mock(Exporter.class);
+		doAnswer(invocation -> {
+			throw new RuntimeException("export failed");
+		}).when(failingExporter).export(any(), any(), any(), any(Consumer.class));
+		List<Exporter> exporters = Arrays.asList(mockExporter(Collections.emptyList()), failingExporter);
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.REJECTED, fhirTask.getStatus());
+		verify(fileExportService, times(0)).createZipWithExportedNdjsonFiles(any());
+	}
+	
+	@Test
+	public void shouldStopRunningWorkersBeforeSavingTask_whenParallelExporterFails() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_WORKER_THREADS)).thenReturn("2");
+		when(fileExportService.createNdjsonWriter(anyString(), any())).thenReturn(mock(NdjsonWriter.class));
+		CountDownLatch runningExporterStarted = new CountDownLatch(1);
+		AtomicBoolean runningExporterStopped = new AtomicBoolean();
+		Exporter runningExporter = mock(Exporter.class);
+		when(runningExporter.getResourceType()).thenReturn("Patient");
+		doAnswer(invocation -> {
+			Consumer<List<IBaseResource>> pageConsumer = invocation.getArgument(3);
+			runningExporterStarted.countDown();
+			try {
+				long deadline = System.currentTimeMillis() + 10000;
+				while (System.currentTimeMillis() < deadline) {
+					pageConsumer.accept(Collections.singletonList(new Patient()));
+				}
+			}
+			finally {
+				runningExporterStopped.set(true);
+			}
+			return null;
+		}).when(runningExporter).export(any(), any(), any(), any(Consumer.class));
+		Exporter failingExporter = mock(Exporter.class);
+		doAnswer(invocation -> {
+			runningExporterStarted.await();
+			throw new RuntimeException("export failed");
+		}).when(failingExporter).export(any(), any(), any(), any(Consumer.class));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(
+		    Arrays.asList(runningExporter, failingExporter));
+		AtomicBoolean stoppedWhenSaved = new AtomicBoolean();
+		doAnswer(invocation -> {
+			stoppedWhenSaved.set(runningExporterStopped.get());
+			return null;
+		}).when(fhirTaskDao).createOrUpdate(any());
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		long exportStarted = System.currentTimeMillis();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.REJECTED, fhirTask.getStatus());
+		assertTrue(stoppedWhenSaved.get());
+		assertTrue(System.currentTimeMillis() - exportStarted < 10000);
+	}
+	
+	@Test
+	public void shouldGiveEveryWorkerItsOwnUserContext_whenWorkerThreadsConfigured() {
+		when(adminService.getGlobalProperty(ExportAsyncService.GP_EXPORT_WORKER_THREADS)).thenReturn("2");
+		when(fileExportService.createNdjsonWriter(anyString(), any())).thenReturn(mock(NdjsonWriter.class));
+		List<Exporter> exporters = Arrays.asList(mockExporter(Collections.emptyList()),
+		    mockExporter(Collections.emptyList()));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		List<UserContext> workerUserContexts = Collections.synchronizedList(new ArrayList<>());
+		PowerMockito.doAnswer(invocation -> workerUserContexts.add(invocation.getArgument(0))).when(Context.class);
+		Context.setUserContext(any());
+		UserContext userContext = new UserContext();
+		FhirTask fhirTask = mockFhirTask();
+		fhirTask.setUuid("task-uuid");
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", "2023-12-31", false, null, null, null, userContext, "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		assertEquals(3, workerUserContexts.size());
+		assertEquals(3, workerUserContexts.stream().map(System::identityHashCode).distinct().count());
+		assertTrue(workerUserContexts.contains(userContext));
+	}
+	
+	@Test
+	public void shouldStartFromHighWaterMarkAndMoveIt_whenIncrementalExportCompletes() throws Exception {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		Exporter exporter = mockExporter(Collections.emptyList());
+		when(exporter.getResourceType()).thenReturn("Condition");
+		Exporter newExporter = mockExporter(Collections.emptyList());
+		when(newExporter.getResourceType()).thenReturn("Patient");
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Arrays.asList(exporter, newExporter));
+		Date highWaterMark = new SimpleDateFormat(Exporter.DATE_TIME_FORMAT).parse("2023-10-20T01:30:00.000+05:30");
+		when(exportHighWaterMarkDao.getHighWaterMark(anyString(), eq("Condition"))).thenReturn(highWaterMark);
+		FhirTask fhirTask = mockFhirTask();
+		Date exportStarted = new Date();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", null, true, null, null, null, Context.getUserContext(),
+		    "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(exporter, times(1)).exportChanges(
+		    eq(new SimpleDateFormat(Exporter.DATE_TIME_FORMAT).format(highWaterMark)), eq(null), eq(null),
+		    any(Consumer.class));
+		verify(exporter, never()).export(any(), any(), any(), any(Consumer.class));
+		verify(newExporter, times(1)).export(eq("2023-01-01"), eq(null), eq(null), any(Consumer.class));
+		verify(newExporter, never()).exportChanges(any(), any(), any(), any(Consumer.class));
+		ArgumentCaptor<Date> newHighWaterMark = ArgumentCaptor.forClass(Date.class);
+		verify(exportHighWaterMarkDao, times(1)).saveHighWaterMark(anyString(), eq("Condition"), newHighWaterMark.capture());
+		verify(exportHighWaterMarkDao, times(1)).saveHighWaterMark(anyString(), eq("Patient"), any(Date.class));
+		assertFalse(newHighWaterMark.getValue().before(exportStarted));
+	}
+	
+	@Test
+	public void shouldKeepHighWaterMark_whenIncrementalExportFails() {
+		Exporter failingExporter = mock(Exporter.class);
+		doAnswer(invocation -> {
+			throw new RuntimeException("export failed");
+		}).when(failingExporter).export(any(), any(), any(), any(Consumer.class));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(failingExporter));
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, null, null, true, null, null, null, Context.getUserContext(),
+		    "", "");
+		
+		assertEquals(FhirTask.TaskStatus.REJECTED, fhirTask.getStatus());
+		verify(exportHighWaterMarkDao, never()).saveHighWaterMark(any(), any(), any());
+	}
+	
+	@Test
+	public void shouldNotReadHighWaterMarks_whenExportIsNotIncremental() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		List<Exporter> exporters = Collections.singletonList(mockExporter(Collections.emptyList()));
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		
+		exportAsyncService.export(mockFhirTask(), "2023-01-01", "2023-12-31", false, null, null, null,
+		    Context.getUserContext(), "", "");
+		
+		verifyNoInteractions(exportHighWaterMarkDao);
+	}
+	
+	@Test
+	public void shouldPassScopedPatientsToEveryExporter_whenExportIsScopedToPatients() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		List<String> patientUuids = Arrays.asList("patient-uuid-1", "patient-uuid-2");
+		List<org.openmrs.Patient> patients = Arrays.asList(new org.openmrs.Patient(1), new org.openmrs.Patient(2));
+		when(exportTask.getScopedPatients(patientUuids, null)).thenReturn(patients);
+		Exporter exporter = mockExporter(Collections.emptyList());
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(exporter));
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, "2023-01-01", null, false, patientUuids, null, null, Context.getUserContext(),
+		    "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(exporter, times(1)).export(eq("2023-01-01"), eq(null), eq(patients), any(Consumer.class));
+	}
+	
+	@Test
+	public void shouldNotRunExporters_whenCohortHasNoActiveMembers() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		when(exportTask.getScopedPatients(null, "cohort-uuid")).thenReturn(Collections.emptyList());
+		Exporter exporter = mockExporter(Collections.emptyList());
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(Collections.singletonList(exporter));
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, null, null, false, null, "cohort-uuid", null, Context.getUserContext(), "",
+		    "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(exporter, never()).export(any(), any(), any(), any(Consumer.class));
+	}
+	
+	@Test
+	public void shouldRunOnlyExportersOfRequestedResourceTypes_whenTypesAreRequested() {
+		when(fileExportService.createNdjsonWriter(any(), any())).thenReturn(mock(NdjsonWriter.class));
+		Exporter patientExporter = mockExporter(Collections.emptyList());
+		when(patientExporter.getResourceType()).thenReturn("Patient");
+		Exporter diagnosisExporter = mockExporter(Collections.emptyList());
+		when(diagnosisExporter.getResourceType()).thenReturn("Condition");
+		Exporter procedureExporter = mockExporter(Collections.emptyList());
+		when(procedureExporter.getResourceType()).thenReturn("Procedure");
+		List<Exporter> exporters = Arrays.asList(patientExporter, diagnosisExporter, procedureExporter);
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportAsyncService.export(fhirTask, null, null, false, null, null, Arrays.asList("Patient", "Condition"),
+		    Context.getUserContext(), "", "");
+		
+		assertEquals(FhirTask.TaskStatus.COMPLETED, fhirTask.getStatus());
+		verify(patientExporter, times(1)).export(any(), any(), any(), any(Consumer.class));
+		verify(diagnosisExporter, times(1)).export(any(), any(), any(), any(Consumer.class));
+		verify(procedureExporter, never()).export(any(), any(), any(), any(Consumer.class));
+	}
+	
+	private Exporter mockExporter(List<IBaseResource> page) {
+		Exporter exporter = mock(Exporter.class);
+		when(exporter.getResourceType()).thenReturn("Patient");
+		doAnswer(invocation -> {
+			Consumer<List<IBaseResource>> pageConsumer = invocation.getArgument(3);
+			pageConsumer.accept(page);
+			return null;
+		}).when(exporter).export(any(), any(), any(), any(Consumer.class));
+		return exporter;
+	}
+	
+	private List<String> getValueTexts(Set<FhirTaskOutput> fhirTaskOutputs) {
+		return fhirTaskOutputs.stream().map(FhirTaskOutput::getValueText).collect(Collectors.toList());
+	}
+	
 	private FhirTask mockFhirTask() {
 		FhirTask fhirTask = new FhirTask();
 		fhirTask.setStatus(FhirTask.TaskStatus.ACCEPTED);
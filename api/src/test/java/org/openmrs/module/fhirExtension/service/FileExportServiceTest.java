@@ -15,6 +15,8 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.UserContext;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.export.BulkDataOutput;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
@@ -27,6 +29,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
@@ -56,7 +59,7 @@ public class FileExportServiceTest {
 	
 	@Before
 	public void setUp() {
-		fileExportService = new FileExportService(administrationService, FhirContext.forR4().newJsonParser());
+		fileExportService = new FileExportService(new GlobalPropertyCache(administrationService), () -> FhirContext.forR4().newJsonParser());
 		PowerMockito.mockStatic(Context.class);
 		when(Context.getAdministrationService()).thenReturn(administrationService);
 	}
@@ -115,12 +118,12 @@ public class FileExportServiceTest {
 		String basePath = System.getProperty("java.io.tmpdir");
 		List<IBaseResource> patientResources = new ArrayList<>();
 		when(administrationService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP)).thenReturn(basePath);
-
+		
 		String directory = UUID.randomUUID().toString();
-
+		
 		fileExportService.createDirectory(directory);
 		fileExportService.createAndWriteToFile(patientResources, directory);
-
+		
 		File patientNdjsonFile = new File(basePath, directory + "/Patient.ndjson");
 		assertFalse(patientNdjsonFile.exists());
 	}
@@ -161,6 +164,25 @@ public class FileExportServiceTest {
 		assertFalse(fhirExportZipFile.isDirectory());
 	}
 	
+	@Test
+	public void shouldWriteBulkDataManifestWithOutputCounts() throws IOException {
+		String basePath = System.getProperty("java.io.tmpdir");
+		when(administrationService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP)).thenReturn(basePath);
+		String directory = UUID.randomUUID().toString();
+		fileExportService.createDirectory(directory);
+		BulkDataOutput bulkDataOutput = new BulkDataOutput();
+		bulkDataOutput.addFile("Patient", "Patient.1.ndjson", 3);
+		
+		fileExportService.writeBulkDataManifest(directory, bulkDataOutput, new Date(), "http://host/fhirexport",
+		    "http://host/download");
+		
+		String manifest = new String(Files.readAllBytes(Paths.get(basePath, directory, "manifest.json")));
+		assertTrue(manifest.contains("\"request\" : \"http://host/fhirexport\""));
+		assertTrue(manifest.contains("\"type\" : \"Patient\""));
+		assertTrue(manifest.contains("\"url\" : \"http://host/download?file=" + directory + "&output=Patient.1.ndjson\""));
+		assertTrue(manifest.contains("\"count\" : 3"));
+	}
+	
 	private List<IBaseResource> getPatientResources() {
 		List<IBaseResource> patientResources = new ArrayList<>();
 		Patient patient1 = new Patient();
@@ -170,7 +192,7 @@ public class FileExportServiceTest {
 		humanName.addGiven("John");
 		humanName.setFamily("Smith");
 		patient1.setName(Collections.singletonList(humanName));
-
+		
 		patientResources.add(patient1);
 		return patientResources;
 	}
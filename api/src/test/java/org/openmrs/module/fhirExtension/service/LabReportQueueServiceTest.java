@@ -0,0 +1,159 @@
+package org.openmrs.module.fhirExtension.service;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.fhir2.api.FhirDiagnosticReportService;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.dao.LabReportQueueDao;
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+import org.springframework.beans.factory.ObjectFactory;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class LabReportQueueServiceTest {
+	
+	private static final String ITEM_UUID = "0f0e7b2a-6a2c-4a57-9c43-3d5d2ef5b0d1";
+	
+	@Mock
+	private LabReportQueueDao labReportQueueDao;
+	
+	@Mock
+	private FhirDiagnosticReportService diagnosticReportService;
+	
+	@Mock
+	private GlobalPropertyCache globalPropertyCache;
+	
+	@Mock
+	private ObjectFactory<IParser> parserFactory;
+	
+	private final IParser parser = FhirContext.forR4().newJsonParser();
+	
+	private LabReportQueueService labReportQueueService;
+	
+	@Before
+	public void setUp() {
+		when(parserFactory.getObject()).thenReturn(parser);
+		labReportQueueService = new LabReportQueueService(labReportQueueDao, diagnosticReportService, globalPropertyCache,
+		        parserFactory);
+	}
+	
+	@Test
+	public void shouldQueueReportForCurrentUserAndLocation_whenEnqueued() {
+		User user = mock(User.class);
+		when(user.getUserId()).thenReturn(7);
+		UserContext userContext = mock(UserContext.class);
+		when(userContext.getAuthenticatedUser()).thenReturn(user);
+		when(userContext.getLocationId()).thenReturn(3);
+		Context.setUserContext(userContext);
+		
+		LabReportQueueItem item = labReportQueueService.enqueue("{\"resourceType\":\"DiagnosticReport\"}");
+		
+		verify(labReportQueueDao).save(item);
+		assertEquals(LabReportQueueItem.Status.QUEUED, item.getStatus());
+		assertEquals(Integer.valueOf(7), item.getCreatorId());
+		assertEquals(Integer.valueOf(3), item.getLocationId());
+		assertEquals(0, item.getAttempts());
+	}
+	
+	@Test
+	public void shouldSaveReportAndCompleteItem_whenItemIsProcessed() {
+		DiagnosticReport createdDiagnosticReport = new DiagnosticReport();
+		createdDiagnosticReport.setId("report-1");
+		when(diagnosticReportService.create(any(DiagnosticReport.class))).thenReturn(createdDiagnosticReport);
+		LabReportQueueItem item = getQueueItem();
+		
+		labReportQueueService.process(item);
+		
+		verify(labReportQueueDao).update(item);
+		assertEquals(LabReportQueueItem.Status.COMPLETED, item.getStatus());
+		assertEquals("DiagnosticReport/report-1", item.getResult());
+	}
+	
+	@Test
+	public void shouldQueueItemAgainAfterDelay_whenProcessingFails() {
+		when(globalPropertyCache.getGlobalProperty(LabReportQueueService.GP_RETRY_DELAY_SECONDS)).thenReturn("10");
+		LabReportQueueItem item = getQueueItem();
+		item.setStatus(LabReportQueueItem.Status.PROCESSING);
+		item.setAttempts(1);
+		
+		labReportQueueService.recordFailure(item, new RuntimeException("Lock wait timeout exceeded"));
+		
+		verify(labReportQueueDao).update(item);
+		verify(labReportQueueDao, never()).moveToDeadLetter(any(LabReportQueueItem.class), any(Date.class));
+		assertEquals(LabReportQueueItem.Status.QUEUED, item.getStatus());
+		assertEquals(2, item.getAttempts());
+		assertEquals("Lock wait timeout exceeded", item.getLastError());
+		assertTrue(item.getNextAttemptDate().getTime() > System.currentTimeMillis() + 15000);
+	}
+	
+	@Test
+	public void shouldMoveItemToDeadLetter_whenAttemptsAreExhausted() {
+		when(globalPropertyCache.getGlobalProperty(LabReportQueueService.GP_MAX_ATTEMPTS)).thenReturn("3");
+		LabReportQueueItem item = getQueueItem();
+		item.setAttempts(2);
+		
+		labReportQueueService.recordFailure(item, new RuntimeException("Connection refused"));
+		
+		verify(labReportQueueDao).moveToDeadLetter(eq(item), any(Date.class));
+		verify(labReportQueueDao, never()).update(any(LabReportQueueItem.class));
+		assertEquals(3, item.getAttempts());
+	}
+	
+	@Test
+	public void shouldMoveItemToDeadLetterWithoutRetry_whenReportIsInvalid() {
+		LabReportQueueItem item = getQueueItem();
+		
+		labReportQueueService.recordFailure(item, new UnprocessableEntityException("Invalid test Code"));
+		
+		verify(labReportQueueDao).moveToDeadLetter(eq(item), any(Date.class));
+		assertEquals(1, item.getAttempts());
+	}
+	
+	@Test
+	public void shouldReturnDeadLetter_whenItemIsNoLongerQueued() {
+		LabReportQueueItem deadLetter = getQueueItem();
+		deadLetter.setStatus(LabReportQueueItem.Status.FAILED);
+		when(labReportQueueDao.getByUuid(ITEM_UUID)).thenReturn(null);
+		when(labReportQueueDao.getDeadLetterByUuid(ITEM_UUID)).thenReturn(deadLetter);
+		
+		assertEquals(deadLetter, labReportQueueService.getItem(ITEM_UUID));
+	}
+	
+	@Test
+	public void shouldNotReturnItem_whenItIsAlreadyClaimed() {
+		when(labReportQueueDao.claim(eq(ITEM_UUID), any(Date.class))).thenReturn(false);
+		
+		assertNull(labReportQueueService.claim(ITEM_UUID));
+		verify(labReportQueueDao, never()).getByUuid(ITEM_UUID);
+	}
+	
+	private LabReportQueueItem getQueueItem() {
+		LabReportQueueItem item = new LabReportQueueItem();
+		item.setUuid(ITEM_UUID);
+		item.setPayload(parser.encodeResourceToString(new DiagnosticReport()));
+		item.setStatus(LabReportQueueItem.Status.QUEUED);
+		item.setDateCreated(new Date());
+		return item;
+	}
+}
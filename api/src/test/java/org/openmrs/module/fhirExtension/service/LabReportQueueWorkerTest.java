@@ -0,0 +1,83 @@
+package org.openmrs.module.fhirExtension.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class LabReportQueueWorkerTest {
+	
+	private static final String ITEM_UUID = "0f0e7b2a-6a2c-4a57-9c43-3d5d2ef5b0d1";
+	
+	@Mock
+	private LabReportQueueService labReportQueueService;
+	
+	@Mock
+	private ThreadPoolTaskExecutor labReportTaskExecutor;
+	
+	@Mock
+	private GlobalPropertyCache globalPropertyCache;
+	
+	private LabReportQueueWorker labReportQueueWorker;
+	
+	@Before
+	public void setUp() {
+		labReportQueueWorker = new LabReportQueueWorker(labReportQueueService, labReportTaskExecutor, globalPropertyCache);
+		Context.setUserContext(mock(UserContext.class));
+	}
+	
+	@Test
+	public void shouldProcessClaimedItem() {
+		LabReportQueueItem item = new LabReportQueueItem();
+		item.setLocationId(3);
+		when(labReportQueueService.claim(ITEM_UUID)).thenReturn(item);
+		
+		labReportQueueWorker.process(ITEM_UUID);
+		
+		verify(labReportQueueService).process(item);
+		verify(labReportQueueService, never()).recordFailure(any(), any());
+	}
+	
+	@Test
+	public void shouldRecordFailure_whenProcessingThrows() {
+		LabReportQueueItem item = new LabReportQueueItem();
+		when(labReportQueueService.claim(ITEM_UUID)).thenReturn(item);
+		RuntimeException exception = new RuntimeException("Deadlock found");
+		doThrow(exception).when(labReportQueueService).process(item);
+		
+		labReportQueueWorker.process(ITEM_UUID);
+		
+		verify(labReportQueueService).recordFailure(item, exception);
+	}
+	
+	@Test
+	public void shouldSkipItem_whenItIsClaimedByAnotherWorker() {
+		when(labReportQueueService.claim(ITEM_UUID)).thenReturn(null);
+		
+		labReportQueueWorker.process(ITEM_UUID);
+		
+		verify(labReportQueueService, never()).process(any());
+	}
+	
+	@Test
+	public void shouldLeaveItemQueued_whenWorkerIsNotStarted() {
+		labReportQueueWorker.submit(ITEM_UUID);
+		
+		verifyNoInteractions(labReportTaskExecutor);
+	}
+}
@@ -2,11 +2,15 @@ package org.openmrs.module.fhirExtension.service;
 
 import ca.uhn.fhir.rest.param.ReferenceAndListParam;
 import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hl7.fhir.r4.model.*;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -14,6 +18,7 @@ import org.mockito.junit.MockitoJUnitRunner;
 import org.openmrs.CareSetting;
 import org.openmrs.Concept;
 import org.openmrs.ConceptDatatype;
+import org.openmrs.Encounter;
 import org.openmrs.EncounterType;
 import org.openmrs.Location;
 import org.openmrs.Obs;
@@ -24,7 +29,7 @@ import org.openmrs.Person;
 import org.openmrs.User;
 import org.openmrs.Visit;
 import org.openmrs.VisitType;
-import org.openmrs.api.AdministrationService;
+import org.openmrs.api.APIException;
 import org.openmrs.api.EncounterService;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.OrderService;
@@ -32,6 +37,7 @@ import org.openmrs.api.ProviderService;
 import org.openmrs.api.VisitService;
 import org.openmrs.api.context.Context;
 import org.openmrs.api.context.UserContext;
+import org.openmrs.api.db.hibernate.DbSessionFactory;
 import org.openmrs.module.fhir2.FhirConstants;
 import org.openmrs.module.fhir2.api.dao.FhirDiagnosticReportDao;
 import org.openmrs.module.fhir2.api.search.SearchQuery;
@@ -39,13 +45,17 @@ import org.openmrs.module.fhir2.api.search.SearchQueryInclude;
 import org.openmrs.module.fhir2.api.search.param.SearchParameterMap;
 import org.openmrs.module.fhir2.api.translators.ObservationTranslator;
 import org.openmrs.module.fhir2.model.FhirDiagnosticReport;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
+import org.openmrs.module.fhirExtension.LabVisitCache;
+import org.openmrs.module.fhirExtension.MetadataResolver;
+import org.openmrs.module.fhirExtension.dao.LabOrderDao;
 import org.openmrs.module.fhirExtension.domain.observation.LabResult;
 import org.openmrs.module.fhirExtension.translators.ObsBasedDiagnosticReportTranslator;
 import org.openmrs.module.fhirExtension.translators.impl.DiagnosticReportObsLabResultTranslatorImpl;
 import org.openmrs.module.fhirExtension.validators.DiagnosticReportObsValidator;
 import org.openmrs.module.fhirExtension.validators.DiagnosticReportRequestValidator;
+import org.springframework.transaction.PlatformTransactionManager;
 
-import java.util.Arrays;
 import java.util.Date;
 import java.util.Collections;
 import java.util.HashSet;
@@ -58,10 +68,14 @@ import static java.util.stream.Collectors.toSet;
 import static java.util.stream.Stream.of;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -119,7 +133,22 @@ public class ObsBasedDiagnosticReportServiceTest {
 	private ProviderService providerService;
 	
 	@Mock
-	private AdministrationService adminService;
+	private GlobalPropertyCache globalPropertyCache;
+	
+	@Mock
+	private LabOrderDao labOrderDao;
+	
+	@Mock(answer = Answers.RETURNS_DEEP_STUBS)
+	private DbSessionFactory sessionFactory;
+	
+	@Mock
+	private PlatformTransactionManager transactionManager;
+	
+	@InjectMocks
+	private MetadataResolver metadataResolver = Mockito.spy(new MetadataResolver());
+	
+	@InjectMocks
+	private LabVisitCache labVisitCache = Mockito.spy(new LabVisitCache());
 	
 	@InjectMocks
 	private final ObsBasedDiagnosticReportService obsBasedDiagnosticReportService = new ObsBasedDiagnosticReportService();
@@ -173,7 +202,7 @@ public class ObsBasedDiagnosticReportServiceTest {
 		FhirDiagnosticReport updatedFhirDiagnosticReport = new FhirDiagnosticReport();
 		when(orderService.getCareSettingByName(careSettingName)).thenReturn(careSetting);
 		when(orderService.getOrderTypeByName("Lab Order")).thenReturn(orderType);
-		when(orderService.getOrders(patient, careSetting, orderType, false)).thenReturn(Arrays.asList(order1, order2));
+		when(labOrderDao.getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any())).thenReturn(order1);
 		when(translator.toOpenmrsType(diagnosticReportToCreate)).thenReturn(fhirDiagnosticReport);
 		doNothing().when(diagnosticReportObsValidator).validate(fhirDiagnosticReport);
 		when(dao.createOrUpdate(fhirDiagnosticReport)).thenReturn(updatedFhirDiagnosticReport);
@@ -186,7 +215,7 @@ public class ObsBasedDiagnosticReportServiceTest {
 		verify(obsService, times(1)).saveObs(any(Obs.class), eq(SAVE_OBS_MESSAGE));
 		
 		assertEquals(mockDiagnosticReport, actualDiagnosticReport);
-		verify(orderService, times(1)).getOrders(patient, careSetting, orderType, false);
+		verify(labOrderDao, times(1)).getOpenOrder(patient, careSetting, orderType, fhirDiagnosticReport.getCode());
 		
 		assertNotNull(reportObs.getOrder());
 		assertNotNull(resultObs.getOrder());
@@ -356,7 +385,7 @@ public class ObsBasedDiagnosticReportServiceTest {
 		when(translator.toOpenmrsType(diagnosticReportToCreate)).thenReturn(fhirDiagnosticReport);
 		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
 		when(orderService.getOrderTypeByName("Lab Order")).thenReturn(orderType);
-		when(orderService.getOrders(patient, careSetting, orderType, false)).thenReturn(Arrays.asList(order1, order2));
+		when(labOrderDao.getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any())).thenReturn(order1);
 		when(visitService.getActiveVisitsByPatient(patient)).thenReturn(Collections.singletonList(new Visit()));
 		
 		User authenticatedUser = new User();
@@ -537,7 +566,7 @@ public class ObsBasedDiagnosticReportServiceTest {
 		when(orderService.getCareSettingByName(careSettingName)).thenReturn(careSetting);
 		when(orderService.getOrderTypeByName("Lab Order")).thenReturn(orderType);
 		when(orderService.getOrderByUuid("uuid-12")).thenReturn(order1);
-		when(orderService.getOrders(patient, careSetting, orderType, false)).thenReturn(Arrays.asList(order1));
+		when(labOrderDao.getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any())).thenReturn(order1);
 		when(translator.toOpenmrsType(diagnosticReportToCreate)).thenReturn(fhirDiagnosticReport);
 		doNothing().when(diagnosticReportObsValidator).validate(fhirDiagnosticReport);
 		when(dao.createOrUpdate(fhirDiagnosticReport)).thenReturn(fhirDiagnosticReport);
@@ -624,7 +653,7 @@ public class ObsBasedDiagnosticReportServiceTest {
 		when(orderService.getCareSettingByName(careSettingName)).thenReturn(careSetting);
 		when(orderService.getOrderTypeByName("Lab Order")).thenReturn(orderType);
 		when(orderService.getOrderByUuid("uuid-12")).thenReturn(order1);
-		when(orderService.getOrders(patient, careSetting, orderType, false)).thenReturn(Arrays.asList(order1));
+		when(labOrderDao.getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any())).thenReturn(order1);
 		when(translator.toOpenmrsType(diagnosticReportToCreate)).thenReturn(fhirDiagnosticReport);
 		doNothing().when(diagnosticReportObsValidator).validate(fhirDiagnosticReport);
 		when(dao.createOrUpdate(fhirDiagnosticReport)).thenReturn(fhirDiagnosticReport);
@@ -719,7 +748,7 @@ public class ObsBasedDiagnosticReportServiceTest {
 		when(orderService.getCareSettingByName(careSettingName)).thenReturn(careSetting);
 		when(orderService.getOrderTypeByName("Lab Order")).thenReturn(orderType);
 		when(orderService.getOrderByUuid("uuid-12")).thenReturn(order1);
-		when(orderService.getOrders(patient, careSetting, orderType, false)).thenReturn(Arrays.asList(order1));
+		when(labOrderDao.getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any())).thenReturn(order1);
 		when(translator.toOpenmrsType(diagnosticReportToCreate)).thenReturn(fhirDiagnosticReport);
 		doNothing().when(diagnosticReportObsValidator).validate(fhirDiagnosticReport);
 		when(dao.createOrUpdate(fhirDiagnosticReport)).thenReturn(fhirDiagnosticReport);
@@ -819,7 +848,7 @@ public class ObsBasedDiagnosticReportServiceTest {
 		when(orderService.getCareSettingByName(careSettingName)).thenReturn(careSetting);
 		when(orderService.getOrderTypeByName("Lab Order")).thenReturn(orderType);
 		when(orderService.getOrderByUuid("uuid-12")).thenReturn(order1);
-		when(orderService.getOrders(patient, careSetting, orderType, false)).thenReturn(Arrays.asList(order1));
+		when(labOrderDao.getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any())).thenReturn(order1);
 		when(translator.toOpenmrsType(diagnosticReportToCreate)).thenReturn(fhirDiagnosticReport);
 		doNothing().when(diagnosticReportObsValidator).validate(fhirDiagnosticReport);
 		when(dao.createOrUpdate(fhirDiagnosticReport)).thenReturn(fhirDiagnosticReport);
@@ -850,6 +879,178 @@ public class ObsBasedDiagnosticReportServiceTest {
 		assertEquals(concept, resultObs.getConcept());
 	}
 	
+	@Test
+	public void shouldShareVisitAndEncounterAcrossReportsOfAPatient_whenTransactionBundleIsCreated() {
+		Patient patient = new Patient(123);
+		DiagnosticReport firstReport = mockBundleReport(patient, "report-1");
+		DiagnosticReport secondReport = mockBundleReport(patient, "report-2");
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		bundle.addEntry().setResource(firstReport);
+		bundle.addEntry().setResource(secondReport);
+		
+		mockLoggedInUser();
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
+		when(visitService.getActiveVisitsByPatient(patient)).thenReturn(Collections.singletonList(new Visit()));
+		when(encounterService.saveEncounter(any(Encounter.class))).thenReturn(new Encounter());
+		
+		Bundle response = obsBasedDiagnosticReportService.createAll(bundle);
+		
+		assertEquals(Bundle.BundleType.TRANSACTIONRESPONSE, response.getType());
+		assertEquals(2, response.getEntry().size());
+		assertEquals("201 Created", response.getEntry().get(0).getResponse().getStatus());
+		assertEquals("DiagnosticReport/report-1", response.getEntry().get(0).getResponse().getLocation());
+		assertEquals("DiagnosticReport/report-2", response.getEntry().get(1).getResponse().getLocation());
+		verify(visitService, times(1)).getActiveVisitsByPatient(patient);
+		verify(encounterService, times(1)).saveEncounter(any(Encounter.class));
+		verify(obsService, times(2)).saveObs(any(Obs.class), eq(SAVE_OBS_MESSAGE));
+		verify(sessionFactory.getHibernateSessionFactory().getCurrentSession(), times(2)).flush();
+	}
+	
+	@Test
+	public void shouldCompleteOpenOrderForOneReportOnly_whenTransactionBundleHasTwoReportsOfTheSameTest() {
+		Patient patient = new Patient(123);
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		bundle.addEntry().setResource(mockBundleReport(patient, "report-1"));
+		bundle.addEntry().setResource(mockBundleReport(patient, "report-2"));
+		Order openOrder = new Order();
+		CareSetting careSetting = new CareSetting();
+		OrderType orderType = new OrderType(1);
+		
+		mockLoggedInUser();
+		String careSettingName = CareSetting.CareSettingType.OUTPATIENT.toString();
+		when(orderService.getCareSettingByName(careSettingName)).thenReturn(careSetting);
+		when(orderService.getOrderTypeByName("Lab Order")).thenReturn(orderType);
+		when(labOrderDao.getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any())).thenAnswer(
+		    invocation -> Order.FulfillerStatus.COMPLETED.equals(openOrder.getFulfillerStatus()) ? null : openOrder);
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
+		when(visitService.getActiveVisitsByPatient(patient)).thenReturn(Collections.singletonList(new Visit()));
+		when(encounterService.saveEncounter(any(Encounter.class))).thenReturn(new Encounter());
+		
+		obsBasedDiagnosticReportService.createAll(bundle);
+		
+		ArgumentCaptor<Obs> savedObs = ArgumentCaptor.forClass(Obs.class);
+		verify(obsService, times(2)).saveObs(savedObs.capture(), eq(SAVE_OBS_MESSAGE));
+		assertEquals(openOrder, savedObs.getAllValues().get(0).getOrder());
+		assertNull(savedObs.getAllValues().get(1).getOrder());
+		assertEquals(Order.FulfillerStatus.COMPLETED, openOrder.getFulfillerStatus());
+		verify(labOrderDao, times(2)).getOpenOrder(eq(patient), eq(careSetting), eq(orderType), any());
+	}
+	
+	@Test
+	public void shouldSaveReportObsWithManualFlushAndFlushOnce_whenReportIsCreated() {
+		Patient patient = new Patient(123);
+		DiagnosticReport diagnosticReport = mockBundleReport(patient, "report-1");
+		Session session = sessionFactory.getHibernateSessionFactory().getCurrentSession();
+		when(session.getHibernateFlushMode()).thenReturn(FlushMode.AUTO);
+		when(session.getJdbcBatchSize()).thenReturn(null);
+		
+		mockLoggedInUser();
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
+		when(visitService.getActiveVisitsByPatient(patient)).thenReturn(Collections.singletonList(new Visit()));
+		when(encounterService.saveEncounter(any(Encounter.class))).thenReturn(new Encounter());
+		
+		obsBasedDiagnosticReportService.create(diagnosticReport);
+		
+		InOrder inOrder = inOrder(session, obsService);
+		inOrder.verify(session).setHibernateFlushMode(FlushMode.MANUAL);
+		inOrder.verify(session).setJdbcBatchSize(ObsBasedDiagnosticReportService.DEFAULT_BATCH_SIZE);
+		inOrder.verify(obsService).saveObs(any(Obs.class), eq(SAVE_OBS_MESSAGE));
+		inOrder.verify(session).flush();
+		inOrder.verify(session).setJdbcBatchSize(null);
+		inOrder.verify(session).setHibernateFlushMode(FlushMode.AUTO);
+		verify(session, times(1)).flush();
+	}
+	
+	@Test
+	public void shouldSaveValidReportsAndReportInvalidEntries_whenBatchBundleIsCreated() {
+		Patient patient = new Patient(123);
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.BATCH);
+		bundle.addEntry().setResource(mockBundleReport(patient, "report-1"));
+		bundle.addEntry().setResource(new Observation());
+		
+		mockLoggedInUser();
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
+		when(visitService.getActiveVisitsByPatient(patient)).thenReturn(Collections.singletonList(new Visit()));
+		
+		Bundle response = obsBasedDiagnosticReportService.createAll(bundle);
+		
+		assertEquals("201 Created", response.getEntry().get(0).getResponse().getStatus());
+		assertEquals("400", response.getEntry().get(1).getResponse().getStatus());
+		OperationOutcome outcome = (OperationOutcome) response.getEntry().get(1).getResponse().getOutcome();
+		assertEquals(ObsBasedDiagnosticReportService.INVALID_BUNDLE_ENTRY, outcome.getIssueFirstRep().getDiagnostics());
+		verify(obsService, times(1)).saveObs(any(Obs.class), eq(SAVE_OBS_MESSAGE));
+	}
+	
+	@Test
+	public void shouldSaveEveryBatchEntryInItsOwnTransaction_andReportEntriesFailingToSave() {
+		Patient patient = new Patient(123);
+		Patient otherPatient = new Patient(456);
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.BATCH);
+		bundle.addEntry().setResource(mockBundleReport(patient, "report-1"));
+		bundle.addEntry().setResource(mockBundleReport(otherPatient, "report-2"));
+		
+		mockLoggedInUser();
+		when(encounterService.getEncounterType("LAB_RESULT")).thenReturn(new EncounterType());
+		when(visitService.getActiveVisitsByPatient(patient)).thenReturn(Collections.singletonList(new Visit()));
+		when(visitService.getActiveVisitsByPatient(otherPatient)).thenThrow(new APIException("Lock wait timeout"));
+		
+		Bundle response = obsBasedDiagnosticReportService.createAll(bundle);
+		
+		assertEquals(Bundle.BundleType.BATCHRESPONSE, response.getType());
+		assertEquals("201 Created", response.getEntry().get(0).getResponse().getStatus());
+		assertEquals("500", response.getEntry().get(1).getResponse().getStatus());
+		OperationOutcome outcome = (OperationOutcome) response.getEntry().get(1).getResponse().getOutcome();
+		assertEquals("Lock wait timeout", outcome.getIssueFirstRep().getDiagnostics());
+		verify(transactionManager, times(2)).getTransaction(any());
+		verify(transactionManager, times(1)).commit(any());
+		verify(transactionManager, times(1)).rollback(any());
+	}
+	
+	@Test
+	public void shouldNotSaveAnyReport_whenTransactionBundleHasAnInvalidEntry() {
+		Patient patient = new Patient(123);
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		bundle.addEntry().setResource(mockBundleReport(patient, "report-1"));
+		bundle.addEntry().setResource(new Observation());
+		
+		try {
+			obsBasedDiagnosticReportService.createAll(bundle);
+			fail("Expected the transaction Bundle to be rejected");
+		}
+		catch (UnprocessableEntityException e) {
+			OperationOutcome outcome = (OperationOutcome) e.getOperationOutcome();
+			assertEquals(1, outcome.getIssue().size());
+			assertEquals("Bundle.entry[1]", outcome.getIssueFirstRep().getExpression().get(0).getValue());
+		}
+		verify(encounterService, never()).saveEncounter(any(Encounter.class));
+		verify(obsService, never()).saveObs(any(Obs.class), any());
+		verify(dao, never()).createOrUpdate(any(FhirDiagnosticReport.class));
+	}
+	
+	private DiagnosticReport mockBundleReport(Patient patient, String createdId) {
+		DiagnosticReport diagnosticReport = new DiagnosticReport();
+		FhirDiagnosticReport fhirDiagnosticReport = new FhirDiagnosticReport();
+		fhirDiagnosticReport.setSubject(patient);
+		fhirDiagnosticReport.setCode(new Concept(12));
+		fhirDiagnosticReport.setStatus(FhirDiagnosticReport.DiagnosticReportStatus.FINAL);
+		fhirDiagnosticReport.setResults(Collections.singleton(new Obs()));
+		DiagnosticReport createdDiagnosticReport = new DiagnosticReport();
+		createdDiagnosticReport.setId(createdId);
+		when(translator.toOpenmrsType(diagnosticReport)).thenReturn(fhirDiagnosticReport);
+		when(dao.createOrUpdate(fhirDiagnosticReport)).thenReturn(fhirDiagnosticReport);
+		when(translator.toFhirResource(fhirDiagnosticReport)).thenReturn(createdDiagnosticReport);
+		return diagnosticReport;
+	}
+	
+	private void mockLoggedInUser() {
+		User authenticatedUser = new User();
+		authenticatedUser.setPerson(new Person());
+		UserContext mockUserContext = mock(UserContext.class);
+		when(mockUserContext.getAuthenticatedUser()).thenReturn(authenticatedUser);
+		when(mockUserContext.getLocation()).thenReturn(new Location());
+		Context.setUserContext(mockUserContext);
+	}
+	
 	private List<Reference> mockBasedOn() {
 		return mockBasedOn("order-uuid");
 	}
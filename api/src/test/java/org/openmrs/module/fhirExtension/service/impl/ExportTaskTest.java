@@ -5,20 +5,35 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.openmrs.Cohort;
+import org.openmrs.CohortMembership;
+import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.User;
+import org.openmrs.api.CohortService;
+import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.fhir2.api.dao.FhirTaskDao;
 import org.openmrs.module.fhir2.model.FhirTask;
+import org.openmrs.module.fhir2.model.FhirTaskOutput;
+import org.openmrs.module.fhirExtension.export.Exporter;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -50,6 +65,28 @@ public class ExportTaskTest {
 		assertEquals(FhirTask.TaskStatus.ACCEPTED, initialTaskResponse.getStatus());
 	}
 	
+	@Test
+	public void shouldUpdateFhirTaskStatusToRejected_whenTaskIsRejected() {
+		FhirTask fhirTask = mockFhirTask();
+		
+		exportTask.rejectTask(fhirTask);
+		
+		assertEquals(FhirTask.TaskStatus.REJECTED, fhirTask.getStatus());
+		verify(fhirTaskDao, times(1)).createOrUpdate(fhirTask);
+	}
+	
+	@Test
+	public void shouldMoveFhirTaskToInProgressWithProgressOutputs_whenProgressIsUpdated() {
+		FhirTask fhirTask = mockFhirTask();
+		Set<FhirTaskOutput> progressOutputs = Collections.singleton(new FhirTaskOutput());
+		
+		exportTask.updateProgress(fhirTask, progressOutputs);
+		
+		assertEquals(FhirTask.TaskStatus.IN_PROGRESS, fhirTask.getStatus());
+		assertEquals(progressOutputs, fhirTask.getOutput());
+		verify(fhirTaskDao, times(1)).createOrUpdate(fhirTask);
+	}
+	
 	@Test
 	public void shouldNotReturnErrorMessage_whenNoDateRangeProvided() {
 		String errorMessage = exportTask.validateParams(null, null);
@@ -83,6 +120,79 @@ public class ExportTaskTest {
 		assertEquals("Invalid Date Format [yyyy-mm-dd]", errorMessage);
 	}
 	
+	@Test
+	public void shouldReturnErrorMessage_whenEndDateProvidedForIncrementalExport() {
+		String errorMessage = exportTask.validateParams("2023-05-01", "2023-05-31", true);
+		assertEquals("End date can not be used with an incremental export", errorMessage);
+	}
+	
+	@Test
+	public void shouldNotReturnErrorMessage_whenStartDateProvidedForIncrementalExport() {
+		String errorMessage = exportTask.validateParams("2023-05-01", null, true);
+		assertNull(errorMessage);
+	}
+	
+	@Test
+	public void shouldReturnErrorMessage_whenPatientAndCohortProvidedTogether() {
+		String errorMessage = exportTask.validateScope(Collections.singletonList("patient-uuid"), "cohort-uuid", false);
+		assertEquals("Patient and cohort can not be used together", errorMessage);
+	}
+	
+	@Test
+	public void shouldReturnErrorMessage_whenScopeProvidedForIncrementalExport() {
+		String errorMessage = exportTask.validateScope(null, "cohort-uuid", true);
+		assertEquals("Patient or cohort can not be used with an incremental export", errorMessage);
+	}
+	
+	@Test
+	public void shouldReturnErrorMessage_whenPatientNotFound() {
+		PatientService patientService = mock(PatientService.class);
+		when(Context.getPatientService()).thenReturn(patientService);
+		when(patientService.getPatientByUuid("patient-uuid")).thenReturn(new Patient());
+		
+		String errorMessage = exportTask.validateScope(Arrays.asList("patient-uuid", "unknown-uuid"), null, false);
+		
+		assertEquals("Patient [unknown-uuid] not found", errorMessage);
+	}
+	
+	@Test
+	public void shouldReturnErrorMessage_whenResourceTypeIsNotExported() {
+		Exporter conditionExporter = mock(Exporter.class);
+		when(conditionExporter.getResourceType()).thenReturn("Condition");
+		Exporter patientExporter = mock(Exporter.class);
+		when(patientExporter.getResourceType()).thenReturn("Patient");
+		List<Exporter> exporters = Arrays.asList(patientExporter, conditionExporter);
+		when(Context.getRegisteredComponents(Exporter.class)).thenReturn(exporters);
+		
+		assertNull(exportTask.validateResourceTypes(Arrays.asList("Patient", "Condition")));
+		assertEquals("Resource type [Observation] is not supported, supported types are [Condition, Patient]",
+		    exportTask.validateResourceTypes(Collections.singletonList("Observation")));
+	}
+	
+	@Test
+	public void shouldReturnActiveMembersOfCohort_whenExportIsScopedToCohort() {
+		CohortService cohortService = mock(CohortService.class);
+		PatientService patientService = mock(PatientService.class);
+		when(Context.getCohortService()).thenReturn(cohortService);
+		when(Context.getPatientService()).thenReturn(patientService);
+		CohortMembership cohortMembership = mock(CohortMembership.class);
+		when(cohortMembership.getPatientId()).thenReturn(7);
+		Cohort cohort = mock(Cohort.class);
+		when(cohort.getActiveMemberships()).thenReturn(Collections.singletonList(cohortMembership));
+		when(cohortService.getCohortByUuid("cohort-uuid")).thenReturn(cohort);
+		Patient patient = new Patient(7);
+		when(patientService.getPatient(7)).thenReturn(patient);
+		
+		List<Patient> patients = exportTask.getScopedPatients(null, "cohort-uuid");
+		
+		assertEquals(Collections.singletonList(patient), patients);
+	}
+	
+	@Test
+	public void shouldNotReturnPatients_whenExportIsNotScoped() {
+		assertNull(exportTask.getScopedPatients(null, null));
+	}
+	
 	private FhirTask mockFhirTask() {
 		FhirTask fhirTask = new FhirTask();
 		fhirTask.setStatus(FhirTask.TaskStatus.ACCEPTED);
@@ -5,10 +5,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.openmrs.api.AdministrationService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.GlobalPropertyCache;
 import org.openmrs.api.context.UserContext;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
@@ -37,7 +37,6 @@ public class FileDownloadServiceTest {
 	@Mock
 	private UserContext userContext;
 	
-	@InjectMocks
 	private FileDownloadServiceImpl fileDownloadService;
 	
 	String basePath = System.getProperty("java.io.tmpdir");
@@ -46,6 +45,7 @@ public class FileDownloadServiceTest {
 	public void setup() {
 		PowerMockito.mockStatic(Context.class);
 		when(Context.getAdministrationService()).thenReturn(administrationService);
+		fileDownloadService = new FileDownloadServiceImpl(new GlobalPropertyCache(administrationService));
 	}
 	
 	@After
@@ -55,13 +55,13 @@ public class FileDownloadServiceTest {
 	}
 	
 	@Test
-	public void shouldReturnFileContentWhenFileToDownloadExistsInFilePath() throws IOException {
+	public void shouldReturnFilePathWhenFileToDownloadExistsInFilePath() throws IOException {
 		
 		Path newFilePath = Paths.get(basePath, "dummy.zip");
 		Files.createFile(newFilePath);
 		when(administrationService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP)).thenReturn(basePath);
-		byte[] result = fileDownloadService.getFile("dummy");
-		Assert.assertNotNull(result);
+		Path result = fileDownloadService.getFile("dummy");
+		Assert.assertEquals(newFilePath, result);
 	}
 	
 	@Test
@@ -74,4 +74,25 @@ public class FileDownloadServiceTest {
         when(administrationService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP)).thenReturn("invalidPath");
         Assert.assertThrows(NoSuchFileException.class, () -> fileDownloadService.getFile("dummy"));
     }
+	
+	@Test
+	public void shouldReturnBulkDataOutputWhenItExistsInExportDirectory() throws IOException {
+		Path exportDirectory = Files.createDirectories(Paths.get(basePath, "bulk-export"));
+		Path outputPath = exportDirectory.resolve("Patient.1.ndjson");
+		Files.deleteIfExists(outputPath);
+		Files.createFile(outputPath);
+		when(administrationService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP)).thenReturn(basePath);
+		
+		Assert.assertEquals(outputPath, fileDownloadService.getExportOutput("bulk-export", "Patient.1.ndjson"));
+		Files.delete(outputPath);
+	}
+	
+	@Test
+	public void shouldRejectOutputNamesOutsideExportDirectory() {
+		when(administrationService.getGlobalProperty(FHIR_EXPORT_FILES_DIRECTORY_GLOBAL_PROP)).thenReturn(basePath);
+		Assert.assertThrows(NoSuchFileException.class,
+		    () -> fileDownloadService.getExportOutput("bulk-export", "../dummy.zip"));
+		Assert.assertThrows(NoSuchFileException.class, () -> fileDownloadService.getExportOutput("..", "manifest.json"));
+		Assert.assertThrows(NoSuchFileException.class, () -> fileDownloadService.getFile("../dummy"));
+	}
 }
@@ -0,0 +1,112 @@
+package org.openmrs.module.fhirExtension.web;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
+import org.hl7.fhir.instance.model.api.IBaseOperationOutcome;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.MetadataResolver;
+import org.openmrs.module.fhirExtension.service.DiagnosticReportBundleService;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+@RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/fhirExtension/diagnosticReport")
+public class DiagnosticReportBundleController extends BaseRestController {
+	
+	public static final String FHIR_JSON_VALUE = "application/fhir+json";
+	
+	static final String INVALID_BUNDLE_TYPE = "Bundle type must be batch or transaction";
+	
+	private final DiagnosticReportBundleService diagnosticReportBundleService;
+	
+	private final ObjectFactory<IParser> parserFactory;
+	
+	private final MetadataResolver metadataResolver;
+	
+	@Autowired
+	public DiagnosticReportBundleController(DiagnosticReportBundleService diagnosticReportBundleService,
+	    ObjectFactory<IParser> parserFactory, MetadataResolver metadataResolver) {
+		this.diagnosticReportBundleService = diagnosticReportBundleService;
+		this.parserFactory = parserFactory;
+		this.metadataResolver = metadataResolver;
+	}
+	
+	/**
+	 * Saves the DiagnosticReports of a FHIR batch or transaction Bundle in one go and answers with the
+	 * matching response Bundle, which holds the outcome of every entry. Like a single upload, it needs the
+	 * privilege to add observations.
+	 */
+	@RequestMapping(value = "/bundle", method = RequestMethod.POST, consumes = { FHIR_JSON_VALUE,
+	        MediaType.APPLICATION_JSON_VALUE }, produces = FHIR_JSON_VALUE)
+	@ResponseBody
+	public ResponseEntity<String> createAll(@RequestBody String requestBody) {
+		if (!Context.hasPrivilege(LabReportQueueController.ADD_OBSERVATIONS_PRIVILEGE)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		IParser parser = parserFactory.getObject();
+		Bundle bundle;
+		try {
+			bundle = parser.parseResource(Bundle.class, requestBody);
+		}
+		catch (DataFormatException e) {
+			return getOutcomeResponse(parser, HttpStatus.BAD_REQUEST, createOperationOutcome(e.getMessage()));
+		}
+		if (!Bundle.BundleType.BATCH.equals(bundle.getType()) && !Bundle.BundleType.TRANSACTION.equals(bundle.getType())) {
+			return getOutcomeResponse(parser, HttpStatus.BAD_REQUEST, createOperationOutcome(INVALID_BUNDLE_TYPE));
+		}
+		try {
+			Bundle response = diagnosticReportBundleService.createAll(bundle);
+			return ResponseEntity.ok().contentType(MediaType.parseMediaType(FHIR_JSON_VALUE))
+			        .body(parser.encodeResourceToString(response));
+		}
+		catch (BaseServerResponseException e) {
+			IBaseOperationOutcome outcome = e.getOperationOutcome() != null ? e.getOperationOutcome()
+			        : createOperationOutcome(e.getMessage());
+			return getOutcomeResponse(parser, HttpStatus.valueOf(e.getStatusCode()), outcome);
+		}
+	}
+	
+	/**
+	 * Hits and misses of the metadata looked up by name when saving lab results, counted since the module
+	 * started. Like the uploads it reports on, it needs the privilege to add observations.
+	 */
+	@RequestMapping(value = "/metadataCache", method = RequestMethod.GET)
+	@ResponseBody
+	public ResponseEntity<SimpleObject> getMetadataCacheStatistics() {
+		if (!Context.hasPrivilege(LabReportQueueController.ADD_OBSERVATIONS_PRIVILEGE)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		SimpleObject statistics = new SimpleObject();
+		statistics.add("hits", metadataResolver.getHitCount());
+		statistics.add("misses", metadataResolver.getMissCount());
+		return new ResponseEntity<>(statistics, HttpStatus.OK);
+	}
+	
+	private ResponseEntity<String> getOutcomeResponse(IParser parser, HttpStatus status, IBaseOperationOutcome outcome) {
+		return ResponseEntity.status(status).contentType(MediaType.parseMediaType(FHIR_JSON_VALUE))
+		        .body(parser.encodeResourceToString(outcome));
+	}
+	
+	private OperationOutcome createOperationOutcome(String diagnostics) {
+		OperationOutcome outcome = new OperationOutcome();
+		OperationOutcome.OperationOutcomeIssueComponent issue = outcome.addIssue();
+		issue.setCode(OperationOutcome.IssueType.INVALID);
+		issue.setSeverity(OperationOutcome.IssueSeverity.ERROR);
+		issue.setDiagnostics(diagnostics);
+		return outcome;
+	}
+}
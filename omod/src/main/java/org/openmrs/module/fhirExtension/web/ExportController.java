@@ -2,21 +2,32 @@ package org.openmrs.module.fhirExtension.web;
 
 import org.openmrs.api.context.Context;
 import org.openmrs.module.fhir2.model.FhirTask;
+import org.openmrs.module.fhirExtension.ExportTaskExecutor;
+import org.openmrs.module.fhirExtension.export.ExportMetrics;
 import org.openmrs.module.fhirExtension.service.ExportAsyncService;
+import org.openmrs.module.fhirExtension.service.ExportMetricsService;
 import org.openmrs.module.fhirExtension.service.ExportTask;
 import org.openmrs.module.webservices.rest.SimpleObject;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
 @Controller
 @RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/fhirexport")
 public class ExportController extends BaseRestController {
@@ -25,32 +36,132 @@ public class ExportController extends BaseRestController {
 	
 	public static final String FILE_DOWNLOAD_URI = "/ws/rest/v1/fhirExtension/export";
 	
+	public static final String EXPORT_PATIENT_DATA_PRIVILEGE = "Export Patient Data";
+	
+	public static final String RETRY_AFTER_SECONDS = "60";
+	
 	private final ExportTask exportTask;
 	
 	private final ExportAsyncService exportAsyncService;
 	
+	private final ExportTaskExecutor exportTaskExecutor;
+	
+	private final ExportMetricsService exportMetricsService;
+	
 	@Autowired
-	public ExportController(ExportTask exportTask, ExportAsyncService exportAsyncService) {
+	public ExportController(ExportTask exportTask, ExportAsyncService exportAsyncService,
+	    @Qualifier("export-fhir-data-threadPoolTaskExecutor") ExportTaskExecutor exportTaskExecutor,
+	    ExportMetricsService exportMetricsService) {
 		this.exportTask = exportTask;
 		this.exportAsyncService = exportAsyncService;
+		this.exportTaskExecutor = exportTaskExecutor;
+		this.exportMetricsService = exportMetricsService;
 	}
 	
 	@RequestMapping(method = RequestMethod.POST)
 	@ResponseBody
 	public ResponseEntity<SimpleObject> export(@RequestParam(value = "startDate", required = false) String startDate,
-											   @RequestParam(value = "endDate", required = false) String endDate) {
-		String validationErrorMessage = exportTask.validateParams(startDate, endDate);
+											   @RequestParam(value = "endDate", required = false) String endDate,
+											   @RequestParam(value = "incremental", defaultValue = "false") boolean incremental,
+											   @RequestParam(value = "patient", required = false) List<String> patientUuids,
+											   @RequestParam(value = "cohort", required = false) String cohortUuid,
+											   @RequestParam(value = "_type", required = false) List<String> resourceTypes) {
+		String validationErrorMessage = exportTask.validateParams(startDate, endDate, incremental);
+		if (validationErrorMessage == null) {
+			validationErrorMessage = exportTask.validateScope(patientUuids, cohortUuid, incremental);
+		}
+		if (validationErrorMessage == null) {
+			validationErrorMessage = exportTask.validateResourceTypes(resourceTypes);
+		}
 		if (validationErrorMessage != null) {
 			SimpleObject response = new SimpleObject();
 			response.add("error", validationErrorMessage);
 			return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
 		}
 		FhirTask fhirTask = exportTask.getInitialTaskResponse();
-		exportAsyncService.export(fhirTask, startDate, endDate, Context.getUserContext(),
-		    ServletUriComponentsBuilder.fromCurrentContextPath().toUriString() + FILE_DOWNLOAD_URI);
+		try {
+			exportAsyncService.export(fhirTask, startDate, endDate, incremental, patientUuids, cohortUuid,
+			    resourceTypes, Context.getUserContext(),
+			    ServletUriComponentsBuilder.fromCurrentContextPath().toUriString() + FILE_DOWNLOAD_URI,
+			    ServletUriComponentsBuilder.fromCurrentRequest().toUriString());
+		}
+		catch (TaskRejectedException e) {
+			exportTask.rejectTask(fhirTask);
+			SimpleObject response = getFhirTaskUri(fhirTask);
+			response.add("error", "Too many exports in progress, try again later");
+			return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+			        .body(response);
+		}
 		return new ResponseEntity<>(getFhirTaskUri(fhirTask), HttpStatus.ACCEPTED);
 	}
 	
+	@RequestMapping(value = "/executor", method = RequestMethod.GET)
+	@ResponseBody
+	public ResponseEntity<SimpleObject> getExecutorStatistics() {
+		if (!Context.hasPrivilege(EXPORT_PATIENT_DATA_PRIVILEGE)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		SimpleObject statistics = new SimpleObject();
+		statistics.add("corePoolSize", exportTaskExecutor.getCorePoolSize());
+		statistics.add("maxPoolSize", exportTaskExecutor.getMaxPoolSize());
+		statistics.add("poolSize", exportTaskExecutor.getPoolSize());
+		statistics.add("active", exportTaskExecutor.getActiveCount());
+		statistics.add("queued", exportTaskExecutor.getQueuedCount());
+		statistics.add("remainingQueueCapacity", exportTaskExecutor.getRemainingQueueCapacity());
+		statistics.add("completed", exportTaskExecutor.getCompletedCount());
+		statistics.add("rejected", exportTaskExecutor.getRejectedCount());
+		return new ResponseEntity<>(statistics, HttpStatus.OK);
+	}
+	
+	@RequestMapping(value = "/metrics", method = RequestMethod.GET)
+	@ResponseBody
+	public ResponseEntity<List<SimpleObject>> getRecentMetrics() {
+		if (!Context.hasPrivilege(EXPORT_PATIENT_DATA_PRIVILEGE)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		List<SimpleObject> metrics = exportMetricsService.getRecentMetrics().stream().map(this::getMetrics)
+		        .collect(Collectors.toList());
+		return new ResponseEntity<>(metrics, HttpStatus.OK);
+	}
+	
+	@RequestMapping(value = "/metrics/{taskUuid}", method = RequestMethod.GET)
+	@ResponseBody
+	public ResponseEntity<SimpleObject> getMetrics(@PathVariable("taskUuid") String taskUuid) {
+		if (!Context.hasPrivilege(EXPORT_PATIENT_DATA_PRIVILEGE)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		ExportMetrics exportMetrics = exportMetricsService.getMetrics(taskUuid);
+		if (exportMetrics == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(getMetrics(exportMetrics), HttpStatus.OK);
+	}
+	
+	private SimpleObject getMetrics(ExportMetrics exportMetrics) {
+		SimpleObject metrics = new SimpleObject();
+		metrics.add("taskId", exportMetrics.getTaskUuid());
+		metrics.add("startDate", exportMetrics.getStartDate());
+		metrics.add("queueWaitMillis", exportMetrics.getQueueWaitMillis());
+		metrics.add("zipMillis", exportMetrics.getZipMillis());
+		metrics.add("totalMillis", exportMetrics.getTotalMillis());
+		metrics.add("resourceCount", exportMetrics.getResourceCount());
+		metrics.add("encodedBytes", exportMetrics.getEncodedBytes());
+		List<SimpleObject> exporters = new ArrayList<>();
+		for (ExportMetrics.ExporterMetrics exporterMetrics : exportMetrics.getExporters()) {
+			SimpleObject exporter = new SimpleObject();
+			exporter.add("exporter", exporterMetrics.getExporter());
+			exporter.add("resourceType", exporterMetrics.getResourceType());
+			exporter.add("queryMillis", exporterMetrics.getQueryMillis());
+			exporter.add("writeMillis", exporterMetrics.getWriteMillis());
+			exporter.add("resourceCount", exporterMetrics.getResourceCount());
+			exporter.add("encodedBytes", exporterMetrics.getEncodedBytes());
+			exporter.add("resourcesPerSecond", exporterMetrics.getResourcesPerSecond());
+			exporters.add(exporter);
+		}
+		metrics.add("exporters", exporters);
+		return metrics;
+	}
+	
 	private SimpleObject getFhirTaskUri(FhirTask task) {
 		SimpleObject object = new SimpleObject();
 		object.add("status", task.getStatus().toString());
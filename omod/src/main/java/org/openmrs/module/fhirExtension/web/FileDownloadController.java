@@ -4,21 +4,30 @@ import org.openmrs.module.fhirExtension.service.FileDownloadService;
 import org.openmrs.module.webservices.rest.web.RestConstants;
 import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 @Controller
 @RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/fhirExtension")
 public class FileDownloadController extends BaseRestController {
 	
+	private static final String BYTES_UNIT = "bytes";
+	
 	private FileDownloadService fileDownloadService;
 	
 	@Autowired
@@ -26,21 +35,149 @@ public class FileDownloadController extends BaseRestController {
 		this.fileDownloadService = fileDownloadService;
 	}
 	
-	@ResponseBody
-    @RequestMapping(value = "/export", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE, method = RequestMethod.GET)
-    public ResponseEntity<?> getFile(@RequestParam("file") String fileName) {
-        byte[] bytes;
-        try {
-            bytes = fileDownloadService.getFile(fileName);
-        } catch (IOException e) {
-            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
-        }
-        return ResponseEntity.ok()
-                .header("Content-Disposition", getAttachment(fileName))
-                .body(bytes);
-    }
-	
-	private String getAttachment(String fileName) {
-		return new StringBuilder().append("attachment; filename=\"").append(fileName).append(".zip").append("\"").toString();
+	/**
+	 * Streams the archive from disk through the response channel, so memory use does not grow with the
+	 * size of the archive. With an output name, one file of a Bulk Data export is served instead of the
+	 * zip. A single byte range may be requested to resume an interrupted download; it is
+	 * honoured only while If-Range, when sent, still matches the archive's ETag or Last-Modified date.
+	 */
+	@RequestMapping(value = "/export", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE, method = RequestMethod.GET)
+	public void getFile(@RequestParam("file") String fileName,
+	        @RequestParam(value = "output", required = false) String outputName, HttpServletRequest request,
+	        HttpServletResponse response) throws IOException {
+		Path file;
+		String downloadName = outputName == null ? fileName + ".zip" : outputName;
+		try {
+			file = outputName == null ? fileDownloadService.getFile(fileName) : fileDownloadService.getExportOutput(
+			    fileName, outputName);
+		}
+		catch (IOException e) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = fileChannel.size();
+			long lastModified = Files.getLastModifiedTime(file).toMillis();
+			String eTag = getETag(size, lastModified);
+			response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+			response.setHeader(HttpHeaders.CONTENT_DISPOSITION, getAttachment(downloadName));
+			response.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+			response.setHeader(HttpHeaders.ETAG, eTag);
+			response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+			
+			String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+			ByteRange byteRange = null;
+			if (rangeHeader != null && matchesIfRange(request, eTag, lastModified)) {
+				byteRange = ByteRange.parse(rangeHeader, size);
+			}
+			if (byteRange == null) {
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentLengthLong(size);
+				transfer(fileChannel, 0, size, response.getOutputStream());
+			} else if (byteRange.isSatisfiable(size)) {
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader(HttpHeaders.CONTENT_RANGE,
+				    BYTES_UNIT + " " + byteRange.start + "-" + byteRange.end + "/" + size);
+				response.setContentLengthLong(byteRange.getLength());
+				transfer(fileChannel, byteRange.start, byteRange.getLength(), response.getOutputStream());
+			} else {
+				response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				response.setHeader(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + size);
+			}
+		}
+	}
+	
+	private boolean matchesIfRange(HttpServletRequest request, String eTag, long lastModified) {
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(eTag);
+		}
+		try {
+			return request.getDateHeader(HttpHeaders.IF_RANGE) == lastModified / 1000 * 1000;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	private String getETag(long size, long lastModified) {
+		return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+	}
+	
+	private void transfer(FileChannel fileChannel, long position, long count, OutputStream outputStream)
+	        throws IOException {
+		WritableByteChannel responseChannel = Channels.newChannel(outputStream);
+		long transferred = 0;
+		while (transferred < count) {
+			long bytes = fileChannel.transferTo(position + transferred, count - transferred, responseChannel);
+			if (bytes <= 0) {
+				break;
+			}
+			transferred += bytes;
+		}
+		outputStream.flush();
+	}
+	
+	private String getAttachment(String downloadName) {
+		return new StringBuilder().append("attachment; filename=\"").append(downloadName).append("\"").toString();
+	}
+	
+	/**
+	 * A single "bytes=first-last", "bytes=first-" or "bytes=-suffix" range. Multiple ranges and malformed
+	 * values are not supported and lead to the whole archive being sent.
+	 */
+	static class ByteRange {
+		
+		final long start;
+		
+		final long end;
+		
+		ByteRange(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+		
+		long getLength() {
+			return end - start + 1;
+		}
+		
+		boolean isSatisfiable(long size) {
+			return start < size && start <= end;
+		}
+		
+		static ByteRange parse(String rangeHeader, long size) {
+			String prefix = BYTES_UNIT + "=";
+			if (!rangeHeader.startsWith(prefix) || rangeHeader.contains(",")) {
+				return null;
+			}
+			String rangeSpec = rangeHeader.substring(prefix.length()).trim();
+			int separator = rangeSpec.indexOf('-');
+			if (separator < 0) {
+				return null;
+			}
+			String first = rangeSpec.substring(0, separator).trim();
+			String last = rangeSpec.substring(separator + 1).trim();
+			try {
+				if (first.isEmpty()) {
+					long suffixLength = Long.parseLong(last);
+					if (suffixLength < 0) {
+						return null;
+					}
+					return new ByteRange(Math.max(0, size - suffixLength), size - 1);
+				}
+				long start = Long.parseLong(first);
+				if (last.isEmpty()) {
+					return new ByteRange(start, size - 1);
+				}
+				long end = Long.parseLong(last);
+				return end < start ? null : new ByteRange(start, Math.min(end, size - 1));
+			}
+			catch (NumberFormatException e) {
+				return null;
+			}
+		}
 	}
 }
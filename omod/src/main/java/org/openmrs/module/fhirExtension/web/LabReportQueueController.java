@@ -0,0 +1,101 @@
+package org.openmrs.module.fhirExtension.web;
+
+import ca.uhn.fhir.parser.DataFormatException;
+import ca.uhn.fhir.parser.IParser;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+import org.openmrs.module.fhirExtension.service.LabReportQueueService;
+import org.openmrs.module.fhirExtension.service.LabReportQueueWorker;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.web.RestConstants;
+import org.openmrs.module.webservices.rest.web.v1_0.controller.BaseRestController;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+@Controller
+@RequestMapping(value = "/rest/" + RestConstants.VERSION_1 + "/fhirExtension/diagnosticReport/queue")
+public class LabReportQueueController extends BaseRestController {
+	
+	public static final String ADD_OBSERVATIONS_PRIVILEGE = "Add Observations";
+	
+	public static final String GET_OBSERVATIONS_PRIVILEGE = "Get Observations";
+	
+	private final LabReportQueueService labReportQueueService;
+	
+	private final LabReportQueueWorker labReportQueueWorker;
+	
+	private final ObjectFactory<IParser> parserFactory;
+	
+	@Autowired
+	public LabReportQueueController(LabReportQueueService labReportQueueService,
+	    LabReportQueueWorker labReportQueueWorker, ObjectFactory<IParser> parserFactory) {
+		this.labReportQueueService = labReportQueueService;
+		this.labReportQueueWorker = labReportQueueWorker;
+		this.parserFactory = parserFactory;
+	}
+	
+	/**
+	 * Queues a DiagnosticReport and answers straight away with a handle to follow its processing. The report
+	 * is saved later by the lab report workers, the same way as a synchronous upload.
+	 */
+	@RequestMapping(method = RequestMethod.POST, consumes = { DiagnosticReportBundleController.FHIR_JSON_VALUE,
+	        MediaType.APPLICATION_JSON_VALUE })
+	@ResponseBody
+	public ResponseEntity<SimpleObject> enqueue(@RequestBody String requestBody) {
+		if (!Context.hasPrivilege(ADD_OBSERVATIONS_PRIVILEGE)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		try {
+			parserFactory.getObject().parseResource(DiagnosticReport.class, requestBody);
+		}
+		catch (DataFormatException e) {
+			SimpleObject response = new SimpleObject();
+			response.add("error", e.getMessage());
+			return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
+		}
+		LabReportQueueItem item = labReportQueueService.enqueue(requestBody);
+		labReportQueueWorker.submit(item.getUuid());
+		return new ResponseEntity<>(getStatus(item), HttpStatus.ACCEPTED);
+	}
+	
+	@RequestMapping(value = "/{uuid}", method = RequestMethod.GET)
+	@ResponseBody
+	public ResponseEntity<SimpleObject> getStatus(@PathVariable("uuid") String uuid) {
+		if (!Context.hasPrivilege(GET_OBSERVATIONS_PRIVILEGE)) {
+			return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+		}
+		LabReportQueueItem item = labReportQueueService.getItem(uuid);
+		if (item == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(getStatus(item), HttpStatus.OK);
+	}
+	
+	private SimpleObject getStatus(LabReportQueueItem item) {
+		SimpleObject status = new SimpleObject();
+		status.add("id", item.getUuid());
+		status.add("status", item.getStatus().toString());
+		status.add("attempts", item.getAttempts());
+		status.add("link", ServletUriComponentsBuilder.fromCurrentContextPath()
+		        .path("/ws/rest/" + RestConstants.VERSION_1 + "/fhirExtension/diagnosticReport/queue/")
+		        .path(item.getUuid()).build().toUriString());
+		if (item.getResult() != null) {
+			status.add("result", item.getResult());
+		}
+		if (item.getLastError() != null) {
+			status.add("error", item.getLastError());
+		}
+		return status;
+	}
+}
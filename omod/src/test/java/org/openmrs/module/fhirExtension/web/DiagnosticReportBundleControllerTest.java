@@ -0,0 +1,133 @@
+package org.openmrs.module.fhirExtension.web;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.server.exceptions.UnprocessableEntityException;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.MetadataResolver;
+import org.openmrs.module.fhirExtension.service.DiagnosticReportBundleService;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Context.class })
+@PowerMockIgnore("javax.management.*")
+public class DiagnosticReportBundleControllerTest {
+	
+	@Mock
+	private DiagnosticReportBundleService diagnosticReportBundleService;
+	
+	@Mock
+	private ObjectFactory<IParser> parserFactory;
+	
+	@Mock
+	private MetadataResolver metadataResolver;
+	
+	@InjectMocks
+	private DiagnosticReportBundleController diagnosticReportBundleController;
+	
+	private final IParser parser = FhirContext.forR4().newJsonParser();
+	
+	@Before
+	public void setUp() {
+		PowerMockito.mockStatic(Context.class);
+		when(parserFactory.getObject()).thenReturn(parser);
+		when(Context.hasPrivilege(any())).thenReturn(true);
+	}
+	
+	@Test
+	public void shouldReturnForbidden_whenUserCannotAddObservations() {
+		when(Context.hasPrivilege(LabReportQueueController.ADD_OBSERVATIONS_PRIVILEGE)).thenReturn(false);
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.BATCH);
+		
+		ResponseEntity<String> response = diagnosticReportBundleController.createAll(parser.encodeResourceToString(bundle));
+		
+		assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+		verify(diagnosticReportBundleService, never()).createAll(any(Bundle.class));
+	}
+	
+	@Test
+	public void shouldGetMetadataCacheStatistics_whenUserCanAddObservations() {
+		when(metadataResolver.getHitCount()).thenReturn(40L);
+		when(metadataResolver.getMissCount()).thenReturn(6L);
+		
+		ResponseEntity<SimpleObject> response = diagnosticReportBundleController.getMetadataCacheStatistics();
+		
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals(40L, (long) response.getBody().get("hits"));
+		assertEquals(6L, (long) response.getBody().get("misses"));
+	}
+	
+	@Test
+	public void shouldNotGetMetadataCacheStatistics_whenUserCannotAddObservations() {
+		when(Context.hasPrivilege(LabReportQueueController.ADD_OBSERVATIONS_PRIVILEGE)).thenReturn(false);
+		
+		ResponseEntity<SimpleObject> response = diagnosticReportBundleController.getMetadataCacheStatistics();
+		
+		assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+		verify(metadataResolver, never()).getHitCount();
+	}
+	
+	@Test
+	public void shouldReturnResponseBundle_whenBatchBundleIsPosted() {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.BATCH);
+		bundle.addEntry().setResource(new DiagnosticReport());
+		Bundle responseBundle = new Bundle().setType(Bundle.BundleType.BATCHRESPONSE);
+		responseBundle.addEntry().getResponse().setStatus("201 Created");
+		when(diagnosticReportBundleService.createAll(any(Bundle.class))).thenReturn(responseBundle);
+		
+		ResponseEntity<String> response = diagnosticReportBundleController.createAll(parser.encodeResourceToString(bundle));
+		
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		Bundle body = parser.parseResource(Bundle.class, response.getBody());
+		assertEquals(Bundle.BundleType.BATCHRESPONSE, body.getType());
+		assertEquals("201 Created", body.getEntryFirstRep().getResponse().getStatus());
+	}
+	
+	@Test
+	public void shouldReturnBadRequest_whenBundleIsNeitherBatchNorTransaction() {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.COLLECTION);
+		
+		ResponseEntity<String> response = diagnosticReportBundleController.createAll(parser.encodeResourceToString(bundle));
+		
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+		assertTrue(response.getBody().contains(DiagnosticReportBundleController.INVALID_BUNDLE_TYPE));
+		verify(diagnosticReportBundleService, never()).createAll(any(Bundle.class));
+	}
+	
+	@Test
+	public void shouldReturnOperationOutcome_whenTransactionBundleIsRejected() {
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setDiagnostics("Invalid test Code");
+		when(diagnosticReportBundleService.createAll(any(Bundle.class))).thenThrow(
+		    new UnprocessableEntityException("Invalid transaction", outcome));
+		
+		ResponseEntity<String> response = diagnosticReportBundleController.createAll(parser.encodeResourceToString(bundle));
+		
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, response.getStatusCode());
+		OperationOutcome body = parser.parseResource(OperationOutcome.class, response.getBody());
+		assertEquals("Invalid test Code", body.getIssueFirstRep().getDiagnostics());
+	}
+}
@@ -8,13 +8,18 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.fhir2.model.FhirTask;
+import org.openmrs.module.fhirExtension.ExportTaskExecutor;
+import org.openmrs.module.fhirExtension.export.ExportMetrics;
 import org.openmrs.module.fhirExtension.service.ExportAsyncService;
+import org.openmrs.module.fhirExtension.service.ExportMetricsService;
 import org.openmrs.module.fhirExtension.service.ExportTask;
 import org.openmrs.module.webservices.rest.SimpleObject;
 import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.context.request.RequestContextHolder;
@@ -22,10 +27,19 @@ import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
 
+import java.util.Arrays;
+import java.util.List;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -43,6 +57,12 @@ public class ExportControllerTest {
 	@Mock
 	private ExportAsyncService exportAsyncService;
 	
+	@Mock
+	private ExportTaskExecutor exportTaskExecutor;
+	
+	@Mock
+	private ExportMetricsService exportMetricsService;
+	
 	@InjectMocks
 	private ExportController exportController;
 	
@@ -57,10 +77,10 @@ public class ExportControllerTest {
 	
 	@Test
 	public void shouldGetFhirTaskUrl_whenFhirExportCalled() {
-		doNothing().when(exportAsyncService).export(any(), any(), any(), any(), any());
+		doNothing().when(exportAsyncService).export(any(), any(), any(), anyBoolean(), any(), any(), any(), any(), any(), any());
 		when(exportTask.getInitialTaskResponse()).thenReturn(mockFhirTask());
-		when(exportTask.validateParams("2023-05-01", "2023-05-31")).thenReturn(null);
-		ResponseEntity<SimpleObject> responseEntity = exportController.export("2023-05-01", "2023-05-31");
+		when(exportTask.validateParams("2023-05-01", "2023-05-31", false)).thenReturn(null);
+		ResponseEntity<SimpleObject> responseEntity = exportController.export("2023-05-01", "2023-05-31", false, null, null, null);
 		SimpleObject simpleObject = responseEntity.getBody();
 		assertEquals(HttpStatus.ACCEPTED, responseEntity.getStatusCode());
 		assertEquals("ACCEPTED", simpleObject.get("status"));
@@ -68,17 +88,150 @@ public class ExportControllerTest {
 		assertThat(simpleObject.get("link"), CoreMatchers.containsString(FHIR2_R4_TASK_URI + FHIR_TASK_UUID));
 	}
 	
+	@Test
+	public void shouldStartIncrementalExport_whenIncrementalIsRequested() {
+		FhirTask fhirTask = mockFhirTask();
+		when(exportTask.getInitialTaskResponse()).thenReturn(fhirTask);
+		when(exportTask.validateParams(null, null, true)).thenReturn(null);
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.export(null, null, true, null, null, null);
+		
+		assertEquals(HttpStatus.ACCEPTED, responseEntity.getStatusCode());
+		verify(exportAsyncService, times(1)).export(eq(fhirTask), eq(null), eq(null), eq(true), eq(null), eq(null), eq(null),
+		    any(), any(), any());
+	}
+	
 	@Test
 	public void shouldGetBadRequest_whenFhirExportCalledWithInvalidDateFormat() {
-		doNothing().when(exportAsyncService).export(any(), any(), any(), any(), any());
+		doNothing().when(exportAsyncService).export(any(), any(), any(), anyBoolean(), any(), any(), any(), any(), any(), any());
 		when(exportTask.getInitialTaskResponse()).thenReturn(mockFhirTask());
-		when(exportTask.validateParams("2023-05-AB", "2023-05-31")).thenReturn("Invalid Date Format [yyyy-mm-dd]");
-		ResponseEntity<SimpleObject> responseEntity = exportController.export("2023-05-AB", "2023-05-31");
+		when(exportTask.validateParams("2023-05-AB", "2023-05-31", false)).thenReturn("Invalid Date Format [yyyy-mm-dd]");
+		ResponseEntity<SimpleObject> responseEntity = exportController.export("2023-05-AB", "2023-05-31", false, null, null, null);
 		SimpleObject simpleObject = responseEntity.getBody();
 		assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
 		assertEquals("Invalid Date Format [yyyy-mm-dd]", simpleObject.get("error"));
 	}
 	
+	@Test
+	public void shouldStartScopedExport_whenPatientsAreRequested() {
+		FhirTask fhirTask = mockFhirTask();
+		List<String> patientUuids = Arrays.asList("patient-uuid-1", "patient-uuid-2");
+		when(exportTask.getInitialTaskResponse()).thenReturn(fhirTask);
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.export(null, null, false, patientUuids, null, null);
+		
+		assertEquals(HttpStatus.ACCEPTED, responseEntity.getStatusCode());
+		verify(exportTask, times(1)).validateScope(patientUuids, null, false);
+		verify(exportAsyncService, times(1)).export(eq(fhirTask), eq(null), eq(null), eq(false), eq(patientUuids),
+		    eq(null), eq(null), any(), any(), any());
+	}
+	
+	@Test
+	public void shouldGetBadRequest_whenScopeIsInvalid() {
+		when(exportTask.validateScope(null, "unknown-cohort", false)).thenReturn("Cohort [unknown-cohort] not found");
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.export(null, null, false, null, "unknown-cohort", null);
+		
+		assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+		assertEquals("Cohort [unknown-cohort] not found", responseEntity.getBody().get("error"));
+		verify(exportTask, never()).getInitialTaskResponse();
+	}
+	
+	@Test
+	public void shouldGetBadRequest_whenResourceTypeIsNotSupported() {
+		List<String> resourceTypes = Arrays.asList("Patient", "Observation");
+		when(exportTask.validateResourceTypes(resourceTypes)).thenReturn(
+		    "Resource type [Observation] is not supported, supported types are [Condition, Patient]");
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.export(null, null, false, null, null, resourceTypes);
+		
+		assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+		verify(exportTask, never()).getInitialTaskResponse();
+	}
+	
+	@Test
+	public void shouldGetTooManyRequestsWithRetryAfter_whenExportQueueIsFull() {
+		FhirTask fhirTask = mockFhirTask();
+		doThrow(new TaskRejectedException("queue full")).when(exportAsyncService).export(any(), any(), any(), anyBoolean(), any(), any(), any(), any(), any(), any());
+		when(exportTask.getInitialTaskResponse()).thenReturn(fhirTask);
+		when(exportTask.validateParams("2023-05-01", "2023-05-31", false)).thenReturn(null);
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.export("2023-05-01", "2023-05-31", false, null, null, null);
+		
+		assertEquals(HttpStatus.TOO_MANY_REQUESTS, responseEntity.getStatusCode());
+		assertEquals("60", responseEntity.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+		assertEquals(FHIR_TASK_UUID, responseEntity.getBody().get("taskId"));
+		verify(exportTask, times(1)).rejectTask(fhirTask);
+	}
+	
+	@Test
+	public void shouldGetExecutorStatistics_whenUserHasExportPrivilege() {
+		when(Context.hasPrivilege("Export Patient Data")).thenReturn(true);
+		when(exportTaskExecutor.getActiveCount()).thenReturn(1);
+		when(exportTaskExecutor.getQueuedCount()).thenReturn(3);
+		when(exportTaskExecutor.getCompletedCount()).thenReturn(7L);
+		when(exportTaskExecutor.getRejectedCount()).thenReturn(2L);
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.getExecutorStatistics();
+		SimpleObject statistics = responseEntity.getBody();
+		
+		assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+		assertEquals(1, (int) statistics.get("active"));
+		assertEquals(3, (int) statistics.get("queued"));
+		assertEquals(7L, (long) statistics.get("completed"));
+		assertEquals(2L, (long) statistics.get("rejected"));
+	}
+	
+	@Test
+	public void shouldGetForbidden_whenUserLacksExportPrivilegeForExecutorStatistics() {
+		when(Context.hasPrivilege("Export Patient Data")).thenReturn(false);
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.getExecutorStatistics();
+		
+		assertEquals(HttpStatus.FORBIDDEN, responseEntity.getStatusCode());
+	}
+	
+	@Test
+	public void shouldGetExportMetrics_whenUserHasExportPrivilege() {
+		when(Context.hasPrivilege("Export Patient Data")).thenReturn(true);
+		ExportMetrics exportMetrics = new ExportMetrics(FHIR_TASK_UUID);
+		exportMetrics.setTotalMillis(1500);
+		ExportMetrics.ExporterMetrics exporterMetrics = exportMetrics.addExporter("PatientExport", "Patient");
+		exporterMetrics.setResourceCount(30);
+		exporterMetrics.setEncodedBytes(4000);
+		when(exportMetricsService.getMetrics(FHIR_TASK_UUID)).thenReturn(exportMetrics);
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.getMetrics(FHIR_TASK_UUID);
+		SimpleObject metrics = responseEntity.getBody();
+		
+		assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+		assertEquals(FHIR_TASK_UUID, metrics.get("taskId"));
+		assertEquals(1500L, (long) metrics.get("totalMillis"));
+		assertEquals(30L, (long) metrics.get("resourceCount"));
+		List<SimpleObject> exporters = metrics.get("exporters");
+		assertEquals(1, exporters.size());
+		assertEquals("Patient", exporters.get(0).get("resourceType"));
+		assertEquals(4000L, (long) exporters.get(0).get("encodedBytes"));
+	}
+	
+	@Test
+	public void shouldGetNotFound_whenNoMetricsAreKeptForTask() {
+		when(Context.hasPrivilege("Export Patient Data")).thenReturn(true);
+		
+		ResponseEntity<SimpleObject> responseEntity = exportController.getMetrics(FHIR_TASK_UUID);
+		
+		assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
+	}
+	
+	@Test
+	public void shouldGetForbidden_whenUserLacksExportPrivilegeForMetrics() {
+		when(Context.hasPrivilege("Export Patient Data")).thenReturn(false);
+		
+		assertEquals(HttpStatus.FORBIDDEN, exportController.getMetrics(FHIR_TASK_UUID).getStatusCode());
+		assertEquals(HttpStatus.FORBIDDEN, exportController.getRecentMetrics().getStatusCode());
+		verify(exportMetricsService, never()).getRecentMetrics();
+	}
+	
 	private FhirTask mockFhirTask() {
 		FhirTask fhirTask = new FhirTask();
 		fhirTask.setStatus(FhirTask.TaskStatus.ACCEPTED);
@@ -1,8 +1,9 @@
 package org.openmrs.module.fhirExtension.web;
 
-import org.hamcrest.CoreMatchers;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
@@ -12,18 +13,25 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.ResponseEntity;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Objects;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
-import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -37,31 +45,188 @@ public class FileDownloadControllerTest {
 	@Mock
 	private FileDownloadService fileDownloadService;
 	
+	@Mock
+	private HttpServletRequest request;
+	
+	@Mock
+	private HttpServletResponse response;
+	
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+	
+	private ByteArrayOutputStream responseBody;
+	
 	@Before
-	public void setup() {
+	public void setup() throws IOException {
 		PowerMockito.mockStatic(Context.class);
 		when(Context.getRegisteredComponent("fileDownloadService", FileDownloadService.class)).thenReturn(
 		    fileDownloadService);
-		HttpServletRequest request = PowerMockito.mock(HttpServletRequest.class);
 		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+		responseBody = new ByteArrayOutputStream();
+		when(response.getOutputStream()).thenReturn(new ByteArrayServletOutputStream(responseBody));
 	}
 	
 	@Test
 	public void shouldReturn_File_WhenExists() throws Exception {
-		byte[] bytes = new byte[10];
-		when(fileDownloadService.getFile(any())).thenReturn(bytes);
-		ResponseEntity<?> responseEntity = fileDownloadController.getFile("fileName");
-		assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
-		assertThat(Objects.requireNonNull(responseEntity.getHeaders().get("Content-Disposition")).get(0),
-		    CoreMatchers.containsString("fileName.zip"));
-		assertEquals(bytes, responseEntity.getBody());
+		byte[] bytes = "exported archive".getBytes();
+		Path file = temporaryFolder.newFile("fileName.zip").toPath();
+		Files.write(file, bytes);
+		when(fileDownloadService.getFile(any())).thenReturn(file);
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setStatus(HttpServletResponse.SC_OK);
+		verify(response).setContentLengthLong(bytes.length);
+		verify(response).setHeader(eq("Content-Disposition"), contains("fileName.zip"));
+		assertArrayEquals(bytes, responseBody.toByteArray());
 	}
 	
 	@Test
 	public void shouldReturn_NotFound_WhenMissingFile() throws Exception {
 		when(fileDownloadService.getFile(any())).thenThrow(new IOException());
-		ResponseEntity<?> responseEntity = fileDownloadController.getFile("fileName");
-		assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setStatus(HttpServletResponse.SC_NOT_FOUND);
+		verify(response, never()).getOutputStream();
+	}
+	
+	@Test
+	public void shouldReturn_PartialContent_WhenRangeRequested() throws Exception {
+		createArchive("0123456789");
+		when(request.getHeader("Range")).thenReturn("bytes=2-5");
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		verify(response).setHeader("Content-Range", "bytes 2-5/10");
+		verify(response).setContentLengthLong(4);
+		assertArrayEquals("2345".getBytes(), responseBody.toByteArray());
+	}
+	
+	@Test
+	public void shouldReturn_RemainingBytes_WhenOpenEndedRangeRequested() throws Exception {
+		createArchive("0123456789");
+		when(request.getHeader("Range")).thenReturn("bytes=7-");
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setHeader("Content-Range", "bytes 7-9/10");
+		assertArrayEquals("789".getBytes(), responseBody.toByteArray());
+	}
+	
+	@Test
+	public void shouldReturn_LastBytes_WhenSuffixRangeRequested() throws Exception {
+		createArchive("0123456789");
+		when(request.getHeader("Range")).thenReturn("bytes=-3");
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setHeader("Content-Range", "bytes 7-9/10");
+		assertArrayEquals("789".getBytes(), responseBody.toByteArray());
+	}
+	
+	@Test
+	public void shouldReturn_RangeNotSatisfiable_WhenRangeStartsBeyondFile() throws Exception {
+		createArchive("0123456789");
+		when(request.getHeader("Range")).thenReturn("bytes=10-");
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		verify(response).setHeader("Content-Range", "bytes */10");
+		assertEquals(0, responseBody.size());
 	}
 	
+	@Test
+	public void shouldReturn_PartialContent_WhenIfRangeMatchesETag() throws Exception {
+		Path file = createArchive("0123456789");
+		String eTag = "\"" + Long.toHexString(10) + "-" + Long.toHexString(Files.getLastModifiedTime(file).toMillis())
+		        + "\"";
+		when(request.getHeader("Range")).thenReturn("bytes=5-");
+		when(request.getHeader("If-Range")).thenReturn(eTag);
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setHeader("ETag", eTag);
+		verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		assertArrayEquals("56789".getBytes(), responseBody.toByteArray());
+	}
+	
+	@Test
+	public void shouldReturn_WholeFile_WhenIfRangeDoesNotMatch() throws Exception {
+		createArchive("0123456789");
+		when(request.getHeader("Range")).thenReturn("bytes=5-");
+		when(request.getHeader("If-Range")).thenReturn("\"stale\"");
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setStatus(HttpServletResponse.SC_OK);
+		assertArrayEquals("0123456789".getBytes(), responseBody.toByteArray());
+	}
+	
+	@Test
+	public void shouldReturn_WholeFile_WhenMultipleRangesRequested() throws Exception {
+		createArchive("0123456789");
+		when(request.getHeader("Range")).thenReturn("bytes=0-1,5-6");
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setStatus(HttpServletResponse.SC_OK);
+		assertArrayEquals("0123456789".getBytes(), responseBody.toByteArray());
+	}
+	
+	@Test
+	public void shouldSetLastModifiedAndAcceptRanges_WhenFileExists() throws Exception {
+		Path file = createArchive("0123456789");
+		
+		fileDownloadController.getFile("fileName", null, request, response);
+		
+		verify(response).setHeader("Accept-Ranges", "bytes");
+		verify(response).setDateHeader("Last-Modified", Files.getLastModifiedTime(file).toMillis());
+	}
+	
+	@Test
+	public void shouldReturn_BulkDataOutput_WhenOutputNameRequested() throws Exception {
+		byte[] bytes = "{\"resourceType\":\"Patient\"}\n".getBytes();
+		Path file = temporaryFolder.newFile("Patient.1.ndjson").toPath();
+		Files.write(file, bytes);
+		when(fileDownloadService.getExportOutput("fileName", "Patient.1.ndjson")).thenReturn(file);
+		
+		fileDownloadController.getFile("fileName", "Patient.1.ndjson", request, response);
+		
+		verify(response).setStatus(HttpServletResponse.SC_OK);
+		verify(response).setHeader("Content-Disposition", "attachment; filename=\"Patient.1.ndjson\"");
+		assertArrayEquals(bytes, responseBody.toByteArray());
+	}
+	
+	private Path createArchive(String content) throws IOException {
+		Path file = temporaryFolder.newFile("fileName.zip").toPath();
+		Files.write(file, content.getBytes());
+		when(fileDownloadService.getFile(any())).thenReturn(file);
+		return file;
+	}
+	
+	private static class ByteArrayServletOutputStream extends ServletOutputStream {
+		
+		private final ByteArrayOutputStream outputStream;
+		
+		ByteArrayServletOutputStream(ByteArrayOutputStream outputStream) {
+			this.outputStream = outputStream;
+		}
+		
+		@Override
+		public void write(int b) {
+			outputStream.write(b);
+		}
+		
+		@Override
+		public boolean isReady() {
+			return true;
+		}
+		
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+		}
+	}
 }
@@ -0,0 +1,129 @@
+package org.openmrs.module.fhirExtension.web;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import org.hl7.fhir.r4.model.DiagnosticReport;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.fhirExtension.domain.LabReportQueueItem;
+import org.openmrs.module.fhirExtension.service.LabReportQueueService;
+import org.openmrs.module.fhirExtension.service.LabReportQueueWorker;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Context.class })
+@PowerMockIgnore("javax.management.*")
+public class LabReportQueueControllerTest {
+	
+	private static final String ITEM_UUID = "0f0e7b2a-6a2c-4a57-9c43-3d5d2ef5b0d1";
+	
+	@Mock
+	private LabReportQueueService labReportQueueService;
+	
+	@Mock
+	private LabReportQueueWorker labReportQueueWorker;
+	
+	@Mock
+	private ObjectFactory<IParser> parserFactory;
+	
+	@InjectMocks
+	private LabReportQueueController labReportQueueController;
+	
+	@Mock
+	HttpServletRequest request;
+	
+	private final IParser parser = FhirContext.forR4().newJsonParser();
+	
+	@Before
+	public void setUp() {
+		PowerMockito.mockStatic(Context.class);
+		RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+		when(parserFactory.getObject()).thenReturn(parser);
+		when(Context.hasPrivilege(any())).thenReturn(true);
+	}
+	
+	@Test
+	public void shouldQueueReportAndReturnAccepted_whenReportIsPosted() {
+		String payload = parser.encodeResourceToString(new DiagnosticReport());
+		when(labReportQueueService.enqueue(payload)).thenReturn(getQueueItem(LabReportQueueItem.Status.QUEUED));
+		
+		ResponseEntity<SimpleObject> response = labReportQueueController.enqueue(payload);
+		
+		assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+		assertEquals("QUEUED", response.getBody().get("status"));
+		assertEquals(ITEM_UUID, response.getBody().get("id"));
+		assertThat(response.getBody().get("link"), containsString("/fhirExtension/diagnosticReport/queue/" + ITEM_UUID));
+		verify(labReportQueueWorker).submit(ITEM_UUID);
+	}
+	
+	@Test
+	public void shouldReturnBadRequest_whenPayloadIsNotADiagnosticReport() {
+		ResponseEntity<SimpleObject> response = labReportQueueController.enqueue("not json");
+		
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+		verify(labReportQueueService, never()).enqueue(anyString());
+	}
+	
+	@Test
+	public void shouldReturnForbidden_whenUserCannotAddObservations() {
+		when(Context.hasPrivilege(LabReportQueueController.ADD_OBSERVATIONS_PRIVILEGE)).thenReturn(false);
+		
+		ResponseEntity<SimpleObject> response = labReportQueueController.enqueue("{}");
+		
+		assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+		verify(labReportQueueService, never()).enqueue(anyString());
+	}
+	
+	@Test
+	public void shouldReturnResultOfCompletedItem() {
+		LabReportQueueItem item = getQueueItem(LabReportQueueItem.Status.COMPLETED);
+		item.setResult("DiagnosticReport/report-1");
+		when(labReportQueueService.getItem(ITEM_UUID)).thenReturn(item);
+		
+		ResponseEntity<SimpleObject> response = labReportQueueController.getStatus(ITEM_UUID);
+		
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals("COMPLETED", response.getBody().get("status"));
+		assertEquals("DiagnosticReport/report-1", response.getBody().get("result"));
+	}
+	
+	@Test
+	public void shouldReturnNotFound_whenItemIsUnknown() {
+		when(labReportQueueService.getItem(ITEM_UUID)).thenReturn(null);
+		
+		ResponseEntity<SimpleObject> response = labReportQueueController.getStatus(ITEM_UUID);
+		
+		assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+	}
+	
+	private LabReportQueueItem getQueueItem(LabReportQueueItem.Status status) {
+		LabReportQueueItem item = new LabReportQueueItem();
+		item.setUuid(ITEM_UUID);
+		item.setStatus(status);
+		return item;
+	}
+}